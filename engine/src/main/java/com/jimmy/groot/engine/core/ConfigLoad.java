@@ -89,8 +89,9 @@ public class ConfigLoad {
      * @return
      */
     private void loadProperties() {
+        this.properties = new Properties();
+
         try (FileInputStream fileInputStream = new FileInputStream(ENGINE_PROPERTIES_PATH); InputStreamReader inputStreamReader = new InputStreamReader(fileInputStream); BufferedReader bfReader = new BufferedReader(inputStreamReader)) {
-            this.properties = new Properties();
             properties.load(bfReader);
         } catch (IOException e) {
             e.printStackTrace();
@@ -7,6 +7,7 @@ import cn.hutool.core.util.StrUtil;
 import cn.hutool.crypto.SecureUtil;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.googlecode.aviator.AviatorEvaluator;
 import com.googlecode.aviator.Expression;
 import com.jimmy.groot.engine.base.Convert;
 import com.jimmy.groot.engine.base.Data;
@@ -14,15 +15,19 @@ import com.jimmy.groot.engine.convert.DateConvert;
 import com.jimmy.groot.engine.convert.DefaultConvert;
 import com.jimmy.groot.engine.data.other.ConditionExpression;
 import com.jimmy.groot.engine.data.other.IndexData;
+import com.jimmy.groot.engine.data.other.QueryCursor;
 import com.jimmy.groot.engine.exception.SqlException;
 import com.jimmy.groot.engine.metadata.Column;
 import com.jimmy.groot.engine.metadata.Index;
 import com.jimmy.groot.platform.other.Assert;
 import com.jimmy.groot.sql.core.AggregateEnum;
 import com.jimmy.groot.sql.core.AggregateFunction;
+import com.jimmy.groot.sql.core.Condition;
+import com.jimmy.groot.sql.element.ConditionElement;
 import com.jimmy.groot.sql.element.QueryElement;
 import com.jimmy.groot.sql.enums.ColumnTypeEnum;
 import com.jimmy.groot.sql.enums.ConditionEnum;
+import com.jimmy.groot.sql.enums.ConditionTypeEnum;
 import com.jimmy.groot.sql.other.MapComparator;
 import lombok.extern.slf4j.Slf4j;
 
@@ -47,6 +52,7 @@ public abstract class AbstractData implements Data {
     public AbstractData(List<Column> columns) {
         this.uniqueIndex = new Index("unique key");
         this.partitionIndex = new Index("partition key");
+        this.columnMap = Maps.newLinkedHashMap();
         this.converts.put(ColumnTypeEnum.DATE, new DateConvert());
 
         for (Column column : columns) {
@@ -168,6 +174,194 @@ public abstract class AbstractData implements Data {
         }
     }
 
+    /**
+     * 填充已经读取的数据
+     *
+     * @param expression
+     * @param data       包含条件中的字段和唯一键字段
+     * @param total
+     * @param records
+     * @param start
+     */
+    protected void filterAndPut(ConditionExpression expression,
+                                Map<String, Object> data,
+                                AtomicInteger total,
+                                Map<String, Map<String, Object>> records,
+                                int start) {
+        Expression otherExpression = expression.getOtherExpression();
+        Expression uniqueExpression = expression.getUniqueExpression();
+
+        if (uniqueExpression != null && !this.filter(data, expression.getUniqueConditionArgument(), uniqueExpression)) {
+            return;
+        }
+
+        if (otherExpression != null && !this.filter(data, expression.getOtherConditionArgument(), otherExpression)) {
+            return;
+        }
+
+        int i = total.incrementAndGet();
+        if (i > start) {
+            this.putRecords(records, data);
+        }
+    }
+
+    /**
+     * 获取条件所有表达式，条件之间为或，条件内为且
+     * <p>
+     * 完整表达式按行数据判断；所有条件都包含唯一键条件时，各条件唯一键部分的或作为唯一键表达式，先用唯一键数据过滤
+     *
+     * @param conditionElements
+     * @return
+     */
+    protected ConditionExpression getConditionCollect(List<ConditionElement> conditionElements) {
+        int i = 0;
+        boolean isAllUnique = true;
+        StringBuilder parentOtherExpression = new StringBuilder();
+        StringBuilder parentUniqueExpression = new StringBuilder();
+        ConditionExpression conditionExpression = new ConditionExpression();
+
+        for (ConditionElement conditionElement : conditionElements) {
+            List<Condition> conditions = conditionElement.getConditions();
+            //没有条件匹配所有行
+            if (CollUtil.isEmpty(conditions)) {
+                return new ConditionExpression();
+            }
+
+            StringBuilder childOtherExpression = new StringBuilder();
+            StringBuilder childUniqueExpression = new StringBuilder();
+
+            for (Condition condition : conditions) {
+                Column column = this.columnMap.get(condition.getFieldName());
+
+                String expCondition = this.getExpCondition(
+                        column,
+                        condition.getFieldValue(),
+                        condition.getConditionEnum(),
+                        conditionExpression.getOtherConditionArgument(),
+                        i);
+
+                if (column.getIsUniqueKey()) {
+                    this.getExpCondition(column, condition.getFieldValue(), condition.getConditionEnum(), conditionExpression.getUniqueConditionArgument(), i);
+
+                    if (StrUtil.isNotBlank(childUniqueExpression)) {
+                        childUniqueExpression.append(ConditionTypeEnum.AND.getExpression());
+                    }
+
+                    childUniqueExpression.append(expCondition);
+                }
+
+                if (StrUtil.isNotBlank(childOtherExpression)) {
+                    childOtherExpression.append(ConditionTypeEnum.AND.getExpression());
+                }
+
+                childOtherExpression.append(expCondition);
+                i++;
+            }
+
+            if (StrUtil.isNotBlank(parentOtherExpression)) {
+                parentOtherExpression.append(ConditionTypeEnum.OR.getExpression());
+            }
+
+            parentOtherExpression.append("(").append(childOtherExpression).append(")");
+
+            if (StrUtil.isBlank(childUniqueExpression)) {
+                isAllUnique = false;
+                continue;
+            }
+
+            if (StrUtil.isNotBlank(parentUniqueExpression)) {
+                parentUniqueExpression.append(ConditionTypeEnum.OR.getExpression());
+            }
+
+            parentUniqueExpression.append("(").append(childUniqueExpression).append(")");
+        }
+
+        if (StrUtil.isNotBlank(parentOtherExpression)) {
+            conditionExpression.setOtherExpression(AviatorEvaluator.compile(parentOtherExpression.toString()));
+        }
+
+        if (isAllUnique && StrUtil.isNotBlank(parentUniqueExpression)) {
+            conditionExpression.setUniqueExpression(AviatorEvaluator.compile(parentUniqueExpression.toString()));
+        }
+
+        return conditionExpression;
+    }
+
+    /**
+     * 所有条件都指定了唯一键时，只需要查询这些唯一键
+     *
+     * @param conditionElements
+     * @return 按唯一键排序，有条件没有指定唯一键时返回null
+     */
+    protected TreeSet<String> getUniqueCodes(List<ConditionElement> conditionElements) {
+        TreeSet<String> uniqueCodes = new TreeSet<>();
+        for (ConditionElement conditionElement : conditionElements) {
+            if (CollUtil.isEmpty(conditionElement.getUniqueCodes())) {
+                return null;
+            }
+
+            uniqueCodes.addAll(conditionElement.getUniqueCodes());
+        }
+
+        return uniqueCodes;
+    }
+
+    /**
+     * 所有条件都指定了分区时，只需要查询这些分区
+     *
+     * @param conditionElements
+     * @return 按分区排序，有条件没有指定分区时返回null
+     */
+    protected TreeSet<String> getPartitionCodes(List<ConditionElement> conditionElements) {
+        TreeSet<String> partitionCodes = new TreeSet<>();
+        for (ConditionElement conditionElement : conditionElements) {
+            if (CollUtil.isEmpty(conditionElement.getPartitionCodes())) {
+                return null;
+            }
+
+            partitionCodes.addAll(conditionElement.getPartitionCodes());
+        }
+
+        return partitionCodes;
+    }
+
+    /**
+     * 过滤需要读取的字段，条件中的字段和唯一键字段需要一起读取
+     *
+     * @param conditionElements
+     * @param needColumnNames
+     * @param isAllColumn
+     * @return
+     */
+    protected Set<String> getReadColumnNames(List<ConditionElement> conditionElements, Set<String> needColumnNames, boolean isAllColumn) {
+        if (isAllColumn) {
+            return needColumnNames;
+        }
+
+        Set<String> readColumnNames = new HashSet<>(needColumnNames);
+        readColumnNames.addAll(this.uniqueIndex.getColumns());
+        for (ConditionElement conditionElement : conditionElements) {
+            for (Condition condition : CollUtil.emptyIfNull(conditionElement.getConditions())) {
+                readColumnNames.add(condition.getFieldName());
+            }
+        }
+
+        return readColumnNames;
+    }
+
+    /**
+     * 设置下一页游标，返回的数量不足一页时没有下一页
+     *
+     * @param queryElement
+     * @param position     返回的最后一行
+     * @param size         返回的数量
+     * @param pageSize     每页数量，查询全部时为0
+     */
+    protected void setNextCursor(QueryElement queryElement, QueryCursor position, int size, int pageSize) {
+        boolean hasNext = pageSize > 0 && size >= pageSize && !position.isEmpty();
+        queryElement.setNextCursor(hasNext ? position.encode() : null);
+    }
+
     /**
      * 过滤数据
      *
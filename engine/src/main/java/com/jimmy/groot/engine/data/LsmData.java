@@ -5,21 +5,24 @@ import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.map.MapUtil;
 import cn.hutool.core.util.ArrayUtil;
 import cn.hutool.core.util.StrUtil;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.googlecode.aviator.AviatorEvaluator;
 import com.jimmy.groot.engine.base.Convert;
 import com.jimmy.groot.engine.data.other.IndexData;
+import com.jimmy.groot.engine.data.other.PrimaryKeyDirectory;
+import com.jimmy.groot.engine.data.other.QueryCursor;
+import com.jimmy.groot.engine.data.other.RowCodec;
+import com.jimmy.groot.engine.data.lsm.LsmIterator;
 import com.jimmy.groot.engine.data.lsm.LsmStore;
+import com.jimmy.groot.engine.data.lsm.WriteBatch;
 import com.jimmy.groot.engine.data.other.ConditionExpression;
+import com.jimmy.groot.engine.enums.CompactionStrategyEnum;
+import com.jimmy.groot.engine.enums.StorageLayoutEnum;
 import com.jimmy.groot.engine.exception.SqlException;
 import com.jimmy.groot.engine.metadata.Column;
-import com.jimmy.groot.engine.metadata.Row;
-import com.jimmy.groot.sql.core.Condition;
 import com.jimmy.groot.sql.element.ConditionElement;
 import com.jimmy.groot.sql.element.QueryElement;
-import com.jimmy.groot.sql.enums.ConditionTypeEnum;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
@@ -30,7 +33,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Slf4j
 public class LsmData extends AbstractData {
 
-    private static final String KEY_ROW_SUFFIX = ":row:data";
+    private static final String KEY_GROUP_SEPARATOR = ":@";
+
+    private long ttl;
 
     private long partSize;
 
@@ -42,9 +47,19 @@ public class LsmData extends AbstractData {
 
     private int storeThreshold;
 
-    private LsmStore uniqueStore;
+    /**
+     * 唯一键到分区的目录
+     */
+    private PrimaryKeyDirectory primaryKeys;
+
+    private CompactionStrategyEnum compactionStrategy;
 
-    private ObjectMapper objectMapper;
+    private StorageLayoutEnum storageLayout;
+
+    /**
+     * 行存储和字段组存储时每组的字段，按字段顺序编码
+     */
+    private List<List<String>> columnGroups;
 
     private ConcurrentMap<String, LsmStore> partitions;
 
@@ -53,22 +68,61 @@ public class LsmData extends AbstractData {
     }
 
     public static LsmData build(List<Column> columns, String dataDir, String tableName, int storeThreshold, int partSize, int expectCount) {
+        return build(columns, dataDir, tableName, storeThreshold, partSize, expectCount, CompactionStrategyEnum.LEVELED, 0L);
+    }
+
+    /**
+     * @param columns
+     * @param dataDir
+     * @param tableName
+     * @param storeThreshold
+     * @param partSize
+     * @param expectCount
+     * @param compactionStrategy 合并策略，追加为主的表适合分级大小合并，更新频繁的表适合分层合并，按时间过期的事件表适合FIFO
+     * @param ttl                FIFO策略的文件过期时间，毫秒，必须大于0
+     * @return
+     */
+    public static LsmData build(List<Column> columns, String dataDir, String tableName, int storeThreshold, int partSize, int expectCount, CompactionStrategyEnum compactionStrategy, long ttl) {
+        return build(columns, dataDir, tableName, storeThreshold, partSize, expectCount, compactionStrategy, ttl, StorageLayoutEnum.COLUMN, null);
+    }
+
+    /**
+     * @param columns
+     * @param dataDir
+     * @param tableName
+     * @param storeThreshold
+     * @param partSize
+     * @param expectCount
+     * @param compactionStrategy
+     * @param ttl
+     * @param storageLayout      存储布局，整行读取为主的表适合行存储，少数字段读写频繁的宽表适合字段组存储，
+     *                           行存储和字段组存储按字段顺序编码，同一张表需要保持字段顺序不变
+     * @param hotColumnGroups    字段组存储时单独存储的字段组，其余字段合并为一组
+     * @return
+     */
+    public static LsmData build(List<Column> columns, String dataDir, String tableName, int storeThreshold, int partSize, int expectCount, CompactionStrategyEnum compactionStrategy, long ttl, StorageLayoutEnum storageLayout, List<List<String>> hotColumnGroups) {
         LsmData lsmData = new LsmData(columns);
+        lsmData.storageLayout = storageLayout;
+        lsmData.columnGroups = lsmData.buildColumnGroups(storageLayout, hotColumnGroups);
+        lsmData.ttl = ttl;
+        lsmData.compactionStrategy = compactionStrategy;
         lsmData.dataDir = dataDir;
         lsmData.partSize = partSize;
         lsmData.tableName = tableName;
         lsmData.expectCount = expectCount;
         lsmData.storeThreshold = storeThreshold;
-        lsmData.objectMapper = new ObjectMapper();
         lsmData.partitions = Maps.newConcurrentMap();
-        lsmData.uniqueStore = LsmStore.build(dataDir + StrUtil.SLASH + tableName + StrUtil.SLASH + lsmData.uniqueIndex.getName() + StrUtil.SLASH, storeThreshold, partSize, expectCount);
+
+        String uniqueDirName = lsmData.uniqueIndex.getName();
+        lsmData.primaryKeys = PrimaryKeyDirectory.build(dataDir + StrUtil.SLASH + tableName + StrUtil.SLASH + uniqueDirName + StrUtil.SLASH, storeThreshold, partSize, expectCount, compactionStrategy, ttl);
 
         File[] files = FileUtil.newFile(dataDir + StrUtil.SLASH + tableName + StrUtil.SLASH).listFiles();
         if (ArrayUtil.isNotEmpty(files)) {
             for (File file : files) {
-                if (file.isDirectory()) {
+                //主键目录不是分区
+                if (file.isDirectory() && !file.getName().equals(uniqueDirName)) {
                     String name = file.getName();
-                    lsmData.partitions.put(name, LsmStore.build(file.getPath() + StrUtil.SLASH, storeThreshold, partSize, expectCount));
+                    lsmData.partitions.put(name, LsmStore.build(file.getPath() + StrUtil.SLASH, storeThreshold, partSize, expectCount, compactionStrategy, ttl));
                 }
             }
         }
@@ -87,16 +141,11 @@ public class LsmData extends AbstractData {
             String partitionDataKey = partitionData.getKey();
 
             String path = dataDir + StrUtil.SLASH + tableName + StrUtil.SLASH + partitionDataKey + StrUtil.SLASH;
-            partitions.computeIfAbsent(partitionDataKey, s -> LsmStore.build(path, storeThreshold, partSize, expectCount));
+            partitions.computeIfAbsent(partitionDataKey, s -> LsmStore.build(path, storeThreshold, partSize, expectCount, compactionStrategy, ttl));
 
             LsmStore lsmStore = partitions.get(partitionDataKey);
 
-            Row row = new Row();
-            row.setUniqueDataKey(uniqueDataKey);
-            row.setPartitionDataKey(partitionDataKey);
-            row.setInsertTime(System.currentTimeMillis());
-            uniqueStore.set(uniqueDataKey + KEY_ROW_SUFFIX, objectMapper.writeValueAsString(row));
-
+            Map<String, String> values = Maps.newHashMap();
             for (Map.Entry<String, Object> entry : doc.entrySet()) {
                 String key = entry.getKey();
                 Object value = entry.getValue();
@@ -107,13 +156,32 @@ public class LsmData extends AbstractData {
                 }
 
                 if (value == null) {
-                    lsmStore.set(uniqueDataKey + StrUtil.COLON + key, null);
+                    values.put(key, null);
                     continue;
                 }
 
                 Convert<?> convert = super.getConvert(column.getColumnType());
-                lsmStore.set(uniqueDataKey + StrUtil.COLON + key, convertValueToString(convert, value));
+                values.put(key, convertValueToString(convert, value));
+            }
+
+            WriteBatch writeBatch = new WriteBatch();
+            if (storageLayout == StorageLayoutEnum.COLUMN) {
+                values.forEach((key, value) -> writeBatch.set(uniqueDataKey + StrUtil.COLON + key, value));
+            } else {
+                //整行覆盖，每组编码成一个值
+                for (int i = 0; i < columnGroups.size(); i++) {
+                    List<String> groupValues = Lists.newArrayListWithCapacity(columnGroups.get(i).size());
+                    for (String name : columnGroups.get(i)) {
+                        groupValues.add(values.get(name));
+                    }
+
+                    writeBatch.set(this.groupKey(uniqueDataKey, i), RowCodec.encode(groupValues));
+                }
             }
+            //整行字段一次写入，字段写入完成后再写入主键，主键存在时字段一定完整
+            lsmStore.write(writeBatch);
+
+            primaryKeys.put(uniqueDataKey, partitionDataKey);
         } catch (SqlException e) {
             throw e;
         } catch (Exception e) {
@@ -123,13 +191,45 @@ public class LsmData extends AbstractData {
 
     @Override
     public void remove(Map<String, Object> doc) {
-        uniqueStore.remove(super.getIndexData(doc, super.uniqueIndex).getKey() + KEY_ROW_SUFFIX);
+        try {
+            String uniqueDataKey = super.getIndexData(doc, super.uniqueIndex).getKey();
+
+            String partitionDataKey = primaryKeys.get(uniqueDataKey);
+            if (partitionDataKey == null) {
+                return;
+            }
+            //先删除主键，数据不再可见后再批量删除字段
+            primaryKeys.remove(uniqueDataKey);
+
+            LsmStore lsmStore = partitions.get(partitionDataKey);
+            if (lsmStore == null) {
+                return;
+            }
+
+            WriteBatch writeBatch = new WriteBatch();
+            if (storageLayout == StorageLayoutEnum.COLUMN) {
+                for (Column column : super.columnMap.values()) {
+                    writeBatch.remove(uniqueDataKey + StrUtil.COLON + column.getName());
+                }
+            } else {
+                for (int i = 0; i < columnGroups.size(); i++) {
+                    writeBatch.remove(this.groupKey(uniqueDataKey, i));
+                }
+            }
+            lsmStore.write(writeBatch);
+        } catch (SqlException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SqlException(e.getMessage());
+        }
     }
 
     @Override
     protected Collection<Map<String, Object>> queryList(QueryElement queryElement) throws Exception {
-        int end = queryElement.getEnd();
-        int start = queryElement.getStart();
+        QueryCursor cursor = QueryCursor.parse(queryElement.getCursor());
+        //游标分页从游标之后开始，不需要跳过前面的行
+        int end = cursor != null ? queryElement.getEnd() - queryElement.getStart() : queryElement.getEnd();
+        int start = cursor != null ? 0 : queryElement.getStart();
         boolean isFindAll = queryElement.isSelectAll();
         boolean allColumn = queryElement.isAllColumn();
         boolean withoutCondition = queryElement.isWithoutCondition();
@@ -146,61 +246,60 @@ public class LsmData extends AbstractData {
                 return Lists.newArrayList();
             }
 
-            return this.withoutCondition(isFindAll, start, end, needColumnNames, allColumn);
+            QueryCursor position = new QueryCursor();
+            Collection<Map<String, Object>> result = this.withoutCondition(isFindAll, start, end, needColumnNames, allColumn, cursor, position);
+            super.setNextCursor(queryElement, position, result.size(), isFindAll ? 0 : end - start);
+            return result;
         }
 
         AtomicInteger total = new AtomicInteger(0);
-        Map<String, Map<String, Object>> records = Maps.newHashMap();
-        Collection<Map<String, Object>> allData = Lists.newArrayList();
-
-        for (ConditionElement conditionElement : conditionElements) {
-            Set<String> uniqueCodes = conditionElement.getUniqueCodes();
-
-            if (CollUtil.isNotEmpty(uniqueCodes)) {
-                this.queryByUnique(conditionElement,
-                        records,
-                        isFindAll,
-                        start,
-                        end,
-                        total,
-                        allColumn,
-                        needColumnNames);
-            } else {
-                if (CollUtil.isEmpty(allData)) {
-                    allData.addAll(this.withoutCondition(true,
-                            start,
-                            end,
-                            needColumnNames,
-                            allColumn));
-                }
-
-                if (CollUtil.isEmpty(allData)) {
-                    return Lists.newArrayList();
-                }
-
-                this.queryAll(conditionElement,
-                        records,
-                        isFindAll,
-                        start,
-                        end,
-                        total,
-                        allData,
-                        needColumnNames,
-                        allColumn);
-            }
-
-            if (!isFindAll && total.get() >= end) {
-                break;
-            }
+        QueryCursor position = new QueryCursor();
+        //按扫描顺序返回，最后一行作为下一页的游标
+        Map<String, Map<String, Object>> records = Maps.newLinkedHashMap();
+
+        //条件之间为或，按整体表达式一次有序扫描，返回顺序和游标一致
+        ConditionExpression conditionExpression = super.getConditionCollect(conditionElements);
+        Set<String> readColumnNames = super.getReadColumnNames(conditionElements, needColumnNames, allColumn);
+        TreeSet<String> uniqueCodes = super.getUniqueCodes(conditionElements);
+
+        if (uniqueCodes != null) {
+            this.queryByUnique(conditionExpression,
+                    uniqueCodes,
+                    records,
+                    isFindAll,
+                    start,
+                    end,
+                    total,
+                    readColumnNames,
+                    allColumn,
+                    cursor,
+                    position);
+        } else {
+            this.scanAndFilter(conditionExpression,
+                    super.getPartitionCodes(conditionElements),
+                    records,
+                    isFindAll,
+                    start,
+                    end,
+                    total,
+                    readColumnNames,
+                    allColumn,
+                    cursor,
+                    position);
         }
 
-        return isFindAll ? records.values() : CollUtil.sub(records.values(), 0, end - start);
+        Collection<Map<String, Object>> result = isFindAll ? records.values() : CollUtil.sub(records.values(), 0, end - start);
+        super.setNextCursor(queryElement, position, result.size(), isFindAll ? 0 : end - start);
+        return result;
     }
 
     @Override
     protected Map<String, Object> uniqueKeyToData(String partitionKey, String uniqueKey, Set<String> needColumnNames, boolean isAllColumn) throws Exception {
-        Row row = objectMapper.readValue(uniqueStore.get(uniqueKey), Row.class);
-        String partitionDataKey = row.getPartitionDataKey();
+        //遍历主键目录时已知分区，不需要再查询
+        String partitionDataKey = partitionKey != null ? partitionKey : primaryKeys.get(uniqueKey);
+        if (partitionDataKey == null) {
+            return null;
+        }
 
         LsmStore lsmStore = partitions.get(partitionDataKey);
         if (lsmStore == null) {
@@ -209,6 +308,11 @@ public class LsmData extends AbstractData {
 
         Map<String, Object> data = Maps.newHashMap();
 
+        if (storageLayout != StorageLayoutEnum.COLUMN) {
+            this.readColumnGroups(lsmStore, uniqueKey, needColumnNames, isAllColumn, data);
+            return data;
+        }
+
         for (Column column : super.columnMap.values()) {
             String name = column.getName();
 
@@ -224,189 +328,326 @@ public class LsmData extends AbstractData {
     }
 
     /**
-     * 查询所有
+     * 按组读取，只读取包含所需字段的组，组内只解码所需字段
      *
-     * @param conditionElement
-     * @param records
-     * @param isFindAll
-     * @param end
-     * @param total
-     * @param allData
+     * @param lsmStore
+     * @param uniqueKey
+     * @param needColumnNames
+     * @param isAllColumn
+     * @param data
      */
-    private void queryAll(ConditionElement conditionElement,
-                          Map<String, Map<String, Object>> records,
-                          boolean isFindAll,
-                          int start,
-                          int end,
-                          AtomicInteger total,
-                          Collection<Map<String, Object>> allData,
-                          Set<String> needColumnNames,
-                          boolean isAllColumn) throws Exception {
-
-        List<Condition> conditions = conditionElement.getConditions();
-        //获取表达式
-        ConditionExpression conditionExpression = this.getConditionExpression(conditions);
-
-        for (Map<String, Object> data : allData) {
-            if (!isFindAll && total.get() > end) {
-                break;
+    private void readColumnGroups(LsmStore lsmStore, String uniqueKey, Set<String> needColumnNames, boolean isAllColumn, Map<String, Object> data) {
+        for (int i = 0; i < columnGroups.size(); i++) {
+            List<String> group = columnGroups.get(i);
+
+            boolean[] needed = new boolean[group.size()];
+            boolean anyNeeded = false;
+            for (int j = 0; j < group.size(); j++) {
+                needed[j] = isAllColumn || needColumnNames.contains(group.get(j));
+                anyNeeded |= needed[j];
             }
 
-            IndexData indexData = super.getIndexData(data, super.uniqueIndex);
+            if (!anyNeeded) {
+                continue;
+            }
 
-            String uniqueKey = indexData.getKey();
+            String row = lsmStore.get(this.groupKey(uniqueKey, i));
+            String[] values = row == null ? new String[group.size()] : RowCodec.decode(row, needed);
+            for (int j = 0; j < group.size(); j++) {
+                if (!needed[j]) {
+                    continue;
+                }
 
-            if (records.containsKey(uniqueKey)) {
-                continue;
+                String name = group.get(j);
+                data.put(name, values[j] == null ? null : super.getConvert(super.columnMap.get(name).getColumnType()).convert(values[j]));
             }
+        }
+    }
 
-            this.filterAndPut(conditionExpression,
-                    uniqueKey,
-                    null,
-                    total,
-                    records,
-                    isFindAll ? 0 : start,
-                    needColumnNames,
-                    isAllColumn);
+    /**
+     * 按存储布局划分字段组，字段组存储时未指定的字段按字段顺序合并为最后一组
+     *
+     * @param storageLayout
+     * @param hotColumnGroups
+     * @return 按字段存储返回null
+     */
+    private List<List<String>> buildColumnGroups(StorageLayoutEnum storageLayout, List<List<String>> hotColumnGroups) {
+        if (storageLayout == StorageLayoutEnum.COLUMN) {
+            return null;
         }
+
+        List<List<String>> groups = Lists.newArrayList();
+        Set<String> grouped = new HashSet<>();
+        if (storageLayout == StorageLayoutEnum.COLUMN_GROUP && CollUtil.isNotEmpty(hotColumnGroups)) {
+            for (List<String> hotColumnGroup : hotColumnGroups) {
+                for (String name : hotColumnGroup) {
+                    if (!super.columnMap.containsKey(name)) {
+                        throw new SqlException(name + "表字段不存在");
+                    }
+
+                    if (!grouped.add(name)) {
+                        throw new SqlException(name + "字段重复分组");
+                    }
+                }
+
+                groups.add(Lists.newArrayList(hotColumnGroup));
+            }
+        }
+
+        List<String> rest = Lists.newArrayList();
+        for (String name : super.columnMap.keySet()) {
+            if (!grouped.contains(name)) {
+                rest.add(name);
+            }
+        }
+
+        if (!rest.isEmpty()) {
+            groups.add(rest);
+        }
+        return groups;
+    }
+
+    private String groupKey(String uniqueKey, int group) {
+        return uniqueKey + KEY_GROUP_SEPARATOR + group;
     }
 
     /**
-     * 根据主键查询
+     * 流式扫描过滤，逐行读取并判断条件，满足条件的数量达到end时停止，不需要加载整张表
+     * <p>
+     * 所有条件都指定了分区时按分区顺序只扫描对应分区的存储，否则按唯一键顺序遍历主键目录，有游标时从游标之后开始
      *
-     * @param conditionElement
+     * @param conditionExpression
+     * @param partitionCodes      条件中的分区，为空时遍历主键目录
      * @param records
      * @param isFindAll
+     * @param start
      * @param end
      * @param total
-     * @param allColumn
-     * @param needColumnNames
-     * @throws Exception
+     * @param readColumnNames
+     * @param isAllColumn
+     * @param cursor              上一页的游标，可以为空
+     * @param position            返回的最后一行
      */
-    private void queryByUnique(ConditionElement conditionElement,
+    private void scanAndFilter(ConditionExpression conditionExpression,
+                               TreeSet<String> partitionCodes,
                                Map<String, Map<String, Object>> records,
                                boolean isFindAll,
                                int start,
                                int end,
                                AtomicInteger total,
-                               boolean allColumn,
-                               Set<String> needColumnNames) throws Exception {
-        List<Condition> conditions = conditionElement.getConditions();
-        Collection<String> uniqueCodes = conditionElement.getUniqueCodes();
-        Collection<String> partitionCodes = conditionElement.getPartitionCodes();
+                               Set<String> readColumnNames,
+                               boolean isAllColumn,
+                               QueryCursor cursor,
+                               QueryCursor position) throws Exception {
         if (CollUtil.isEmpty(partitionCodes)) {
-            throw new SqlException("select partition fail");
+            try (PrimaryKeyDirectory.DirectoryIterator iterator = primaryKeys.scan(cursor == null ? null : cursor.getUniqueKey())) {
+                this.filterRows(iterator, conditionExpression, records, isFindAll, start, end, total, readColumnNames, isAllColumn, position);
+            }
+            return;
         }
-        //获取表达式
-        ConditionExpression conditionExpression = this.getConditionExpression(conditions);
+        //分区裁剪，按分区顺序扫描，游标所在分区之前的分区已经返回过
+        for (String partitionCode : partitionCodes) {
+            if (!isFindAll && total.get() >= end) {
+                break;
+            }
 
-        if (!isFindAll) {
-            uniqueCodes.removeIf(uniqueCode -> StrUtil.isEmpty(uniqueStore.get(uniqueCode + KEY_ROW_SUFFIX)) || records.containsKey(uniqueCode));
+            if (cursor != null && cursor.isPassed(partitionCode)) {
+                continue;
+            }
 
-            if (CollUtil.isEmpty(uniqueCodes)) {
-                return;
+            LsmStore lsmStore = partitions.get(partitionCode);
+            if (lsmStore == null) {
+                continue;
             }
+            //跳过游标所在行的所有key，冒号之后的下一个字符为分号
+            String afterKey = cursor == null ? null : cursor.uniqueKeyIn(partitionCode);
+            String fromKey = afterKey == null ? null : afterKey + ';';
 
-            int andAdd = total.getAndAdd(uniqueCodes.size());
-            uniqueCodes = CollUtil.sub(uniqueCodes, andAdd, end);
+            try (LsmIterator iterator = lsmStore.scan(fromKey, null)) {
+                this.filterRows(this.partitionRows(iterator, partitionCode), conditionExpression, records, isFindAll, start, end, total, readColumnNames, isAllColumn, position);
+            }
         }
+    }
 
-        for (String uniqueCode : uniqueCodes) {
+    /**
+     * 逐行过滤
+     *
+     * @param rows                key为唯一键，value为分区
+     * @param conditionExpression
+     * @param records
+     * @param isFindAll
+     * @param start
+     * @param end
+     * @param total
+     * @param readColumnNames
+     * @param isAllColumn
+     * @param position            返回的最后一行
+     * @throws Exception
+     */
+    private void filterRows(Iterator<Map.Entry<String, String>> rows,
+                            ConditionExpression conditionExpression,
+                            Map<String, Map<String, Object>> records,
+                            boolean isFindAll,
+                            int start,
+                            int end,
+                            AtomicInteger total,
+                            Set<String> readColumnNames,
+                            boolean isAllColumn,
+                            QueryCursor position) throws Exception {
+        while (rows.hasNext()) {
+            if (!isFindAll && total.get() >= end) {
+                break;
+            }
+
+            Map.Entry<String, String> row = rows.next();
+            if (records.containsKey(row.getKey())) {
+                continue;
+            }
+
+            int size = records.size();
             this.filterAndPut(conditionExpression,
-                    uniqueCode,
-                    null,
+                    row.getKey(),
+                    row.getValue(),
                     total,
                     records,
                     isFindAll ? 0 : start,
-                    needColumnNames,
-                    allColumn);
+                    readColumnNames,
+                    isAllColumn);
+
+            if (records.size() > size) {
+                position.moveTo(row.getValue(), row.getKey());
+            }
         }
     }
 
     /**
-     * 获取条件表达式
+     * 分区存储中的唯一键，同一行的多个key相邻，只输出一次
+     * <p>
+     * 修改分区后旧分区中的数据不会删除，以主键目录中记录的分区为准
      *
-     * @param conditions
+     * @param iterator
+     * @param partitionCode
      * @return
      */
-    private ConditionExpression getConditionExpression(List<Condition> conditions) {
-        int i = 0;
-        StringBuilder otherExpression = new StringBuilder();
-        StringBuilder uniqueExpression = new StringBuilder();
-        ConditionExpression conditionExpression = new ConditionExpression();
-
-        if (CollUtil.isEmpty(conditions)) {
-            return conditionExpression;
-        }
-
-        for (Condition condition : conditions) {
-            Column column = super.columnMap.get(condition.getFieldName());
-
-            Boolean isUniqueKey = column.getIsUniqueKey();
-
-            String expCondition = super.getExpCondition(
-                    column,
-                    condition.getFieldValue(),
-                    condition.getConditionEnum(),
-                    isUniqueKey ? conditionExpression.getUniqueConditionArgument() : conditionExpression.getOtherConditionArgument(),
-                    i++);
-
-            StringBuilder expression = isUniqueKey ? uniqueExpression : otherExpression;
+    private Iterator<Map.Entry<String, String>> partitionRows(LsmIterator iterator, String partitionCode) {
+        return new AbstractIterator<Map.Entry<String, String>>() {
+
+            private String last;
+
+            @Override
+            protected Map.Entry<String, String> computeNext() {
+                while (iterator.hasNext()) {
+                    String key = iterator.next().getKey();
+                    String uniqueKey = key.substring(0, key.indexOf(StrUtil.COLON));
+                    if (uniqueKey.equals(last)) {
+                        continue;
+                    }
+
+                    last = uniqueKey;
+                    if (partitionCode.equals(primaryKeys.get(uniqueKey))) {
+                        return Maps.immutableEntry(uniqueKey, partitionCode);
+                    }
+                }
 
-            if (StrUtil.isNotBlank(expression)) {
-                expression.append(ConditionTypeEnum.AND.getExpression());
+                return endOfData();
             }
+        };
+    }
 
-            expression.append(expCondition);
-        }
-
-        if (StrUtil.isNotBlank(otherExpression)) {
-            conditionExpression.setOtherExpression(AviatorEvaluator.compile(otherExpression.toString()));
-        }
+    /**
+     * 根据主键查询，按唯一键顺序返回，有游标时从游标之后开始
+     *
+     * @param conditionExpression
+     * @param uniqueCodes
+     * @param records
+     * @param isFindAll
+     * @param start
+     * @param end
+     * @param total
+     * @param readColumnNames
+     * @param isAllColumn
+     * @param cursor              上一页的游标，可以为空
+     * @param position            返回的最后一行
+     * @throws Exception
+     */
+    private void queryByUnique(ConditionExpression conditionExpression,
+                               TreeSet<String> uniqueCodes,
+                               Map<String, Map<String, Object>> records,
+                               boolean isFindAll,
+                               int start,
+                               int end,
+                               AtomicInteger total,
+                               Set<String> readColumnNames,
+                               boolean isAllColumn,
+                               QueryCursor cursor,
+                               QueryCursor position) throws Exception {
+        String afterKey = cursor == null ? null : cursor.getUniqueKey();
+        Iterator<String> iterator = (afterKey == null ? uniqueCodes : uniqueCodes.tailSet(afterKey, false)).iterator();
+        //按主键目录找到所在分区，不存在的主键跳过
+        Iterator<Map.Entry<String, String>> rows = new AbstractIterator<Map.Entry<String, String>>() {
+
+            @Override
+            protected Map.Entry<String, String> computeNext() {
+                while (iterator.hasNext()) {
+                    String uniqueCode = iterator.next();
+                    String partitionCode = primaryKeys.get(uniqueCode);
+                    if (partitionCode != null) {
+                        return Maps.immutableEntry(uniqueCode, partitionCode);
+                    }
+                }
 
-        if (StrUtil.isNotBlank(uniqueExpression)) {
-            conditionExpression.setUniqueExpression(AviatorEvaluator.compile(uniqueExpression.toString()));
-        }
+                return endOfData();
+            }
+        };
 
-        return conditionExpression;
+        this.filterRows(rows, conditionExpression, records, isFindAll, start, end, total, readColumnNames, isAllColumn, position);
     }
 
     /**
      * 不包含条件查询
      *
+     * @param isFindAll
+     * @param start
+     * @param end
+     * @param needColumnNames
+     * @param isAllColumn
+     * @param cursor          上一页的游标，可以为空
+     * @param position        返回的最后一行
      * @return
      */
     private Collection<Map<String, Object>> withoutCondition(boolean isFindAll,
                                                              int start,
                                                              int end,
                                                              Set<String> needColumnNames,
-                                                             boolean isAllColumn) throws Exception {
-        int i = 0;
+                                                             boolean isAllColumn,
+                                                             QueryCursor cursor,
+                                                             QueryCursor position) throws Exception {
+        int index = 0;
         List<Map<String, Object>> result = Lists.newArrayList();
+        //按主键顺序流式读取，不需要把所有主键加载到内存
+        try (PrimaryKeyDirectory.DirectoryIterator iterator = primaryKeys.scan(cursor == null ? null : cursor.getUniqueKey())) {
+            while (iterator.hasNext()) {
+                if (!isFindAll && index >= end) {
+                    break;
+                }
 
-        TreeMap<String, String> all = uniqueStore.all();
-        if (MapUtil.isEmpty(all)) {
-            return Lists.newArrayList();
-        }
-
-        Collection<String> keySet = all.keySet();
-        if (!isFindAll) {
-            keySet = CollUtil.sub(keySet, start, end);
-        }
-
-        for (String s : keySet) {
-            String uniqueDataKey = StrUtil.removeAll(s, KEY_ROW_SUFFIX);
+                Map.Entry<String, String> entry = iterator.next();
+                if (!isFindAll && index++ < start) {
+                    continue;
+                }
 
-            Map<String, Object> data = this.uniqueKeyToData(null, uniqueDataKey, needColumnNames, isAllColumn);
-            if (data == null) {
-                continue;
-            }
+                Map<String, Object> data = this.uniqueKeyToData(entry.getValue(), entry.getKey(), needColumnNames, isAllColumn);
+                //读取不到的行不计数，否则返回的数量不足一页会被当作最后一页
+                if (data == null) {
+                    if (!isFindAll) {
+                        index--;
+                    }
 
-            i++;
-            result.add(data);
+                    continue;
+                }
 
-            if (!isFindAll && i == end) {
-                return result;
+                result.add(data);
+                position.moveTo(entry.getValue(), entry.getKey());
             }
         }
 
@@ -2,43 +2,154 @@ package com.jimmy.groot.engine.data;
 
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.util.StrUtil;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.Expression;
 import com.jimmy.groot.engine.data.other.IndexData;
+import com.jimmy.groot.engine.data.memory.ColumnCondition;
+import com.jimmy.groot.engine.data.memory.ColumnStore;
 import com.jimmy.groot.engine.data.memory.MemoryFragment;
 import com.jimmy.groot.engine.data.memory.MemoryPartition;
+import com.jimmy.groot.engine.data.memory.MemoryPool;
+import com.jimmy.groot.engine.data.memory.MemorySpillStore;
+import com.jimmy.groot.engine.data.memory.RowSchema;
 import com.jimmy.groot.engine.data.other.ConditionExpression;
+import com.jimmy.groot.engine.data.other.QueryCursor;
+import com.jimmy.groot.engine.enums.RowFormatEnum;
 import com.jimmy.groot.engine.metadata.Column;
 import com.jimmy.groot.platform.base.Serializer;
 import com.jimmy.groot.sql.core.Condition;
 import com.jimmy.groot.sql.element.ConditionElement;
 import com.jimmy.groot.sql.element.QueryElement;
-import com.jimmy.groot.sql.enums.ConditionTypeEnum;
+import lombok.extern.slf4j.Slf4j;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+@Slf4j
 public class MemoryData extends AbstractData {
 
+    /**
+     * 加载已溢写分区后不超过预算的百分比
+     */
+    private static final int RELOAD_PERCENT = 75;
+
+    /**
+     * 每隔多少次写入检查一次是否可以加载已溢写的分区
+     */
+    private static final int RELOAD_INTERVAL = 256;
+
     private Serializer serializer;
 
-    private ConcurrentMap<String, MemoryPartition> partitions;
+    /**
+     * 二进制格式的表结构，按序列化方式存储时为空
+     */
+    private RowSchema schema;
+
+    private RowFormatEnum rowFormat;
+
+    private List<Column> columns;
+
+    /**
+     * 按分区排序，游标分页时按分区和唯一键的顺序继续
+     */
+    private ConcurrentNavigableMap<String, MemoryPartition> partitions;
+
+    /**
+     * 内存中的分区数量，跳表的size需要遍历
+     */
+    private final AtomicInteger partitionCount = new AtomicInteger();
+
+    /**
+     * 溢写存储，没有配置溢写目录时为空，只统计内存不溢写
+     */
+    private MemorySpillStore spillStore;
+
+    /**
+     * 表的内存预算，0表示只受全局预算限制
+     */
+    private long budget;
+
+    /**
+     * 内存中的分区占用的字节数
+     */
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    /**
+     * 分区的创建和溢写后从内存中移除互斥，只保护状态切换，不包括读写溢写存储
+     */
+    private final Object spillLock = new Object();
+
+    /**
+     * 溢写和加载由写入线程进行，同一时间只有一个线程，其他线程不等待
+     */
+    private final ReentrantLock maintainLock = new ReentrantLock();
+
+    /**
+     * 写入次数，定期检查是否有已溢写的分区可以加载
+     */
+    private final AtomicInteger writes = new AtomicInteger();
+
+    /**
+     * 时钟淘汰的指针，上一次检查的分区，持有维护锁时访问
+     */
+    private String clockHand;
 
     private MemoryData(List<Column> columns) {
         super(columns);
     }
 
+    /**
+     * 按序列化方式压缩存储，二进制格式不压缩，需要时显式指定
+     *
+     * @param serializer
+     * @param columns
+     * @return
+     */
     public static MemoryData build(Serializer serializer, List<Column> columns) {
+        return build(serializer, columns, RowFormatEnum.SERIALIZED);
+    }
+
+    /**
+     * @param serializer 序列化方式，二进制格式时只用于表结构之外的字段和不支持的类型
+     * @param columns
+     * @param rowFormat  行数据格式，二进制格式过滤和查询部分字段时不需要解析整行，列式格式按块批量过滤
+     * @return
+     */
+    public static MemoryData build(Serializer serializer, List<Column> columns, RowFormatEnum rowFormat) {
+        return build(serializer, columns, rowFormat, null, null, 0L);
+    }
+
+    /**
+     * @param serializer
+     * @param columns
+     * @param rowFormat
+     * @param spillDir   溢写目录，超过内存预算时冷分区溢写到其中表名对应的子目录，访问时再加载回内存，为空时不溢写
+     * @param tableName  表名，溢写时不能为空
+     * @param budget     表的内存预算，字节，0表示只受全局预算限制
+     * @return
+     */
+    public static MemoryData build(Serializer serializer, List<Column> columns, RowFormatEnum rowFormat, String spillDir, String tableName, long budget) {
         MemoryData table = new MemoryData(columns);
+        table.budget = budget;
+        table.spillStore = StrUtil.isBlank(spillDir) ? null : MemorySpillStore.build(spillDir, tableName, columns, serializer);
+        table.columns = columns;
+        table.rowFormat = rowFormat;
         table.serializer = serializer;
-        table.partitions = Maps.newConcurrentMap();
+        table.schema = rowFormat == RowFormatEnum.BINARY ? new RowSchema(columns) : null;
+        table.partitions = new ConcurrentSkipListMap<>();
         return table;
     }
 
@@ -50,8 +161,27 @@ public class MemoryData extends AbstractData {
         String uniqueDataKey = uniqueData.getKey();
         String partitionDataKey = partitionData.getKey();
 
-        partitions.computeIfAbsent(partitionDataKey, s -> new MemoryPartition(partitionDataKey, partitionData.getData()));
-        partitions.get(partitionDataKey).save(uniqueDataKey, MemoryFragment.build(uniqueDataKey, serializer, uniqueData.getData()).writeMemory(doc));
+        while (true) {
+            //已溢写的分区直接写入溢写存储，不加载回内存
+            if (spillStore != null && spillStore.save(partitionDataKey, uniqueDataKey, doc)) {
+                break;
+            }
+
+            MemoryPartition memoryPartition = this.acquireOrCreate(partitionDataKey, partitionData.getData());
+            //期间被溢写
+            if (memoryPartition == null) {
+                continue;
+            }
+
+            try {
+                usedBytes.addAndGet(memoryPartition.save(uniqueDataKey, this.newFragment(memoryPartition, uniqueData, doc)));
+            } finally {
+                memoryPartition.release();
+            }
+            break;
+        }
+
+        this.maintain();
     }
 
     @Override
@@ -59,154 +189,177 @@ public class MemoryData extends AbstractData {
         IndexData uniqueData = super.getIndexData(doc, super.uniqueIndex);
         IndexData partitionData = super.getIndexData(doc, super.partitionIndex);
 
-        MemoryPartition memoryPartition = partitions.get(partitionData.getKey());
-        if (memoryPartition != null) {
-            memoryPartition.remove(uniqueData.getKey());
+        String partitionDataKey = partitionData.getKey();
+        while (true) {
+            if (spillStore != null && spillStore.remove(partitionDataKey, uniqueData.getKey())) {
+                return;
+            }
+
+            MemoryPartition memoryPartition = this.acquire(partitionDataKey);
+            if (memoryPartition != null) {
+                try {
+                    usedBytes.addAndGet(-memoryPartition.remove(uniqueData.getKey()));
+                } finally {
+                    memoryPartition.release();
+                }
+
+                this.dropIfEmpty(memoryPartition);
+                return;
+            }
+            //期间被溢写时到溢写存储中删除
+            if (spillStore == null || !spillStore.isSpilled(partitionDataKey)) {
+                return;
+            }
         }
     }
 
     @Override
     protected Collection<Map<String, Object>> queryList(QueryElement queryElement) throws Exception {
-        int end = queryElement.getEnd();
-        int start = queryElement.getStart();
+        QueryCursor cursor = QueryCursor.parse(queryElement.getCursor());
+        //游标分页从游标之后开始，不需要跳过前面的行
+        int end = cursor != null ? queryElement.getEnd() - queryElement.getStart() : queryElement.getEnd();
+        int start = cursor != null ? 0 : queryElement.getStart();
         boolean isFindAll = queryElement.isSelectAll();
         boolean allColumn = queryElement.isAllColumn();
-        Map<String, Map<String, Object>> data = Maps.newHashMap();
         boolean withoutCondition = queryElement.isWithoutCondition();
         Set<String> needColumnNames = queryElement.getNeedColumnNames();
         List<ConditionElement> conditionElements = queryElement.getConditionElements();
         //超出范围
-        int sum = partitions.values().stream().mapToInt(MemoryPartition::count).sum();
+        int sum = partitions.values().stream().mapToInt(MemoryPartition::count).sum() + (spillStore == null ? 0 : spillStore.count());
         if (!isFindAll && start > sum) {
             return Lists.newArrayList();
         }
         //无条件查询
         if (withoutCondition || CollUtil.isEmpty(conditionElements)) {
-            return this.queryWithoutCondition(isFindAll, start, end, needColumnNames, allColumn);
+            QueryCursor position = new QueryCursor();
+            Collection<Map<String, Object>> result = this.queryWithoutCondition(isFindAll, start, end, needColumnNames, allColumn, cursor, position);
+            super.setNextCursor(queryElement, position, result.size(), isFindAll ? 0 : end - start);
+            return result;
         }
-        //已处理分区
         AtomicInteger total = new AtomicInteger(0);
-        Set<String> processPartitionCodes = Sets.newHashSet();
-        Map<String, Map<String, Object>> records = Maps.newHashMap();
-        //获取条件集合
-        ConditionExpression conditionExpression = this.getConditionCollect(conditionElements);
-
-        for (ConditionElement conditionElement : conditionElements) {
-            Set<String> uniqueCodes = conditionElement.getUniqueCodes();
-            Set<String> partitionCodes = conditionElement.getPartitionCodes();
-            //全分区
-            if (CollUtil.isEmpty(partitionCodes)) {
-                for (MemoryPartition memoryPartition : partitions.values()) {
-                    if (!processPartitionCodes.add(memoryPartition.getCode())) {
-                        continue;
-                    }
-
-                    Collection<MemoryFragment> memoryFragments = memoryPartition.getFragments();
-                    if (CollUtil.isEmpty(memoryFragments)) {
-                        continue;
-                    }
-                    //无主键
-                    if (CollUtil.isNotEmpty(uniqueCodes)) {
-                        this.queryByUnique(conditionExpression,
-                                uniqueCodes,
-                                memoryPartition,
-                                records,
-                                isFindAll,
-                                start,
-                                end,
-                                total,
-                                allColumn,
-                                needColumnNames);
-                    } else {
-                        this.queryAll(conditionExpression,
-                                records,
-                                isFindAll,
-                                start,
-                                end,
-                                total,
-                                allColumn,
-                                needColumnNames,
-                                memoryPartition);
-                    }
-                }
-            } else {
-                for (String partitionCode : partitionCodes) {
-                    if (!processPartitionCodes.add(partitionCode)) {
-                        continue;
-                    }
-
-                    MemoryPartition memoryPartition = partitions.get(partitionCode);
-                    if (memoryPartition == null) {
-                        continue;
-                    }
-
-                    Collection<MemoryFragment> memoryFragments = memoryPartition.getFragments();
-                    if (CollUtil.isEmpty(memoryFragments)) {
-                        continue;
-                    }
-                    //无主键
-                    if (CollUtil.isNotEmpty(uniqueCodes)) {
-                        this.queryByUnique(conditionExpression,
-                                uniqueCodes,
-                                memoryPartition,
-                                records,
-                                isFindAll,
-                                start,
-                                end,
-                                total,
-                                allColumn,
-                                needColumnNames);
-                    } else {
-                        this.queryAll(conditionExpression,
-                                records,
-                                isFindAll,
-                                start,
-                                end,
-                                total,
-                                allColumn,
-                                needColumnNames,
-                                memoryPartition);
-                    }
-                }
-            }
-
+        QueryCursor position = new QueryCursor();
+        //按分区和唯一键的顺序返回，最后一行作为下一页的游标
+        Map<String, Map<String, Object>> records = Maps.newLinkedHashMap();
+        //条件之间为或，按整体表达式一次有序扫描，返回顺序和游标一致
+        ConditionExpression conditionExpression = super.getConditionCollect(conditionElements);
+        Set<String> readColumnNames = super.getReadColumnNames(conditionElements, needColumnNames, allColumn);
+        TreeSet<String> uniqueCodes = super.getUniqueCodes(conditionElements);
+        TreeSet<String> partitionCodes = super.getPartitionCodes(conditionElements);
+        //列式存储先按块批量过滤
+        List<List<ColumnCondition>> columnConditions = rowFormat == RowFormatEnum.COLUMNAR ? this.getColumnConditions(conditionElements) : Lists.newArrayList();
+
+        for (String partitionCode : partitionCodes == null ? this.partitionCodesFrom(cursor) : partitionCodes) {
             if (!isFindAll && total.get() >= end) {
                 break;
             }
+
+            if (cursor != null && cursor.isPassed(partitionCode)) {
+                continue;
+            }
+
+            String afterUniqueCode = cursor == null ? null : cursor.uniqueKeyIn(partitionCode);
+            Collection<String> partitionUniqueCodes = uniqueCodes == null || afterUniqueCode == null ? uniqueCodes : uniqueCodes.tailSet(afterUniqueCode, false);
+
+            this.readPartition(partitionCode, memoryPartition -> {
+                //所有条件都指定了主键
+                if (partitionUniqueCodes != null) {
+                    this.queryByUnique(conditionExpression,
+                            partitionUniqueCodes,
+                            memoryPartition,
+                            records,
+                            isFindAll,
+                            start,
+                            end,
+                            total,
+                            allColumn,
+                            readColumnNames,
+                            position);
+                } else {
+                    this.queryAll(conditionExpression,
+                            records,
+                            isFindAll,
+                            start,
+                            end,
+                            total,
+                            allColumn,
+                            readColumnNames,
+                            memoryPartition,
+                            memoryPartition.select(columnConditions),
+                            afterUniqueCode,
+                            position);
+                }
+                return null;
+            }, reader -> {
+                //已溢写的分区直接读取，不加载回内存
+                Set<String> names = allColumn || CollUtil.isEmpty(readColumnNames) ? null : readColumnNames;
+                this.querySpilled(conditionExpression,
+                        partitionUniqueCodes != null ? this.spilledRows(reader, partitionUniqueCodes, names) : reader.scanAfter(afterUniqueCode, names),
+                        partitionCode,
+                        records,
+                        isFindAll,
+                        start,
+                        end,
+                        total,
+                        position);
+                return null;
+            });
         }
 
-        return isFindAll ? records.values() : CollUtil.sub(records.values(), 0, end - start);
+        Collection<Map<String, Object>> result = isFindAll ? records.values() : CollUtil.sub(records.values(), 0, end - start);
+        super.setNextCursor(queryElement, position, result.size(), isFindAll ? 0 : end - start);
+        return result;
     }
 
     @Override
     protected Map<String, Object> uniqueKeyToData(String partitionKey, String uniqueKey, Set<String> needColumnNames, boolean isAllColumn) throws Exception {
-        MemoryPartition memoryPartition = partitions.get(partitionKey);
-        if (memoryPartition == null) {
-            return null;
-        }
-
-        MemoryFragment fragmentByUniqueCode = memoryPartition.getFragmentByUniqueCode(uniqueKey);
-        if (fragmentByUniqueCode == null) {
-            return null;
-        }
+        //只读取需要的字段
+        Set<String> names = isAllColumn || CollUtil.isEmpty(needColumnNames) ? null : needColumnNames;
+        return this.readPartition(partitionKey, memoryPartition -> {
+            MemoryFragment fragmentByUniqueCode = memoryPartition.getFragmentByUniqueCode(uniqueKey);
+            if (fragmentByUniqueCode == null) {
+                return null;
+            }
 
-        Map<String, Object> data = fragmentByUniqueCode.getData();
-        return isAllColumn ? data : super.columnFilter(data, needColumnNames);
+            return names == null ? fragmentByUniqueCode.getData() : fragmentByUniqueCode.getData(names);
+        }, reader -> reader.get(uniqueKey, names));
     }
 
     @Override
     protected Map<String, Object> uniqueKeyToUniqueData(String partitionKey, String uniqueKey) throws Exception {
-        MemoryPartition memoryPartition = partitions.get(partitionKey);
-        if (memoryPartition == null) {
-            return null;
-        }
+        return this.readPartition(partitionKey, memoryPartition -> {
+            MemoryFragment fragmentByUniqueCode = memoryPartition.getFragmentByUniqueCode(uniqueKey);
+            return fragmentByUniqueCode == null ? null : fragmentByUniqueCode.getKey();
+        }, reader -> reader.get(uniqueKey, super.uniqueIndex.getColumns()));
+    }
+
+    /**
+     * 关闭表，释放内存中的分区并删除溢写存储，关闭后不能再读写
+     */
+    public void close() {
+        maintainLock.lock();
+        try {
+            for (MemoryPartition memoryPartition : partitions.values()) {
+                memoryPartition.close();
+                partitions.remove(memoryPartition.getCode());
+            }
 
-        MemoryFragment fragmentByUniqueCode = memoryPartition.getFragmentByUniqueCode(uniqueKey);
-        if (fragmentByUniqueCode == null) {
-            return null;
+            partitionCount.set(0);
+            usedBytes.set(0);
+            if (spillStore != null) {
+                spillStore.close();
+            }
+        } finally {
+            maintainLock.unlock();
         }
+    }
 
-        return fragmentByUniqueCode.getKey();
+    /**
+     * 内存中的分区占用的字节数，不包括已溢写的分区
+     *
+     * @return
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
     }
 
     /**
@@ -221,6 +374,9 @@ public class MemoryData extends AbstractData {
      * @param allColumn
      * @param needColumnNames
      * @param memoryPartition
+     * @param selection       列式过滤结果，为空时不过滤
+     * @param afterUniqueCode 从这个唯一键之后开始，为空时从头开始
+     * @param position        返回的最后一行
      */
     private void queryAll(ConditionExpression conditionExpression,
                           Map<String, Map<String, Object>> records,
@@ -230,23 +386,23 @@ public class MemoryData extends AbstractData {
                           AtomicInteger total,
                           boolean allColumn,
                           Set<String> needColumnNames,
-                          MemoryPartition memoryPartition) throws Exception {
-        //数据反序列化
-        Collection<Map<String, Object>> allData = memoryPartition.getFragments().stream().map(MemoryFragment::getData).collect(Collectors.toList());
-
-        for (Map<String, Object> data : allData) {
-            if (!isFindAll && total.get() > end) {
+                          MemoryPartition memoryPartition,
+                          ColumnStore.Selection selection,
+                          String afterUniqueCode,
+                          QueryCursor position) throws Exception {
+        //数据片段的编码就是唯一键，过滤时再按需反序列化，列式过滤没有选中的行直接跳过
+        for (MemoryFragment fragment : memoryPartition.getFragmentsAfter(afterUniqueCode, selection)) {
+            if (!isFindAll && total.get() >= end) {
                 break;
             }
 
-            IndexData indexData = super.getIndexData(data, super.uniqueIndex);
-
-            String uniqueKey = indexData.getKey();
+            String uniqueKey = fragment.getCode();
 
             if (records.containsKey(uniqueKey)) {
                 continue;
             }
 
+            int size = records.size();
             super.filterAndPut(conditionExpression,
                     uniqueKey,
                     memoryPartition.getCode(),
@@ -255,14 +411,18 @@ public class MemoryData extends AbstractData {
                     isFindAll ? 0 : start,
                     needColumnNames,
                     allColumn);
+
+            if (records.size() > size) {
+                position.moveTo(memoryPartition.getCode(), uniqueKey);
+            }
         }
     }
 
     /**
-     * 根据主键查询
+     * 根据主键查询，按唯一键顺序返回
      *
      * @param conditionExpression
-     * @param uniqueCodes
+     * @param uniqueCodes         按唯一键排序，已去掉游标之前的主键
      * @param memoryPartition
      * @param records
      * @param isFindAll
@@ -271,6 +431,7 @@ public class MemoryData extends AbstractData {
      * @param total
      * @param allColumn
      * @param needColumnNames
+     * @param position            返回的最后一行
      */
     private void queryByUnique(ConditionExpression conditionExpression,
                                Collection<String> uniqueCodes,
@@ -281,100 +442,138 @@ public class MemoryData extends AbstractData {
                                int end,
                                AtomicInteger total,
                                boolean allColumn,
-                               Set<String> needColumnNames) throws Exception {
-        if (!isFindAll) {
-            uniqueCodes.removeIf(uniqueCode -> memoryPartition.getFragmentByUniqueCode(uniqueCode) == null || records.containsKey(uniqueCode));
-
-            if (CollUtil.isEmpty(uniqueCodes)) {
-                return;
+                               Set<String> needColumnNames,
+                               QueryCursor position) throws Exception {
+        for (String uniqueCode : uniqueCodes) {
+            if (!isFindAll && total.get() >= end) {
+                break;
+            }
+            //过滤时按需读取字段，这里只判断是否存在
+            if (records.containsKey(uniqueCode) || memoryPartition.getFragmentByUniqueCode(uniqueCode) == null) {
+                continue;
             }
 
-            int andAdd = total.getAndAdd(uniqueCodes.size());
-            uniqueCodes = CollUtil.sub(uniqueCodes, andAdd, end);
-        }
+            int size = records.size();
+            super.filterAndPut(conditionExpression,
+                    uniqueCode,
+                    memoryPartition.getCode(),
+                    total,
+                    records,
+                    isFindAll ? 0 : start,
+                    needColumnNames,
+                    allColumn);
 
-        for (String uniqueCode : uniqueCodes) {
-            Map<String, Object> data = memoryPartition.getFragmentByUniqueCode(uniqueCode).getData();
-            if (data != null) {
-                super.filterAndPut(conditionExpression,
-                        uniqueCode,
-                        memoryPartition.getCode(),
-                        total,
-                        records,
-                        isFindAll ? 0 : start,
-                        needColumnNames,
-                        allColumn);
+            if (records.size() > size) {
+                position.moveTo(memoryPartition.getCode(), uniqueCode);
             }
         }
     }
 
-
     /**
-     * 获取条件所有表达式
+     * 查询已溢写的分区，逐行过滤
      *
-     * @param conditionElements
-     * @return
+     * @param conditionExpression
+     * @param rows                key为唯一键，按唯一键排序
+     * @param partitionCode
+     * @param records
+     * @param isFindAll
+     * @param start
+     * @param end
+     * @param total
+     * @param position            返回的最后一行
      */
-    private ConditionExpression getConditionCollect(List<ConditionElement> conditionElements) {
-        int i = 0;
-        StringBuilder parentOtherExpression = new StringBuilder();
-        StringBuilder parentUniqueExpression = new StringBuilder();
-        ConditionExpression conditionExpression = new ConditionExpression();
-
-        for (ConditionElement conditionElement : conditionElements) {
-            List<Condition> conditions = conditionElement.getConditions();
-            if (CollUtil.isNotEmpty(conditions)) {
-                StringBuilder childOtherExpression = new StringBuilder();
-                StringBuilder childUniqueExpression = new StringBuilder();
-
-                for (Condition condition : conditions) {
-                    Column column = super.columnMap.get(condition.getFieldName());
+    private void querySpilled(ConditionExpression conditionExpression,
+                              Iterator<Map.Entry<String, Map<String, Object>>> rows,
+                              String partitionCode,
+                              Map<String, Map<String, Object>> records,
+                              boolean isFindAll,
+                              int start,
+                              int end,
+                              AtomicInteger total,
+                              QueryCursor position) {
+        while (rows.hasNext()) {
+            if (!isFindAll && total.get() >= end) {
+                break;
+            }
 
-                    Boolean isUniqueKey = column.getIsUniqueKey();
+            Map.Entry<String, Map<String, Object>> row = rows.next();
+            if (records.containsKey(row.getKey())) {
+                continue;
+            }
 
-                    String expCondition = super.getExpCondition(
-                            column,
-                            condition.getFieldValue(),
-                            condition.getConditionEnum(),
-                            isUniqueKey ? conditionExpression.getUniqueConditionArgument() : conditionExpression.getOtherConditionArgument(),
-                            i++);
+            int size = records.size();
+            super.filterAndPut(conditionExpression, row.getValue(), total, records, isFindAll ? 0 : start);
 
-                    StringBuilder expression = isUniqueKey ? childUniqueExpression : childOtherExpression;
+            if (records.size() > size) {
+                position.moveTo(partitionCode, row.getKey());
+            }
+        }
+    }
 
-                    if (StrUtil.isNotBlank(expression)) {
-                        expression.append(ConditionTypeEnum.AND.getExpression());
+    /**
+     * 按主键读取已溢写分区的行，不存在的主键跳过
+     *
+     * @param reader
+     * @param uniqueCodes 按唯一键排序
+     * @param names       只解码这些字段，为空时解码整行
+     * @return
+     */
+    private Iterator<Map.Entry<String, Map<String, Object>>> spilledRows(MemorySpillStore.Reader reader, Collection<String> uniqueCodes, Set<String> names) {
+        Iterator<String> iterator = uniqueCodes.iterator();
+        return new AbstractIterator<Map.Entry<String, Map<String, Object>>>() {
+
+            @Override
+            protected Map.Entry<String, Map<String, Object>> computeNext() {
+                while (iterator.hasNext()) {
+                    String uniqueCode = iterator.next();
+                    Map<String, Object> data = reader.get(uniqueCode, names);
+                    if (data != null) {
+                        return Maps.immutableEntry(uniqueCode, data);
                     }
-
-                    expression.append(expCondition);
                 }
 
-                if (StrUtil.isNotBlank(childOtherExpression)) {
-                    if (StrUtil.isNotBlank(parentOtherExpression)) {
-                        parentOtherExpression.append(ConditionTypeEnum.OR.getExpression());
-                    }
+                return endOfData();
+            }
+        };
+    }
 
-                    parentOtherExpression.append("(").append(childOtherExpression).append(")");
-                }
+    /**
+     * 列式批量过滤的条件，每个条件单独编译成表达式，列向量不能直接比较的值用它判断，结果和整体的查询表达式一致
+     *
+     * @param conditionElements
+     * @return 外层之间为或，内层之间为且，有条件组匹配所有行时为空，不做批量过滤
+     */
+    private List<List<ColumnCondition>> getColumnConditions(List<ConditionElement> conditionElements) {
+        List<List<ColumnCondition>> columnConditions = Lists.newArrayList();
+        for (ConditionElement conditionElement : conditionElements) {
+            List<Condition> conditions = conditionElement.getConditions();
+            //没有条件匹配所有行，和查询表达式一致
+            if (CollUtil.isEmpty(conditions)) {
+                return Lists.newArrayList();
+            }
 
-                if (StrUtil.isNotBlank(childUniqueExpression)) {
-                    if (StrUtil.isNotBlank(parentUniqueExpression)) {
-                        parentUniqueExpression.append(ConditionTypeEnum.OR.getExpression());
+            List<ColumnCondition> and = Lists.newArrayListWithCapacity(conditions.size());
+            for (Condition condition : conditions) {
+                Column column = super.columnMap.get(condition.getFieldName());
+                String name = column.getName();
+
+                Map<String, Object> conditionArgument = Maps.newHashMap();
+                Expression expression = AviatorEvaluator.compile(super.getExpCondition(column, condition.getFieldValue(), condition.getConditionEnum(), conditionArgument, 0), true);
+
+                and.add(new ColumnCondition(name, condition.getConditionEnum(), conditionArgument.get(name + "$0"), value -> {
+                    Map<String, Object> data = Maps.newHashMap();
+                    data.put(name, value);
+                    try {
+                        return super.filter(data, conditionArgument, expression);
+                    } catch (Exception e) {
+                        //不能判断的值保留，由查询表达式判断
+                        return true;
                     }
-
-                    parentUniqueExpression.append("(").append(childUniqueExpression).append(")");
-                }
+                }));
             }
+            columnConditions.add(and);
         }
-
-        if (StrUtil.isNotBlank(parentOtherExpression)) {
-            conditionExpression.setOtherExpression(AviatorEvaluator.compile(parentOtherExpression.toString()));
-        }
-
-        if (StrUtil.isNotBlank(parentUniqueExpression)) {
-            conditionExpression.setUniqueExpression(AviatorEvaluator.compile(parentUniqueExpression.toString()));
-        }
-
-        return conditionExpression;
+        return columnConditions;
     }
 
     /**
@@ -385,35 +584,353 @@ public class MemoryData extends AbstractData {
      * @param end
      * @param needColumnNames
      * @param isAllColumn
+     * @param cursor          上一页的游标，可以为空
+     * @param position        返回的最后一行
      * @return
      */
     private Collection<Map<String, Object>> queryWithoutCondition(boolean isFindAll,
                                                                   int start,
                                                                   int end,
                                                                   Set<String> needColumnNames,
-                                                                  boolean isAllColumn) {
-        int i = 0;
+                                                                  boolean isAllColumn,
+                                                                  QueryCursor cursor,
+                                                                  QueryCursor position) throws Exception {
+        AtomicInteger index = new AtomicInteger();
         List<Map<String, Object>> result = Lists.newArrayList();
+        Set<String> names = isAllColumn || CollUtil.isEmpty(needColumnNames) ? null : needColumnNames;
 
-        for (MemoryPartition value : partitions.values()) {
-            Collection<MemoryFragment> fragments = value.getFragments();
+        for (String partitionCode : this.partitionCodesFrom(cursor)) {
+            if (!isFindAll && index.get() >= end) {
+                break;
+            }
 
-            if (CollUtil.isNotEmpty(fragments)) {
-                for (MemoryFragment fragment : fragments) {
-                    if (!isFindAll && i++ >= end) {
-                        break;
-                    }
+            String afterUniqueCode = cursor == null ? null : cursor.uniqueKeyIn(partitionCode);
+            this.readPartition(partitionCode, memoryPartition -> {
+                //读取时再按需反序列化
+                Iterator<Map.Entry<String, Map<String, Object>>> rows = Iterators.transform(memoryPartition.getFragmentsAfter(afterUniqueCode).iterator(),
+                        fragment -> Maps.immutableEntry(fragment.getCode(), names == null ? fragment.getData() : fragment.getData(names)));
+                this.collectRows(rows, partitionCode, isFindAll, start, end, index, result, position);
+                return null;
+            }, reader -> {
+                this.collectRows(reader.scanAfter(afterUniqueCode, names), partitionCode, isFindAll, start, end, index, result, position);
+                return null;
+            });
+        }
 
-                    Map<String, Object> data = fragment.getData();
+        return result;
+    }
 
-                    if (isFindAll || i > start) {
-                        result.add(isAllColumn ? data : super.columnFilter(data, needColumnNames));
-                    }
+    /**
+     * 无条件逐行获取数据
+     *
+     * @param rows          key为唯一键，按唯一键排序
+     * @param partitionCode
+     * @param isFindAll
+     * @param start
+     * @param end
+     * @param index         已经读取的数量
+     * @param result
+     * @param position      返回的最后一行
+     */
+    private void collectRows(Iterator<Map.Entry<String, Map<String, Object>>> rows,
+                             String partitionCode,
+                             boolean isFindAll,
+                             int start,
+                             int end,
+                             AtomicInteger index,
+                             List<Map<String, Object>> result,
+                             QueryCursor position) {
+        while (rows.hasNext()) {
+            if (!isFindAll && index.get() >= end) {
+                break;
+            }
+
+            Map.Entry<String, Map<String, Object>> row = rows.next();
+            //读取时已经被覆盖或删除，不占用数量
+            if (row.getValue() == null) {
+                continue;
+            }
+
+            if (isFindAll || index.incrementAndGet() > start) {
+                result.add(row.getValue());
+                position.moveTo(partitionCode, row.getKey());
+            }
+        }
+    }
+
+    /**
+     * 从游标所在分区开始的分区，包括已溢写的分区
+     *
+     * @param cursor 为空时返回全部分区
+     * @return 按分区排序
+     */
+    private Collection<String> partitionCodesFrom(QueryCursor cursor) {
+        Collection<String> codes = cursor == null ? partitions.keySet() : partitions.tailMap(cursor.getPartitionKey(), true).keySet();
+        if (spillStore == null || spillStore.isEmpty()) {
+            return codes;
+        }
+
+        TreeSet<String> all = new TreeSet<>(codes);
+        for (String code : spillStore.codes()) {
+            if (cursor == null || !cursor.isPassed(code)) {
+                all.add(code);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * 获取内存中的分区并开始读写，和{@link MemoryPartition#release()}成对使用
+     *
+     * @param partitionCode
+     * @return 分区不存在或者已溢写返回null
+     */
+    private MemoryPartition acquire(String partitionCode) {
+        while (true) {
+            MemoryPartition memoryPartition = partitions.get(partitionCode);
+            if (memoryPartition == null) {
+                return null;
+            }
+            //获取期间被溢写时重新获取
+            if (memoryPartition.acquire()) {
+                return memoryPartition;
+            }
+        }
+    }
+
+    /**
+     * 读取分区，内存中的分区持有读锁读取，已溢写的分区直接从溢写存储读取，不加载回内存
+     *
+     * @param partitionCode
+     * @param inMemory
+     * @param spilled
+     * @param <T>
+     * @return 分区不存在返回null
+     * @throws Exception
+     */
+    private <T> T readPartition(String partitionCode, PartitionReader<MemoryPartition, T> inMemory, PartitionReader<MemorySpillStore.Reader, T> spilled) throws Exception {
+        while (true) {
+            MemoryPartition memoryPartition = this.acquire(partitionCode);
+            if (memoryPartition != null) {
+                try {
+                    return inMemory.read(memoryPartition);
+                } finally {
+                    memoryPartition.release();
                 }
             }
+
+            try (MemorySpillStore.Reader reader = spillStore == null ? null : spillStore.open(partitionCode)) {
+                if (reader != null) {
+                    return spilled.read(reader);
+                }
+            }
+            //期间被加载回内存时重新读取
+            if (!partitions.containsKey(partitionCode)) {
+                return null;
+            }
         }
+    }
 
-        return result;
+    /**
+     * 获取分区并开始读写，不存在时创建
+     *
+     * @param partitionCode
+     * @param key
+     * @return 已溢写返回null，需要写入溢写存储
+     */
+    private MemoryPartition acquireOrCreate(String partitionCode, Map<String, Object> key) {
+        while (true) {
+            MemoryPartition memoryPartition = this.acquire(partitionCode);
+            if (memoryPartition != null) {
+                return memoryPartition;
+            }
+            //加锁后确认没有被溢写，避免内存和溢写存储中各有一份
+            synchronized (spillLock) {
+                if (spillStore != null && spillStore.isSpilled(partitionCode)) {
+                    return null;
+                }
+
+                if (!partitions.containsKey(partitionCode)) {
+                    partitions.put(partitionCode, this.newPartition(partitionCode, key));
+                    partitionCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private MemoryPartition newPartition(String partitionCode, Map<String, Object> key) {
+        return rowFormat == RowFormatEnum.COLUMNAR ? new MemoryPartition(partitionCode, key, new ColumnStore(columns, usedBytes::addAndGet)) : new MemoryPartition(partitionCode, key);
+    }
+
+    private MemoryFragment newFragment(MemoryPartition memoryPartition, IndexData uniqueData, Map<String, Object> doc) {
+        MemoryFragment memoryFragment = MemoryFragment.build(uniqueData.getKey(), serializer, schema, uniqueData.getData());
+        return rowFormat == RowFormatEnum.COLUMNAR ? memoryFragment.writeColumns(memoryPartition.getColumnStore(), doc) : memoryFragment.writeMemory(doc);
+    }
+
+    /**
+     * 写入后维护内存预算，超过预算时溢写冷分区，有空闲时加载访问最多的已溢写分区
+     * <p>
+     * 只由写入线程进行，同一时间只有一个线程维护，其他线程不等待；读取不会触发溢写和加载
+     */
+    private void maintain() {
+        if (spillStore == null) {
+            return;
+        }
+
+        boolean isOverBudget = this.isOverBudget();
+        if (!isOverBudget && (spillStore.isEmpty() || writes.incrementAndGet() % RELOAD_INTERVAL != 0)) {
+            return;
+        }
+
+        if (!maintainLock.tryLock()) {
+            return;
+        }
+
+        try {
+            if (isOverBudget) {
+                this.evict();
+            } else {
+                this.reload();
+            }
+        } finally {
+            maintainLock.unlock();
+        }
+    }
+
+    /**
+     * 按时钟算法把冷分区溢写到磁盘，正在读写的分区和最后一个分区不溢写
+     */
+    private void evict() {
+        //每个分区最多检查两轮，第一轮清除最近访问的标记
+        int remaining = partitionCount.get() * 2;
+        while (remaining-- > 0 && partitionCount.get() > 1 && this.isOverBudget()) {
+            Map.Entry<String, MemoryPartition> entry = clockHand == null ? null : partitions.higherEntry(clockHand);
+            if (entry == null) {
+                entry = partitions.firstEntry();
+            }
+
+            if (entry == null) {
+                return;
+            }
+
+            clockHand = entry.getKey();
+            MemoryPartition victim = entry.getValue();
+            if (victim.clearReferenced() || !victim.tryEvict()) {
+                continue;
+            }
+
+            this.spill(victim);
+        }
+    }
+
+    /**
+     * 空闲内存足够时把访问最多的已溢写分区加载回内存，加载后仍低于预算的一定比例，避免刚加载又被溢写
+     */
+    private void reload() {
+        String partitionCode = spillStore.hottest();
+        if (partitionCode == null || !this.hasRoomFor(spillStore.bytes(partitionCode))) {
+            return;
+        }
+
+        spillStore.load(partitionCode, (key, rows) -> {
+            MemoryPartition memoryPartition = this.newPartition(partitionCode, key);
+            for (Map<String, Object> doc : rows.values()) {
+                IndexData uniqueData = super.getIndexData(doc, super.uniqueIndex);
+                usedBytes.addAndGet(memoryPartition.save(uniqueData.getKey(), this.newFragment(memoryPartition, uniqueData, doc)));
+            }
+            //已溢写时不会创建同名分区，直接放入
+            partitions.put(partitionCode, memoryPartition);
+            partitionCount.incrementAndGet();
+        });
+    }
+
+    /**
+     * 溢写分区，失败时分区留在内存中继续使用
+     *
+     * @param memoryPartition 已经开始溢写
+     */
+    private void spill(MemoryPartition memoryPartition) {
+        boolean success = false;
+        try {
+            long bytes = memoryPartition.bytes();
+            //先写入溢写存储再从内存中移除，其他线程总能找到其中一份
+            spillStore.spill(memoryPartition);
+            synchronized (spillLock) {
+                partitions.remove(memoryPartition.getCode());
+                partitionCount.decrementAndGet();
+            }
+            usedBytes.addAndGet(-bytes);
+            success = true;
+        } catch (Exception e) {
+            log.error("分区溢写失败:{}", memoryPartition.getCode(), e);
+        } finally {
+            memoryPartition.finishEvict(success);
+        }
+    }
+
+    /**
+     * 移除没有行的分区，列式存储的列向量不会随删除收缩，分区移除后占用的字节数才能归还
+     * <p>
+     * 和溢写一样需要独占分区，正在被读写时不移除，之后的写入重新创建分区
+     *
+     * @param memoryPartition
+     */
+    private void dropIfEmpty(MemoryPartition memoryPartition) {
+        if (memoryPartition.count() > 0 || !memoryPartition.tryEvict()) {
+            return;
+        }
+
+        boolean success = false;
+        try {
+            if (memoryPartition.count() > 0) {
+                return;
+            }
+
+            synchronized (spillLock) {
+                if (partitions.remove(memoryPartition.getCode(), memoryPartition)) {
+                    partitionCount.decrementAndGet();
+                }
+            }
+            usedBytes.addAndGet(-memoryPartition.bytes());
+            success = true;
+        } finally {
+            memoryPartition.finishEvict(success);
+        }
     }
 
+    /**
+     * 加载指定字节数后是否仍低于预算的一定比例
+     *
+     * @param bytes
+     * @return
+     */
+    private boolean hasRoomFor(long bytes) {
+        if (budget > 0 && (usedBytes.get() + bytes) * 100 > budget * RELOAD_PERCENT) {
+            return false;
+        }
+
+        MemoryPool memoryPool = MemoryPool.getInstance();
+        return memoryPool.getBudget() <= 0 || (memoryPool.getUsedBytes() + bytes) * 100 <= memoryPool.getBudget() * RELOAD_PERCENT;
+    }
+
+    /**
+     * 是否超过表的预算或者全局预算，列式存储的堆内字节数也计入全局预算
+     *
+     * @return
+     */
+    private boolean isOverBudget() {
+        return (budget > 0 && usedBytes.get() > budget) || MemoryPool.getInstance().isOverBudget();
+    }
+
+    /**
+     * 读取分区
+     *
+     * @param <S> 内存中的分区或者溢写存储的读取
+     * @param <T>
+     */
+    @FunctionalInterface
+    private interface PartitionReader<S, T> {
+
+        T read(S source) throws Exception;
+    }
 }
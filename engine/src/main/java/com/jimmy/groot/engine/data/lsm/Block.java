@@ -0,0 +1,132 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.jimmy.groot.engine.enums.TableDataTypeEnum;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 数据块，格式见{@link BlockBuilder}
+ * <p>
+ * 查询时先在重启点上二分查找，再在重启区间内顺序解码，只解码需要的字节
+ */
+class Block implements Iterable<TableData> {
+
+    private final ByteBuffer data;
+
+    private final int restartOffset;
+
+    private final int restartCount;
+
+    Block(ByteBuffer buffer) {
+        this.data = buffer.slice();
+        this.restartCount = data.getInt(data.limit() - 4);
+        this.restartOffset = data.limit() - 4 - restartCount * 4;
+    }
+
+    int size() {
+        return data.limit();
+    }
+
+    TableData get(String key) {
+        if (restartCount == 0) {
+            return null;
+        }
+        //找到最后一个key小于等于目标key的重启点
+        int left = 0;
+        int right = restartCount - 1;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            if (restartKey(mid).compareTo(key) <= 0) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+
+        Cursor cursor = new Cursor(restartPoint(left));
+        while (cursor.hasNext()) {
+            TableData tableData = cursor.next();
+
+            int compare = tableData.getKey().compareTo(key);
+            if (compare == 0) {
+                return tableData;
+            }
+
+            if (compare > 0) {
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public Iterator<TableData> iterator() {
+        return new Cursor(0);
+    }
+
+    private int restartPoint(int index) {
+        return data.getInt(restartOffset + index * 4);
+    }
+
+    /**
+     * 重启点上的key没有共享前缀，可以直接读取
+     *
+     * @param index
+     * @return
+     */
+    private String restartKey(int index) {
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(restartPoint(index));
+        Coding.readVarInt(buffer);
+        int unshared = Coding.readVarInt(buffer);
+        buffer.get();
+        Coding.readVarInt(buffer);
+        return Coding.readString(buffer, unshared);
+    }
+
+    private class Cursor implements Iterator<TableData> {
+
+        private final ByteBuffer buffer;
+
+        private byte[] keyBytes = new byte[64];
+
+        Cursor(int offset) {
+            this.buffer = data.duplicate();
+            this.buffer.position(offset);
+            this.buffer.limit(restartOffset);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return buffer.hasRemaining();
+        }
+
+        @Override
+        public TableData next() {
+            if (!buffer.hasRemaining()) {
+                throw new NoSuchElementException();
+            }
+
+            int shared = Coding.readVarInt(buffer);
+            int unshared = Coding.readVarInt(buffer);
+            TableDataTypeEnum tableDataType = TableDataTypeEnum.values()[buffer.get()];
+            int valueLen = Coding.readVarInt(buffer);
+
+            int keyLen = shared + unshared;
+            if (keyLen > keyBytes.length) {
+                byte[] expand = new byte[Math.max(keyLen, keyBytes.length * 2)];
+                System.arraycopy(keyBytes, 0, expand, 0, shared);
+                keyBytes = expand;
+            }
+
+            buffer.get(keyBytes, shared, unshared);
+            String key = new String(keyBytes, 0, keyLen, StandardCharsets.UTF_8);
+            String value = valueLen == 0 ? null : Coding.readString(buffer, valueLen - 1);
+            return new TableData(key, value, tableDataType);
+        }
+    }
+}
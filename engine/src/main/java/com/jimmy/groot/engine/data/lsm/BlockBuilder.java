@@ -0,0 +1,112 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.google.common.collect.Lists;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 数据块构建器
+ * <p>
+ * 每条记录格式：共享前缀长度|非共享长度|类型|值长度|key非共享部分|值，
+ * 每隔{@link #RESTART_INTERVAL}条记录设置一个重启点，重启点记录完整的key，
+ * 块尾部依次写入所有重启点偏移量和重启点数量
+ */
+class BlockBuilder {
+
+    static final int RESTART_INTERVAL = 16;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private final List<Integer> restarts = Lists.newArrayList();
+
+    private byte[] lastKeyBytes = EMPTY;
+
+    private String firstKey;
+
+    private String lastKey;
+
+    private int counter;
+
+    private int count;
+
+    void add(TableData tableData) {
+        String key = tableData.getKey();
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+        int shared = 0;
+        if (counter < RESTART_INTERVAL) {
+            int min = Math.min(lastKeyBytes.length, keyBytes.length);
+            while (shared < min && lastKeyBytes[shared] == keyBytes[shared]) {
+                shared++;
+            }
+        } else {
+            counter = 0;
+        }
+
+        if (counter == 0) {
+            restarts.add(buffer.size());
+        }
+
+        int unshared = keyBytes.length - shared;
+        Coding.writeVarInt(buffer, shared);
+        Coding.writeVarInt(buffer, unshared);
+        buffer.write(tableData.getTableDataType().ordinal());
+
+        String value = tableData.getValue();
+        //值长度加一保存，0表示null
+        byte[] valueBytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        Coding.writeVarInt(buffer, valueBytes == null ? 0 : valueBytes.length + 1);
+        buffer.write(keyBytes, shared, unshared);
+        if (valueBytes != null) {
+            buffer.write(valueBytes, 0, valueBytes.length);
+        }
+
+        if (firstKey == null) {
+            firstKey = key;
+        }
+
+        lastKey = key;
+        lastKeyBytes = keyBytes;
+        counter++;
+        count++;
+    }
+
+    byte[] finish() {
+        for (Integer restart : restarts) {
+            Coding.writeInt(buffer, restart);
+        }
+
+        Coding.writeInt(buffer, restarts.size());
+        return buffer.toByteArray();
+    }
+
+    void reset() {
+        buffer.reset();
+        restarts.clear();
+        lastKeyBytes = EMPTY;
+        firstKey = null;
+        lastKey = null;
+        counter = 0;
+        count = 0;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    int count() {
+        return count;
+    }
+
+    String getFirstKey() {
+        return firstKey;
+    }
+
+    String getLastKey() {
+        return lastKey;
+    }
+}
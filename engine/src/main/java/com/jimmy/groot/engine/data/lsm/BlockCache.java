@@ -0,0 +1,267 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.jimmy.groot.engine.exception.EngineException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * 全局共享的ssTable数据块缓存，以（ssTable文件，分区偏移量）为key缓存解码后的分区
+ * <p>
+ * 按key哈希分段，每段独立加锁并按LRU淘汰，所有分段平分配置的总容量。
+ * 容量较小时减少分段数，每段至少{@link #MIN_SEGMENT_CAPACITY}，容量不足时只有一段
+ * <p>
+ * 超过单个分段容量的分区不缓存，每次读取都从文件加载；容量需要远大于单个分区的大小
+ */
+@Slf4j
+public class BlockCache {
+
+    private static final int MAX_STRIPES = 16;
+
+    private static final long MIN_SEGMENT_CAPACITY = 1024 * 1024;
+
+    private final long capacity;
+
+    private final Segment[] segments;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private static class SingletonHolder {
+        private static final BlockCache INSTANCE = new BlockCache(LsmConfig.getBlockCacheSize());
+    }
+
+    public static BlockCache getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    private BlockCache(long capacity) {
+        this.capacity = capacity;
+        int stripes = stripes(capacity);
+        this.segments = new Segment[stripes];
+        for (int i = 0; i < stripes; i++) {
+            segments[i] = new Segment(capacity / stripes);
+        }
+    }
+
+    /**
+     * 分段数，2的幂，每段容量不小于最小值
+     *
+     * @param capacity
+     * @return
+     */
+    private static int stripes(long capacity) {
+        int stripes = MAX_STRIPES;
+        while (stripes > 1 && capacity / stripes < MIN_SEGMENT_CAPACITY) {
+            stripes >>>= 1;
+        }
+        return stripes;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getUsage() {
+        long usage = 0;
+        for (Segment segment : segments) {
+            usage += segment.usage;
+        }
+        return usage;
+    }
+
+    /**
+     * 获取缓存的分区，不存在则加载后放入缓存
+     *
+     * @param filePath
+     * @param offset
+     * @param weight   分区占用字节数
+     * @param loader
+     * @param <T>
+     * @return
+     */
+    <T> T get(String filePath, long offset, int weight, Callable<T> loader) {
+        return this.get(filePath, offset, value -> weight, loader);
+    }
+
+    /**
+     * 获取缓存的分区，不存在则加载后放入缓存，占用字节数由加载后的数据估算
+     *
+     * @param filePath
+     * @param offset
+     * @param weigher  根据加载的数据计算占用字节数
+     * @param loader
+     * @param <T>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(String filePath, long offset, ToIntFunction<T> weigher, Callable<T> loader) {
+        try {
+            if (capacity <= 0) {
+                return loader.call();
+            }
+
+            CacheKey cacheKey = new CacheKey(filePath, offset);
+            Segment segment = this.segmentFor(cacheKey);
+
+            Object value = segment.get(cacheKey);
+            if (value != null) {
+                hitCount.increment();
+                return (T) value;
+            }
+            //加载过程不持有锁，并发加载同一分区时后写入的覆盖先写入的
+            missCount.increment();
+            T load = loader.call();
+            segment.put(cacheKey, load, weigher.applyAsInt(load));
+            return load;
+        } catch (EngineException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("加载数据块失败", e);
+            throw new EngineException("加载数据块失败");
+        }
+    }
+
+    /**
+     * 文件关闭或删除时清除该文件所有缓存
+     *
+     * @param filePath
+     */
+    void invalidate(String filePath) {
+        for (Segment segment : segments) {
+            segment.invalidate(filePath);
+        }
+    }
+
+    private Segment segmentFor(CacheKey cacheKey) {
+        int h = cacheKey.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    private static class Segment {
+
+        private final long capacity;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final LinkedHashMap<CacheKey, CacheValue> map = new LinkedHashMap<>(16, 0.75f, true);
+
+        private volatile long usage;
+
+        Segment(long capacity) {
+            this.capacity = capacity;
+        }
+
+        Object get(CacheKey cacheKey) {
+            lock.lock();
+            try {
+                CacheValue cacheValue = map.get(cacheKey);
+                return cacheValue != null ? cacheValue.value : null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(CacheKey cacheKey, Object value, int weight) {
+            //超过分段容量的分区不缓存，放入会淘汰整个分段
+            if (weight > capacity) {
+                return;
+            }
+
+            lock.lock();
+            try {
+                CacheValue previous = map.put(cacheKey, new CacheValue(value, weight));
+                long current = usage + weight - (previous != null ? previous.weight : 0);
+                //按访问顺序淘汰最久未使用的分区
+                Iterator<CacheValue> iterator = map.values().iterator();
+                while (current > capacity && iterator.hasNext()) {
+                    current -= iterator.next().weight;
+                    iterator.remove();
+                }
+
+                usage = current;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void invalidate(String filePath) {
+            lock.lock();
+            try {
+                long current = usage;
+                Iterator<Map.Entry<CacheKey, CacheValue>> iterator = map.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<CacheKey, CacheValue> next = iterator.next();
+                    if (next.getKey().filePath.equals(filePath)) {
+                        current -= next.getValue().weight;
+                        iterator.remove();
+                    }
+                }
+
+                usage = current;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class CacheKey {
+
+        private final String filePath;
+
+        private final long offset;
+
+        CacheKey(String filePath, long offset) {
+            this.filePath = filePath;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+
+            CacheKey cacheKey = (CacheKey) o;
+            return offset == cacheKey.offset && filePath.equals(cacheKey.filePath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(filePath, offset);
+        }
+    }
+
+    private static class CacheValue {
+
+        private final Object value;
+
+        private final int weight;
+
+        CacheValue(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.jimmy.groot.engine.core.DestroyHook;
+import com.jimmy.groot.engine.enums.CompactionStrategyEnum;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 全局后台合并服务，所有lsm存储共享一个线程池，同一个存储同一时间只有一个合并任务
+ * <p>
+ * 按过期时间删除文件的存储没有写入时也需要检查，由定时任务定期检查
+ */
+@Slf4j
+public class CompactionService {
+
+    private static final long CHECK_INTERVAL_SECONDS = 10;
+
+    private final ThreadPoolExecutor executorService;
+
+    private final ScheduledExecutorService checkService;
+
+    /**
+     * 需要定期检查的存储，弱引用持有，没有销毁就被丢弃的存储回收后自动移除，不会一直被检查
+     */
+    private final Set<LsmStore> watchedStores = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private final Map<CompactionStrategyEnum, CompactionStatistics> statistics = new EnumMap<>(CompactionStrategyEnum.class);
+
+    private static class SingletonHolder {
+        private static final CompactionService INSTANCE = new CompactionService(LsmConfig.getCompactionThreads());
+    }
+
+    public static CompactionService getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    private CompactionService(int threads) {
+        AtomicInteger threadIndex = new AtomicInteger();
+
+        this.executorService = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "lsm-compaction-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.checkService = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lsm-compaction-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.checkService.scheduleWithFixedDelay(this::checkWatchedStores, CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        for (CompactionStrategyEnum strategy : CompactionStrategyEnum.values()) {
+            statistics.put(strategy, new CompactionStatistics(null));
+        }
+
+        DestroyHook.registerHook(checkService::shutdown);
+        DestroyHook.registerHook(executorService::shutdown);
+    }
+
+    /**
+     * 使用指定合并策略的所有存储的汇总统计
+     *
+     * @param strategy
+     * @return
+     */
+    public CompactionStatistics getStatistics(CompactionStrategyEnum strategy) {
+        return statistics.get(strategy);
+    }
+
+    public int getActiveCount() {
+        return executorService.getActiveCount();
+    }
+
+    public int getQueueSize() {
+        return executorService.getQueue().size();
+    }
+
+    /**
+     * 定期检查存储是否需要合并
+     *
+     * @param lsmStore
+     */
+    void watch(LsmStore lsmStore) {
+        watchedStores.add(lsmStore);
+    }
+
+    void unwatch(LsmStore lsmStore) {
+        watchedStores.remove(lsmStore);
+    }
+
+    /**
+     * 提交存储的合并任务
+     *
+     * @param lsmStore
+     */
+    void schedule(LsmStore lsmStore) {
+        if (executorService.isShutdown()) {
+            return;
+        }
+
+        executorService.submit(() -> {
+            try {
+                lsmStore.backgroundCompaction();
+            } catch (Throwable e) {
+                log.error("后台合并失败", e);
+            }
+        });
+    }
+
+    private void checkWatchedStores() {
+        List<LsmStore> stores;
+        synchronized (watchedStores) {
+            stores = new ArrayList<>(watchedStores);
+        }
+
+        for (LsmStore lsmStore : stores) {
+            try {
+                lsmStore.maybeScheduleCompaction();
+            } catch (Throwable e) {
+                log.error("检查合并失败", e);
+            }
+        }
+    }
+}
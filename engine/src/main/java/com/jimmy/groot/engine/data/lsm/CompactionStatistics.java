@@ -0,0 +1,82 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 合并统计信息，每个lsm存储一份，同时汇总到所属合并策略的全局统计
+ * <p>
+ * 写放大 =（刷盘写入字节数 + 合并写入字节数）/ 刷盘写入字节数
+ */
+public class CompactionStatistics {
+
+    private final CompactionStatistics parent;
+
+    private final LongAdder flushBytes = new LongAdder();
+
+    private final LongAdder compactionCount = new LongAdder();
+
+    private final LongAdder compactionReadBytes = new LongAdder();
+
+    private final LongAdder compactionWriteBytes = new LongAdder();
+
+    private final LongAdder expiredTables = new LongAdder();
+
+    private final LongAdder expiredBytes = new LongAdder();
+
+    CompactionStatistics(CompactionStatistics parent) {
+        this.parent = parent;
+    }
+
+    void recordFlush(long bytes) {
+        flushBytes.add(bytes);
+        if (parent != null) {
+            parent.recordFlush(bytes);
+        }
+    }
+
+    void recordCompaction(long readBytes, long writeBytes) {
+        compactionCount.increment();
+        compactionReadBytes.add(readBytes);
+        compactionWriteBytes.add(writeBytes);
+        if (parent != null) {
+            parent.recordCompaction(readBytes, writeBytes);
+        }
+    }
+
+    void recordExpired(int tables, long bytes) {
+        expiredTables.add(tables);
+        expiredBytes.add(bytes);
+        if (parent != null) {
+            parent.recordExpired(tables, bytes);
+        }
+    }
+
+    public long getFlushBytes() {
+        return flushBytes.sum();
+    }
+
+    public long getCompactionCount() {
+        return compactionCount.sum();
+    }
+
+    public long getCompactionReadBytes() {
+        return compactionReadBytes.sum();
+    }
+
+    public long getCompactionWriteBytes() {
+        return compactionWriteBytes.sum();
+    }
+
+    public long getExpiredTables() {
+        return expiredTables.sum();
+    }
+
+    public long getExpiredBytes() {
+        return expiredBytes.sum();
+    }
+
+    public double getWriteAmplification() {
+        long flush = this.getFlushBytes();
+        return flush == 0 ? 0 : (double) (flush + this.getCompactionWriteBytes()) / flush;
+    }
+}
@@ -0,0 +1,47 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.jimmy.groot.engine.enums.CompactionStrategyEnum;
+
+/**
+ * 合并策略，lsm存储每次刷盘后和后台合并时询问策略是否需要合并以及合并哪些文件
+ * <p>
+ * 策略实例属于单个lsm存储，同一时间只会被一个合并任务调用pick，needsCompaction可能被写入线程并发调用，不能修改状态
+ */
+interface CompactionStrategy {
+
+    CompactionStrategyEnum getType();
+
+    /**
+     * 是否有需要合并的文件
+     *
+     * @param tableLevels
+     * @return
+     */
+    boolean needsCompaction(TableLevels tableLevels);
+
+    /**
+     * 生成合并任务
+     *
+     * @param tableLevels
+     * @return 不需要合并返回null
+     */
+    CompactionTask pick(TableLevels tableLevels);
+
+    /**
+     * 按类型创建策略
+     *
+     * @param type
+     * @param ttl  FIFO策略的文件过期时间，毫秒
+     * @return
+     */
+    static CompactionStrategy create(CompactionStrategyEnum type, long ttl) {
+        switch (type) {
+            case SIZE_TIERED:
+                return new SizeTieredCompaction(LsmConfig.getCompactionL0Trigger());
+            case FIFO:
+                return new FifoCompaction(ttl);
+            default:
+                return new LeveledCompaction(LsmConfig.getCompactionL0Trigger(), LsmConfig.getCompactionLevelBaseSize(), LsmConfig.getCompactionLevelMultiplier(), LsmConfig.getCompactionTargetFileSize());
+        }
+    }
+}
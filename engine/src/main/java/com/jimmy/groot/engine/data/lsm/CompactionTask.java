@@ -0,0 +1,47 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 一次合并任务，输入文件按从新到旧排列
+ */
+@Getter
+class CompactionTask {
+
+    private final List<SsTable> inputs;
+
+    private final int outputLevel;
+
+    /**
+     * 单个输出文件数据区最大字节数
+     */
+    private final long maxOutputFileSize;
+
+    /**
+     * 输出之后没有更旧的数据时可以丢弃删除标记
+     */
+    private final boolean dropTombstones;
+
+    /**
+     * 直接删除输入文件，不产生输出
+     */
+    private final boolean expired;
+
+    private CompactionTask(List<SsTable> inputs, int outputLevel, long maxOutputFileSize, boolean dropTombstones, boolean expired) {
+        this.inputs = inputs;
+        this.outputLevel = outputLevel;
+        this.maxOutputFileSize = maxOutputFileSize;
+        this.dropTombstones = dropTombstones;
+        this.expired = expired;
+    }
+
+    static CompactionTask merge(List<SsTable> inputs, int outputLevel, long maxOutputFileSize, boolean dropTombstones) {
+        return new CompactionTask(inputs, outputLevel, maxOutputFileSize, dropTombstones, false);
+    }
+
+    static CompactionTask expire(List<SsTable> inputs) {
+        return new CompactionTask(inputs, -1, 0, false, true);
+    }
+}
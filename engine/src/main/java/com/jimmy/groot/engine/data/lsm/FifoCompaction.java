@@ -0,0 +1,52 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.google.common.collect.Lists;
+import com.jimmy.groot.engine.enums.CompactionStrategyEnum;
+
+import java.util.List;
+
+/**
+ * FIFO合并策略，从不合并，直接删除整个过期的文件，适合只追加且按时间过期的事件表
+ * <p>
+ * 文件编号即创建时间，创建时间早于过期时间的文件整体删除
+ */
+class FifoCompaction implements CompactionStrategy {
+
+    /**
+     * 文件过期时间，毫秒，创建存储时已经检查大于0
+     */
+    private final long ttl;
+
+    FifoCompaction(long ttl) {
+        this.ttl = ttl;
+    }
+
+    @Override
+    public CompactionStrategyEnum getType() {
+        return CompactionStrategyEnum.FIFO;
+    }
+
+    @Override
+    public boolean needsCompaction(TableLevels tableLevels) {
+        long expireTime = System.currentTimeMillis() - ttl;
+        for (SsTable ssTable : tableLevels.all()) {
+            if (ssTable.getFileNumber() < expireTime) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public CompactionTask pick(TableLevels tableLevels) {
+        long expireTime = System.currentTimeMillis() - ttl;
+        List<SsTable> inputs = Lists.newArrayList();
+        for (SsTable ssTable : tableLevels.all()) {
+            if (ssTable.getFileNumber() < expireTime) {
+                inputs.add(ssTable);
+            }
+        }
+
+        return inputs.isEmpty() ? null : CompactionTask.expire(inputs);
+    }
+}
@@ -0,0 +1,37 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 通过FileChannel按位置读取ssTable，不依赖共享的文件指针，可以被多个线程并发调用
+ */
+class FileTableReader implements TableReader {
+
+    private final FileChannel channel;
+
+    FileTableReader(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public ByteBuffer read(long position, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(len);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("读取ssTable越界");
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() {
+        //文件由ssTable负责关闭
+    }
+}
@@ -0,0 +1,66 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.jimmy.groot.engine.core.DestroyHook;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 全局后台刷盘服务，所有lsm存储共享一个线程池，同一个存储同一时间只有一个刷盘任务，按从旧到新的顺序刷盘
+ * <p>
+ * 和合并使用不同的线程池，耗时较长的合并不会阻塞刷盘
+ */
+@Slf4j
+public class FlushService {
+
+    private final ThreadPoolExecutor executorService;
+
+    private static class SingletonHolder {
+        private static final FlushService INSTANCE = new FlushService(LsmConfig.getFlushThreads());
+    }
+
+    public static FlushService getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    private FlushService(int threads) {
+        AtomicInteger threadIndex = new AtomicInteger();
+
+        this.executorService = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "lsm-flush-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        DestroyHook.registerHook(executorService::shutdown);
+    }
+
+    public int getActiveCount() {
+        return executorService.getActiveCount();
+    }
+
+    public int getQueueSize() {
+        return executorService.getQueue().size();
+    }
+
+    /**
+     * 提交存储的刷盘任务
+     *
+     * @param lsmStore
+     */
+    void schedule(LsmStore lsmStore) {
+        if (executorService.isShutdown()) {
+            return;
+        }
+
+        executorService.submit(() -> {
+            try {
+                lsmStore.backgroundFlush();
+            } catch (Throwable e) {
+                log.error("后台刷盘失败", e);
+            }
+        });
+    }
+}
@@ -0,0 +1,72 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按2的幂分桶的直方图，记录无锁，百分位数返回所在桶的上界
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long value) {
+        value = Math.max(value, 0);
+        //第i个桶记录[2^(i-1), 2^i)之间的值，0记录在第0个桶
+        buckets[Math.min(BUCKETS - Long.numberOfLeadingZeros(value), BUCKETS - 1)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long c = this.getCount();
+        return c == 0 ? 0 : (double) sum.sum() / c;
+    }
+
+    /**
+     * 百分位数
+     *
+     * @param percent 0到100
+     * @return
+     */
+    public long getPercentile(double percent) {
+        long total = this.getCount();
+        if (total == 0) {
+            return 0;
+        }
+
+        long threshold = (long) Math.ceil(total * percent / 100);
+        long accumulated = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            accumulated += buckets[i].sum();
+            if (accumulated >= threshold) {
+                return i == 0 ? 0 : Math.min((1L << i) - 1, this.getMax());
+            }
+        }
+
+        return this.getMax();
+    }
+}
@@ -0,0 +1,141 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.google.common.collect.Lists;
+import com.jimmy.groot.engine.enums.CompactionStrategyEnum;
+
+import java.util.List;
+
+/**
+ * 分层合并策略
+ * <p>
+ * L0文件数量达到阈值时，把全部L0文件和L1中有交集的文件合并到L1；L1及以上层级总大小超过该层目标大小时，
+ * 轮流选择一个文件和下一层有交集的文件合并到下一层。每层目标大小按倍数递增，保证查询时每层最多读一个文件
+ */
+class LeveledCompaction implements CompactionStrategy {
+
+    private final int l0Trigger;
+
+    private final long levelBaseSize;
+
+    private final int levelMultiplier;
+
+    private final long targetFileSize;
+
+    /**
+     * 每层上一次合并的最大key，下一次从其之后的文件开始，保证整层轮流合并
+     */
+    private final String[] compactPointers = new String[TableLevels.MAX_LEVEL];
+
+    LeveledCompaction(int l0Trigger, long levelBaseSize, int levelMultiplier, long targetFileSize) {
+        this.l0Trigger = Math.max(l0Trigger, 1);
+        this.levelBaseSize = levelBaseSize;
+        this.levelMultiplier = Math.max(levelMultiplier, 1);
+        this.targetFileSize = targetFileSize;
+    }
+
+    @Override
+    public CompactionStrategyEnum getType() {
+        return CompactionStrategyEnum.LEVELED;
+    }
+
+    @Override
+    public boolean needsCompaction(TableLevels tableLevels) {
+        return this.bestLevel(tableLevels) >= 0;
+    }
+
+    /**
+     * 选择得分最高且超过阈值的层级生成合并任务
+     *
+     * @param tableLevels
+     * @return 不需要合并返回null
+     */
+    @Override
+    public CompactionTask pick(TableLevels tableLevels) {
+        int bestLevel = this.bestLevel(tableLevels);
+        if (bestLevel < 0) {
+            return null;
+        }
+
+        return bestLevel == 0 ? this.pickL0(tableLevels) : this.pickLevel(tableLevels, bestLevel);
+    }
+
+    /**
+     * L0按文件数量计算得分，其他层级按总大小和目标大小的比值计算得分
+     *
+     * @param tableLevels
+     * @return 没有得分超过1的层级返回-1
+     */
+    private int bestLevel(TableLevels tableLevels) {
+        int bestLevel = -1;
+        double bestScore = 1;
+
+        double l0Score = (double) tableLevels.level(0).size() / l0Trigger;
+        if (l0Score >= bestScore) {
+            bestLevel = 0;
+            bestScore = l0Score;
+        }
+        //最后一层不再向下合并
+        for (int level = 1; level < TableLevels.MAX_LEVEL - 1; level++) {
+            double score = (double) tableLevels.levelSize(level) / this.maxBytesForLevel(level);
+            if (score > bestScore) {
+                bestLevel = level;
+                bestScore = score;
+            }
+        }
+
+        return bestLevel;
+    }
+
+    private long maxBytesForLevel(int level) {
+        long size = levelBaseSize;
+        for (int i = 1; i < level; i++) {
+            size *= levelMultiplier;
+        }
+        return size;
+    }
+
+    private CompactionTask pickL0(TableLevels tableLevels) {
+        List<SsTable> l0 = tableLevels.level(0);
+
+        String smallest = null;
+        String largest = null;
+        boolean unbounded = false;
+        for (SsTable ssTable : l0) {
+            if (ssTable.getSmallestKey() == null || ssTable.getLargestKey() == null) {
+                unbounded = true;
+                break;
+            }
+
+            if (smallest == null || ssTable.getSmallestKey().compareTo(smallest) < 0) {
+                smallest = ssTable.getSmallestKey();
+            }
+            if (largest == null || ssTable.getLargestKey().compareTo(largest) > 0) {
+                largest = ssTable.getLargestKey();
+            }
+        }
+
+        List<SsTable> inputs = Lists.newArrayList(l0);
+        inputs.addAll(unbounded ? tableLevels.level(1) : tableLevels.overlapping(1, smallest, largest));
+        return CompactionTask.merge(inputs, 1, targetFileSize, tableLevels.isBottom(1));
+    }
+
+    private CompactionTask pickLevel(TableLevels tableLevels, int level) {
+        List<SsTable> tables = tableLevels.level(level);
+        String pointer = compactPointers[level];
+
+        SsTable picked = tables.get(0);
+        if (pointer != null) {
+            for (SsTable ssTable : tables) {
+                if (ssTable.getLargestKey().compareTo(pointer) > 0) {
+                    picked = ssTable;
+                    break;
+                }
+            }
+        }
+        compactPointers[level] = picked.getLargestKey();
+
+        List<SsTable> inputs = Lists.newArrayList(picked);
+        inputs.addAll(tableLevels.overlapping(level + 1, picked.getSmallestKey(), picked.getLargestKey()));
+        return CompactionTask.merge(inputs, level + 1, targetFileSize, tableLevels.isBottom(level + 1));
+    }
+}
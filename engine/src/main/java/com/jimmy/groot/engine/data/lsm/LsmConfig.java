@@ -0,0 +1,203 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import cn.hutool.core.io.unit.DataSizeUtil;
+import cn.hutool.core.util.StrUtil;
+import com.jimmy.groot.engine.core.ConfigLoad;
+import com.jimmy.groot.engine.enums.ReadModeEnum;
+import com.jimmy.groot.engine.enums.WalSyncModeEnum;
+import com.jimmy.groot.platform.constant.ConfigConstant;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * lsm存储相关配置，从engine.properties读取，未配置时使用默认值
+ */
+@Slf4j
+final class LsmConfig {
+
+    private static final long DEFAULT_BLOCK_CACHE_SIZE = 64L * 1024 * 1024;
+
+    private static final int DEFAULT_INDEX_PARTITION_SIZE = 1024;
+
+    private static final int DEFAULT_COMPACTION_THREADS = 2;
+
+    private static final int DEFAULT_FLUSH_THREADS = 2;
+
+    private static final long DEFAULT_WAL_SYNC_INTERVAL = 1000;
+
+    private static final int DEFAULT_MAX_IMMUTABLE_MEMTABLES = 2;
+
+    private static final int DEFAULT_COMPACTION_L0_TRIGGER = 4;
+
+    private static final long DEFAULT_COMPACTION_LEVEL_BASE_SIZE = 10L * 1024 * 1024;
+
+    private static final int DEFAULT_COMPACTION_LEVEL_MULTIPLIER = 10;
+
+    private static final long DEFAULT_COMPACTION_TARGET_FILE_SIZE = 2L * 1024 * 1024;
+
+    private LsmConfig() {
+
+    }
+
+    /**
+     * 数据块缓存容量，支持64MB这类带单位的写法，按分段平分，超过单个分段容量的分区不缓存
+     *
+     * @return
+     */
+    static long getBlockCacheSize() {
+        return getSize(ConfigConstant.Engine.BLOCK_CACHE_SIZE, DEFAULT_BLOCK_CACHE_SIZE);
+    }
+
+    /**
+     * ssTable读取方式
+     *
+     * @return
+     */
+    static ReadModeEnum getReadMode() {
+        String s = ConfigLoad.get(ConfigConstant.Engine.SSTABLE_READ_MODE);
+        if (StrUtil.isBlank(s)) {
+            return ReadModeEnum.FILE;
+        }
+
+        try {
+            return ReadModeEnum.valueOf(s.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.error("ssTable读取方式配置错误:{}，使用默认方式", s);
+            return ReadModeEnum.FILE;
+        }
+    }
+
+    /**
+     * WAL持久化方式，默认只写入操作系统缓存
+     *
+     * @return
+     */
+    static WalSyncModeEnum getWalSyncMode() {
+        String s = ConfigLoad.get(ConfigConstant.Engine.WAL_SYNC_MODE);
+        if (StrUtil.isBlank(s)) {
+            return WalSyncModeEnum.NONE;
+        }
+
+        try {
+            return WalSyncModeEnum.valueOf(s.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.error("WAL持久化方式配置错误:{}，使用默认方式", s);
+            return WalSyncModeEnum.NONE;
+        }
+    }
+
+    /**
+     * INTERVAL持久化方式的刷盘间隔，毫秒
+     *
+     * @return
+     */
+    static long getWalSyncInterval() {
+        return Math.max(getInt(ConfigConstant.Engine.WAL_SYNC_INTERVAL, (int) DEFAULT_WAL_SYNC_INTERVAL), 1);
+    }
+
+    /**
+     * 两级索引的叶子索引块大小，ssTable分区数量超过该值时使用两级索引，小于等于0时不使用
+     *
+     * @return
+     */
+    static int getIndexPartitionSize() {
+        return getInt(ConfigConstant.Engine.SSTABLE_INDEX_PARTITION_SIZE, DEFAULT_INDEX_PARTITION_SIZE);
+    }
+
+    /**
+     * 后台合并线程数
+     *
+     * @return
+     */
+    static int getCompactionThreads() {
+        return Math.max(getInt(ConfigConstant.Engine.COMPACTION_THREADS, DEFAULT_COMPACTION_THREADS), 1);
+    }
+
+    /**
+     * 后台刷盘线程数
+     *
+     * @return
+     */
+    static int getFlushThreads() {
+        return Math.max(getInt(ConfigConstant.Engine.FLUSH_THREADS, DEFAULT_FLUSH_THREADS), 1);
+    }
+
+    /**
+     * 每个存储等待刷盘的不可变内存表数量上限，达到上限时写入等待刷盘完成
+     *
+     * @return
+     */
+    static int getMaxImmutableMemTables() {
+        return Math.max(getInt(ConfigConstant.Engine.MAX_IMMUTABLE_MEMTABLES, DEFAULT_MAX_IMMUTABLE_MEMTABLES), 1);
+    }
+
+    /**
+     * L0文件数量达到该值时触发合并
+     *
+     * @return
+     */
+    static int getCompactionL0Trigger() {
+        return getInt(ConfigConstant.Engine.COMPACTION_L0_TRIGGER, DEFAULT_COMPACTION_L0_TRIGGER);
+    }
+
+    /**
+     * L1目标大小
+     *
+     * @return
+     */
+    static long getCompactionLevelBaseSize() {
+        return getSize(ConfigConstant.Engine.COMPACTION_LEVEL_BASE_SIZE, DEFAULT_COMPACTION_LEVEL_BASE_SIZE);
+    }
+
+    /**
+     * 相邻层级目标大小的倍数
+     *
+     * @return
+     */
+    static int getCompactionLevelMultiplier() {
+        return getInt(ConfigConstant.Engine.COMPACTION_LEVEL_MULTIPLIER, DEFAULT_COMPACTION_LEVEL_MULTIPLIER);
+    }
+
+    /**
+     * 合并输出的单个ssTable数据区大小
+     *
+     * @return
+     */
+    static long getCompactionTargetFileSize() {
+        return getSize(ConfigConstant.Engine.COMPACTION_TARGET_FILE_SIZE, DEFAULT_COMPACTION_TARGET_FILE_SIZE);
+    }
+
+    private static int getInt(String key, int defaultValue) {
+        String s = ConfigLoad.get(key);
+        if (StrUtil.isBlank(s)) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            log.error("配置{}错误:{}，使用默认值", key, s);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 读取容量配置，支持64MB这类带单位的写法
+     *
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    private static long getSize(String key, long defaultValue) {
+        String s = ConfigLoad.get(key);
+        if (StrUtil.isBlank(s)) {
+            return defaultValue;
+        }
+
+        try {
+            return DataSizeUtil.parse(s.trim());
+        } catch (Exception e) {
+            log.error("配置{}错误:{}，使用默认值", key, s);
+            return defaultValue;
+        }
+    }
+}
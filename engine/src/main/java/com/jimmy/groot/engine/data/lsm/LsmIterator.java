@@ -0,0 +1,62 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Maps;
+import com.jimmy.groot.engine.enums.TableDataTypeEnum;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 范围扫描迭代器，按key顺序流式输出区间内的有效数据，删除标记在合并时跳过
+ * <p>
+ * 扫描期间持有ssTable的引用，被合并替换的文件在扫描结束后才删除，遍历结束或关闭时释放，
+ * 没有遍历完需要调用{@link #close()}
+ */
+public class LsmIterator extends AbstractIterator<Map.Entry<String, String>> implements Closeable {
+
+    private final MergingIterator merged;
+
+    private final String toKey;
+
+    private final List<SsTable> ssTables;
+
+    private boolean closed;
+
+    LsmIterator(List<Iterator<TableData>> iterators, String toKey, List<SsTable> ssTables) {
+        this.toKey = toKey;
+        this.ssTables = ssTables;
+        this.merged = new MergingIterator(iterators);
+    }
+
+    @Override
+    protected Map.Entry<String, String> computeNext() {
+        while (merged.hasNext()) {
+            TableData tableData = merged.next();
+            if (toKey != null && tableData.getKey().compareTo(toKey) >= 0) {
+                break;
+            }
+
+            if (tableData.getTableDataType() == TableDataTypeEnum.REMOVE) {
+                continue;
+            }
+
+            return Maps.immutableEntry(tableData.getKey(), tableData.getValue());
+        }
+
+        this.close();
+        return endOfData();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        ssTables.forEach(SsTable::release);
+    }
+}
@@ -0,0 +1,85 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * lsm存储统计信息
+ */
+public class LsmStatistics {
+
+    /**
+     * 布隆过滤器判定不存在而跳过的ssTable读取次数
+     */
+    private final LongAdder bloomSkipped = new LongAdder();
+
+    /**
+     * 布隆过滤器判定可能存在但实际不存在的次数
+     */
+    private final LongAdder bloomFalsePositive = new LongAdder();
+
+    /**
+     * 不可变内存表达到上限时写入等待的次数和总时长
+     */
+    private final LongAdder writeStallCount = new LongAdder();
+
+    private final LongAdder writeStallNanos = new LongAdder();
+
+    /**
+     * WAL写入耗时，微秒，从提交到按配置持久化完成
+     */
+    private final Histogram walLatency = new Histogram();
+
+    /**
+     * WAL组提交每批记录数
+     */
+    private final Histogram walBatchSize = new Histogram();
+
+    LsmStatistics() {
+
+    }
+
+    void recordBloomSkipped() {
+        bloomSkipped.increment();
+    }
+
+    void recordBloomFalsePositive() {
+        bloomFalsePositive.increment();
+    }
+
+    void recordWriteStall(long nanos) {
+        writeStallCount.increment();
+        writeStallNanos.add(nanos);
+    }
+
+    void recordWalLatency(long micros) {
+        walLatency.record(micros);
+    }
+
+    void recordWalBatch(int size) {
+        walBatchSize.record(size);
+    }
+
+    public long getBloomSkipped() {
+        return bloomSkipped.sum();
+    }
+
+    public long getBloomFalsePositive() {
+        return bloomFalsePositive.sum();
+    }
+
+    public long getWriteStallCount() {
+        return writeStallCount.sum();
+    }
+
+    public long getWriteStallNanos() {
+        return writeStallNanos.sum();
+    }
+
+    public Histogram getWalLatency() {
+        return walLatency;
+    }
+
+    public Histogram getWalBatchSize() {
+        return walBatchSize;
+    }
+}
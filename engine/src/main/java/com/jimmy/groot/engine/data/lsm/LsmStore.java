@@ -1,22 +1,24 @@
 package com.jimmy.groot.engine.data.lsm;
 
-import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.map.MapUtil;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Maps;
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
+import com.google.common.collect.Iterators;
+import com.jimmy.groot.engine.enums.CompactionStrategyEnum;
 import com.jimmy.groot.engine.enums.TableDataTypeEnum;
 import com.jimmy.groot.engine.exception.EngineException;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @Slf4j
@@ -24,17 +26,19 @@ public class LsmStore {
 
     private static final String WAL = "wal";
 
-    private static final int COMPACT_SIZE = 3;
-
-    private static final String RW_MODE = "rw";
-
     private static final String TABLE = ".table";
 
     private static final String WAL_TMP = "walTmp";
 
+    private static final String WAL_SEPARATOR = ".";
+
+    private static final long STALL_CHECK_MILLIS = 100;
+
+    private static final String LEVEL_SEPARATOR = "-";
+
     private static final int DEFAULT_BLOOM_EXPECTED = 1000;
 
-    private File walFile;
+    private static final int MAX_IMMUTABLE_MEMTABLES = LsmConfig.getMaxImmutableMemTables();
 
     private long partSize;
 
@@ -42,31 +46,102 @@ public class LsmStore {
 
     private int storeThreshold;
 
-    private RandomAccessFile wal;
+    private int bloomExpected;
+
+    private AtomicLong lastTableNumber;
+
+    private long walSequence;
+
+    /**
+     * 最后写入数据的序列号，同一个key以序列号大的为准
+     */
+    private AtomicLong lastSequence;
+
+    private ReentrantReadWriteLock indexLock;
 
-    private ReadWriteLock indexLock;
+    /**
+     * 刷盘完成通知等待中的写入
+     */
+    private Condition flushed;
 
     private ObjectMapper objectMapper;
 
-    private LinkedList<SsTable> ssTables;
+    private LsmStatistics statistics;
+
+    private volatile TableLevels tableLevels;
 
-    private TreeMap<String, TableData> index;
+    private CompactionStrategy compaction;
+
+    private CompactionStatistics compactionStatistics;
+
+    /**
+     * 同一个存储同一时间只有一个合并任务，合并过程中输入文件不会被其他任务删除
+     */
+    private ReentrantLock compactionLock;
 
-    private TreeMap<String, TableData> immutableIndex;
+    private AtomicBoolean compactionScheduled;
+
+    /**
+     * 同一个存储同一时间只有一个刷盘任务，刷盘过程中分配的文件编号不会和合并预留的编号交错
+     */
+    private ReentrantLock flushLock;
+
+    private AtomicBoolean flushScheduled;
+
+    /**
+     * 已经删除，不再刷盘和合并
+     */
+    private volatile boolean destroyed;
+
+    private MemTable memTable;
+
+    /**
+     * 等待刷盘的不可变内存表，从新到旧排列
+     */
+    private LinkedList<MemTable> immutables;
 
     private LsmStore() {
     }
 
     public static LsmStore build(String dataDir, int storeThreshold, long partSize, int expectCount) {
+        return build(dataDir, storeThreshold, partSize, expectCount, CompactionStrategyEnum.LEVELED, 0L);
+    }
+
+    /**
+     * @param dataDir
+     * @param storeThreshold
+     * @param partSize
+     * @param expectCount
+     * @param compactionStrategy 合并策略
+     * @param ttl                FIFO策略的文件过期时间，毫秒，必须大于0，其他策略忽略
+     * @return
+     */
+    public static LsmStore build(String dataDir, int storeThreshold, long partSize, int expectCount, CompactionStrategyEnum compactionStrategy, long ttl) {
+        //FIFO不合并，没有过期时间时文件只增不减，每次读取都要查找所有文件
+        if (compactionStrategy == CompactionStrategyEnum.FIFO && ttl <= 0) {
+            throw new EngineException("FIFO合并策略的过期时间必须大于0");
+        }
+
         try {
             LsmStore lsmStore = new LsmStore();
             lsmStore.dataDir = dataDir;
             lsmStore.partSize = partSize;
-            lsmStore.index = new TreeMap<>();
-            lsmStore.ssTables = new LinkedList<>();
+            lsmStore.immutables = new LinkedList<>();
+            lsmStore.tableLevels = TableLevels.empty();
+            lsmStore.lastTableNumber = new AtomicLong();
+            lsmStore.compaction = CompactionStrategy.create(compactionStrategy, ttl);
+            lsmStore.compactionStatistics = new CompactionStatistics(CompactionService.getInstance().getStatistics(compactionStrategy));
+            lsmStore.compactionLock = new ReentrantLock();
+            lsmStore.compactionScheduled = new AtomicBoolean();
             lsmStore.storeThreshold = storeThreshold;
+            lsmStore.bloomExpected = expectCount > 0 ? expectCount : DEFAULT_BLOOM_EXPECTED;
+            lsmStore.statistics = new LsmStatistics();
             lsmStore.objectMapper = new ObjectMapper();
+            lsmStore.lastSequence = new AtomicLong();
             lsmStore.indexLock = new ReentrantReadWriteLock();
+            lsmStore.flushed = lsmStore.indexLock.writeLock().newCondition();
+            lsmStore.flushLock = new ReentrantLock();
+            lsmStore.flushScheduled = new AtomicBoolean();
 
             if (!FileUtil.exist(dataDir)) {
                 FileUtil.mkdir(dataDir);
@@ -76,34 +151,63 @@ public class LsmStore {
             File[] files = dir.listFiles();
             //目录为空无需加载ssTable
             if (files == null || files.length == 0) {
-                lsmStore.walFile = new File(dataDir + WAL);
-                lsmStore.wal = new RandomAccessFile(lsmStore.walFile, RW_MODE);
+                lsmStore.openMemTable(new File(dataDir + WAL), false);
+                lsmStore.watchExpiration();
                 return lsmStore;
             }
-            //从大到小加载ssTable
-            TreeMap<Long, SsTable> ssTableTreeMap = new TreeMap<>(Comparator.reverseOrder());
+            List<SsTable> ssTables = new ArrayList<>();
+            TreeMap<Long, File> walFiles = new TreeMap<>();
             for (File file : files) {
                 String fileName = file.getName();
-                //从暂存的WAL中恢复数据，一般是持久化ssTable过程中异常才会留下walTmp
+                //旧版本切换内存表时留下的walTmp比wal旧
                 if (file.isFile() && fileName.equals(WAL_TMP)) {
-                    lsmStore.restoreFromWal(new RandomAccessFile(file, RW_MODE));
+                    walFiles.put(-2L, file);
                 }
-                //加载ssTable
+                //没有写完的ssTable，对应的WAL或合并输入文件还在，直接删除
+                if (file.isFile() && fileName.endsWith(TABLE + SsTable.TMP_SUFFIX)) {
+                    FileUtil.del(file);
+                    continue;
+                }
+                //加载ssTable，文件名为编号-层级，旧版本只有编号的属于L0
                 if (file.isFile() && fileName.endsWith(TABLE)) {
-                    int dotIndex = fileName.indexOf(".");
-                    Long time = Long.parseLong(fileName.substring(0, dotIndex));
-                    ssTableTreeMap.put(time, SsTable.restore(file.getAbsolutePath(), lsmStore.objectMapper));
+                    String name = fileName.substring(0, fileName.length() - TABLE.length());
+                    int separatorIndex = name.indexOf(LEVEL_SEPARATOR);
+                    long number = Long.parseLong(separatorIndex < 0 ? name : name.substring(0, separatorIndex));
+                    int level = separatorIndex < 0 ? 0 : Integer.parseInt(name.substring(separatorIndex + 1));
+                    lsmStore.lastTableNumber.accumulateAndGet(number, Math::max);
+                    ssTables.add(SsTable.restore(file.getAbsolutePath(), number, level, lsmStore.objectMapper));
                 } else if (file.isFile() && fileName.equals(WAL)) {
-                    //加载WAL
-                    lsmStore.walFile = file;
-                    lsmStore.wal = new RandomAccessFile(file, RW_MODE);
-                    lsmStore.restoreFromWal(lsmStore.wal);
+                    walFiles.put(-1L, file);
+                } else if (file.isFile() && fileName.startsWith(WAL + WAL_SEPARATOR)) {
+                    long sequence = Long.parseLong(fileName.substring(WAL.length() + WAL_SEPARATOR.length()));
+                    lsmStore.walSequence = Math.max(lsmStore.walSequence, sequence);
+                    walFiles.put(sequence, file);
                 }
             }
 
-            lsmStore.ssTables.addAll(ssTableTreeMap.values());
+            lsmStore.tableLevels = TableLevels.restore(ssTables);
+            //最新的WAL恢复为可写的内存表，其余的恢复为不可变内存表重新刷盘
+            if (walFiles.isEmpty()) {
+                lsmStore.openMemTable(new File(dataDir + WAL), false);
+            }
+            while (!walFiles.isEmpty()) {
+                Map.Entry<Long, File> entry = walFiles.pollFirstEntry();
+                boolean binary = lsmStore.openMemTable(entry.getValue(), true);
+                //旧版本格式的WAL不再追加写入，恢复后直接刷盘
+                if (!walFiles.isEmpty() || !binary) {
+                    lsmStore.immutables.addFirst(lsmStore.memTable);
+                    lsmStore.memTable.close();
+                }
+                if (walFiles.isEmpty() && !binary) {
+                    lsmStore.openMemTable(new File(dataDir + WAL + WAL_SEPARATOR + (++lsmStore.walSequence)), false);
+                }
+            }
+
+            lsmStore.watchExpiration();
+            lsmStore.scheduleFlush();
+            lsmStore.maybeScheduleCompaction();
             return lsmStore;
-        } catch (FileNotFoundException t) {
+        } catch (IOException t) {
             throw new EngineException(t.getMessage());
         }
     }
@@ -111,96 +215,196 @@ public class LsmStore {
     public long total() {
         indexLock.readLock().lock();
         try {
-            return index.size() + immutableIndex.size() + ssTables.stream().mapToLong(SsTable::count).sum();
+            long immutableSize = immutables.stream().mapToLong(MemTable::size).sum();
+            return memTable.size() + immutableSize + tableLevels.all().stream().mapToLong(SsTable::count).sum();
         } finally {
             indexLock.readLock().unlock();
         }
     }
 
     public TreeMap<String, String> all() {
-        if (CollUtil.isEmpty(ssTables)) {
-            return Maps.newTreeMap();
+        TreeMap<String, String> result = new TreeMap<>();
+        try (LsmIterator iterator = this.scan(null, null)) {
+            while (iterator.hasNext()) {
+                Map.Entry<String, String> entry = iterator.next();
+                result.put(entry.getKey(), entry.getValue());
+            }
         }
+        return result;
+    }
+
+    /**
+     * 前缀扫描
+     *
+     * @param prefix
+     * @return
+     */
+    public LsmIterator prefixScan(String prefix) {
+        return this.scan(prefix, this.prefixUpperBound(prefix));
+    }
+
+    /**
+     * 范围扫描，多路归并内存表、不可变内存表和ssTable，按key顺序流式输出，每个文件同一时间只读取一个分区
+     * <p>
+     * 扫描开始时固定ssTable集合，之后的合并不影响扫描结果；内存表是并发跳表，扫描期间的新写入可能可见
+     *
+     * @param fromKey 包含，null表示不限
+     * @param toKey   不包含，null表示不限
+     * @return
+     */
+    public LsmIterator scan(String fromKey, String toKey) {
+        List<Iterator<TableData>> iterators = new ArrayList<>();
+        List<SsTable> retained = new ArrayList<>();
 
         indexLock.readLock().lock();
         try {
-            TreeMap<String, String> result = new TreeMap<>();
-
-            for (int i = ssTables.size() - 1; i >= 0; i--) {
-                SsTable table = ssTables.get(i);
+            //从新到旧加入数据源，下标越小越新
+            iterators.add(this.memTableIterator(memTable, fromKey, toKey));
+            for (MemTable immutable : immutables) {
+                iterators.add(this.memTableIterator(immutable, fromKey, toKey));
+            }
 
-                TreeMap<String, TableData> load = table.load();
-                if (MapUtil.isEmpty(load)) {
-                    continue;
+            TableLevels levels = this.tableLevels;
+            for (int level = 0; level < TableLevels.MAX_LEVEL; level++) {
+                List<SsTable> overlapping = levels.overlapping(level, fromKey, toKey);
+                for (SsTable ssTable : overlapping) {
+                    ssTable.retain();
+                    retained.add(ssTable);
+                }
+                //L0文件之间有重叠，每个文件一路；其余层级文件有序不重叠，按顺序逐个打开
+                if (level == 0) {
+                    overlapping.forEach(ssTable -> iterators.add(ssTable.iterator(fromKey)));
+                } else if (!overlapping.isEmpty()) {
+                    iterators.add(Iterators.concat(Iterators.transform(overlapping.iterator(), ssTable -> ssTable.iterator(fromKey))));
                 }
-
-                this.loadData(load, result);
             }
-
-            this.loadData(index, result);
-            return result;
         } finally {
             indexLock.readLock().unlock();
         }
-    }
 
-    public void compact() {
-        if (CollUtil.isEmpty(ssTables) || ssTables.size() <= COMPACT_SIZE) {
-            return;
+        try {
+            return new LsmIterator(iterators, toKey, retained);
+        } catch (RuntimeException e) {
+            retained.forEach(SsTable::release);
+            throw e;
         }
+    }
 
-        indexLock.writeLock().lock();
+    public LsmStatistics getStatistics() {
+        return statistics;
+    }
+
+    public CompactionStatistics getCompactionStatistics() {
+        return compactionStatistics;
+    }
+
+    public CompactionStrategyEnum getCompactionStrategy() {
+        return compaction.getType();
+    }
+
+    /**
+     * 同步执行合并直到合并策略认为不需要合并
+     */
+    public void compact() {
+        compactionLock.lock();
         try {
-            LinkedList<SsTable> compact = new LinkedList<>();
-            List<List<SsTable>> split = CollUtil.split(ssTables, COMPACT_SIZE);
-
-            for (int i = split.size() - 1; i >= 0; i--) {
-                List<SsTable> tables = split.get(i);
-                TreeMap<String, TableData> merge = new TreeMap<>();
-                //倒序合并
-                for (int j = tables.size() - 1; j >= 0; j--) {
-                    SsTable ssTable = tables.get(j);
-                    merge.putAll(ssTable.load());
+            while (!destroyed) {
+                CompactionTask task;
+                long outputNumber;
+                //持有刷盘锁时不会刷盘，输出文件编号在选择任务时预留，保证比输入文件新且比之后刷盘的文件旧
+                flushLock.lock();
+                try {
+                    task = compaction.pick(tableLevels);
+                    if (task == null) {
+                        return;
+                    }
+
+                    outputNumber = this.nextTableNumber();
+                } finally {
+                    flushLock.unlock();
                 }
-                //ssTable按照时间命名，这样可以保证名称递增
-                SsTable ssTable = SsTable.build(dataDir + System.currentTimeMillis() + TABLE, partSize, objectMapper);
-                ssTable.write(merge);
-                compact.addFirst(ssTable);
+
+                this.runCompaction(task, outputNumber);
             }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * 关闭并删除存储的所有文件，等待进行中的刷盘和合并结束，删除后不能再读写
+     */
+    public void destroy() {
+        this.destroyed = true;
+        CompactionService.getInstance().unwatch(this);
 
-            this.ssTables = compact;
+        compactionLock.lock();
+        flushLock.lock();
+        try {
+            indexLock.writeLock().lock();
+            try {
+                memTable.close();
+                this.deleteWal(memTable);
+                immutables.forEach(this::deleteWal);
+                immutables.clear();
+                tableLevels.all().forEach(SsTable::delete);
+                this.tableLevels = TableLevels.empty();
+                flushed.signalAll();
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            log.error("删除存储失败", e);
+            throw new EngineException(e.getMessage());
         } finally {
-            indexLock.writeLock().unlock();
+            flushLock.unlock();
+            compactionLock.unlock();
         }
     }
 
     public void set(String key, String value) {
-        this.store(key, value, TableDataTypeEnum.SET);
+        this.store(Collections.singletonList(new TableData(key, value, TableDataTypeEnum.SET)));
     }
 
     public void remove(String key) {
-        this.store(key, null, TableDataTypeEnum.REMOVE);
+        this.store(Collections.singletonList(new TableData(key, null, TableDataTypeEnum.REMOVE)));
+    }
+
+    /**
+     * 批量写入，只写入一条WAL记录
+     *
+     * @param writeBatch
+     */
+    public void write(WriteBatch writeBatch) {
+        if (writeBatch.isEmpty()) {
+            return;
+        }
+        //写入后的数据进入内存表，复制一份避免批量对象被重复使用时修改内存表中的数据
+        List<TableData> entries = new ArrayList<>(writeBatch.size());
+        for (TableData entry : writeBatch.getEntries()) {
+            entries.add(new TableData(entry.getKey(), entry.getValue(), entry.getTableDataType()));
+        }
+        this.store(entries);
     }
 
     public String get(String key) {
         indexLock.readLock().lock();
 
         try {
-            //先从索引中取
-            TableData tableData = index.get(key);
-            //再尝试从不可变索引中取，此时可能处于持久化ssTable的过程中
-            if (tableData == null && immutableIndex != null) {
-                tableData = immutableIndex.get(key);
-            }
+            //先从内存表中取
+            TableData tableData = memTable.get(key);
+            //再从新到旧尝试从等待刷盘的不可变内存表中取
             if (tableData == null) {
-                //索引中没有尝试从ssTable中获取，从新的ssTable找到老的
-                for (SsTable ssTable : ssTables) {
-                    tableData = ssTable.query(key);
+                for (MemTable immutable : immutables) {
+                    tableData = immutable.get(key);
                     if (tableData != null) {
                         break;
                     }
                 }
             }
+            if (tableData == null) {
+                tableData = this.queryTables(key);
+            }
 
             if (tableData != null) {
                 TableDataTypeEnum tableDataType = tableData.getTableDataType();
@@ -219,142 +423,480 @@ public class LsmStore {
     }
 
     /**
-     * 加载数据
+     * 从ssTable中查询，L0从新到旧逐个查询，L1及以上每层最多查询一个文件
      *
-     * @param load
-     * @param result
+     * @param key
+     * @return
      */
-    private void loadData(TreeMap<String, TableData> load, TreeMap<String, String> result) {
-        if (MapUtil.isNotEmpty(load)) {
-            for (Map.Entry<String, TableData> entry : load.entrySet()) {
-                String key = entry.getKey();
-                TableData value = entry.getValue();
+    private TableData queryTables(String key) {
+        TableLevels current = this.tableLevels;
 
-                TableDataTypeEnum tableDataType = value.getTableDataType();
-                switch (tableDataType) {
-                    case SET:
-                        result.put(key, value.getValue());
-                        break;
-                    case REMOVE:
-                        result.remove(key);
+        for (SsTable ssTable : current.level(0)) {
+            TableData tableData = this.queryTable(ssTable, key);
+            if (tableData != null) {
+                return tableData;
+            }
+        }
+
+        for (int level = 1; level < TableLevels.MAX_LEVEL; level++) {
+            SsTable ssTable = current.find(level, key);
+            if (ssTable == null) {
+                continue;
+            }
+
+            TableData tableData = this.queryTable(ssTable, key);
+            if (tableData != null) {
+                return tableData;
+            }
+        }
+
+        return null;
+    }
+
+    private TableData queryTable(SsTable ssTable, String key) {
+        //布隆过滤器判定不存在的直接跳过，不读磁盘
+        if (!ssTable.mightContain(key)) {
+            statistics.recordBloomSkipped();
+            return null;
+        }
+
+        TableData tableData = ssTable.query(key);
+        if (tableData == null && ssTable.hasBloomFilter()) {
+            statistics.recordBloomFalsePositive();
+        }
+
+        return tableData;
+    }
+
+    /**
+     * 后台合并，由合并服务调用
+     */
+    void backgroundCompaction() {
+        try {
+            this.compact();
+        } finally {
+            compactionScheduled.set(false);
+        }
+        //合并期间可能又有新的刷盘
+        this.maybeScheduleCompaction();
+    }
+
+    /**
+     * 后台刷盘，由刷盘服务调用
+     */
+    void backgroundFlush() {
+        try {
+            this.flushImmutables();
+        } finally {
+            flushScheduled.set(false);
+        }
+        //刷盘期间可能又切换了内存表
+        this.scheduleFlush();
+        this.maybeScheduleCompaction();
+    }
+
+    /**
+     * 有等待刷盘的内存表且没有排队中的刷盘任务时提交后台刷盘
+     */
+    private void scheduleFlush() {
+        indexLock.readLock().lock();
+        try {
+            if (immutables.isEmpty()) {
+                return;
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+
+        if (flushScheduled.compareAndSet(false, true)) {
+            FlushService.getInstance().schedule(this);
+        }
+    }
+
+    /**
+     * 从旧到新把不可变内存表写入L0，写文件时不持有索引锁，只在替换文件集合时短暂持有写锁
+     */
+    private void flushImmutables() {
+        flushLock.lock();
+        try {
+            while (!destroyed) {
+                MemTable immutable;
+                indexLock.readLock().lock();
+                try {
+                    immutable = immutables.peekLast();
+                } finally {
+                    indexLock.readLock().unlock();
                 }
+
+                if (immutable == null) {
+                    return;
+                }
+
+                SsTable ssTable = null;
+                //空的内存表只需要删除WAL
+                if (immutable.size() > 0) {
+                    long number = this.nextTableNumber();
+                    ssTable = SsTable.build(this.tablePath(number, 0), number, 0, partSize, bloomExpected, objectMapper);
+                    try {
+                        ssTable.write(immutable.getData());
+                    } catch (Exception e) {
+                        ssTable.delete();
+                        throw e;
+                    }
+                }
+
+                indexLock.writeLock().lock();
+                try {
+                    if (ssTable != null) {
+                        this.tableLevels = this.tableLevels.addL0(ssTable);
+                    }
+                    immutables.removeLast();
+                    flushed.signalAll();
+                } finally {
+                    indexLock.writeLock().unlock();
+                }
+
+                if (ssTable != null) {
+                    compactionStatistics.recordFlush(ssTable.size());
+                }
+                //持久化完成删除对应的WAL
+                this.deleteWal(immutable);
             }
+        } finally {
+            flushLock.unlock();
         }
     }
 
     /**
-     * 保存
+     * 需要合并且没有排队中的合并任务时提交后台合并
+     */
+    void maybeScheduleCompaction() {
+        if (!compaction.needsCompaction(tableLevels)) {
+            return;
+        }
+
+        if (compactionScheduled.compareAndSet(false, true)) {
+            CompactionService.getInstance().schedule(this);
+        }
+    }
+
+    /**
+     * 按过期时间删除文件的策略没有写入时也需要定期检查
+     */
+    private void watchExpiration() {
+        if (compaction.getType() == CompactionStrategyEnum.FIFO) {
+            CompactionService.getInstance().watch(this);
+        }
+    }
+
+    /**
+     * 执行合并，流式归并输入文件并按目标大小切分输出，合并过程不持有索引锁，读写不受影响，
+     * 只在替换文件集合时短暂持有写锁
      *
-     * @param key
-     * @param value
-     * @param tableDataTypeEnum
+     * @param task
+     * @param outputNumber 第一个输出文件编号
      */
-    private void store(String key, String value, TableDataTypeEnum tableDataTypeEnum) {
-        indexLock.writeLock().lock();
+    private void runCompaction(CompactionTask task, long outputNumber) {
+        List<SsTable> inputs = task.getInputs();
+        int outputLevel = task.getOutputLevel();
+        List<SsTable> outputs = new ArrayList<>();
+
+        if (task.isExpired()) {
+            this.installCompaction(inputs, outputs);
+            compactionStatistics.recordExpired(inputs.size(), inputs.stream().mapToLong(SsTable::size).sum());
+            return;
+        }
+
+        long inputSize = 0;
         try {
-            TableData tableData = new TableData(key, value, tableDataTypeEnum);
-
-            byte[] bytes = objectMapper.writeValueAsBytes(tableData);
-            //先保存数据到WAL中
-            wal.seek(wal.length());
-            wal.writeInt(bytes.length);
-            wal.write(bytes);
-
-            this.index.put(key, tableData);
-            //内存表大小超过阈值进行持久化
-            if (index.size() > storeThreshold) {
-                switchIndex();
-                storeToSsTable();
+            List<Iterator<TableData>> iterators = new ArrayList<>(inputs.size());
+            long inputCount = 0;
+            for (SsTable input : inputs) {
+                iterators.add(input.iterator());
+                inputCount += input.count();
+                inputSize += input.size();
+            }
+
+            Iterator<TableData> merged = new MergingIterator(iterators);
+            //没有更旧的数据需要覆盖时，可以丢弃删除标记
+            if (task.isDropTombstones()) {
+                merged = Iterators.filter(merged, tableData -> tableData.getTableDataType() != TableDataTypeEnum.REMOVE);
+            }
+            //按大小比例估算每个输出文件的数量
+            long maxOutputFileSize = task.getMaxOutputFileSize();
+            int expected = (int) Math.min(inputCount, (double) inputCount * Math.min(maxOutputFileSize, inputSize) / Math.max(inputSize, 1) + 1);
+
+            long number = outputNumber;
+            while (merged.hasNext()) {
+                SsTable ssTable = SsTable.build(this.tablePath(number, outputLevel), number, outputLevel, partSize, expected, objectMapper);
+                outputs.add(ssTable);
+                ssTable.write(merged, expected, maxOutputFileSize);
+                number = this.nextTableNumber();
             }
         } catch (Exception e) {
-            log.error("保存数据失败", e);
-            throw new EngineException(e.getMessage());
+            log.error("合并ssTable失败", e);
+            outputs.forEach(SsTable::delete);
+            throw new EngineException("合并ssTable失败");
+        }
+
+        this.installCompaction(inputs, outputs);
+        compactionStatistics.recordCompaction(inputSize, outputs.stream().mapToLong(SsTable::size).sum());
+    }
+
+    /**
+     * 替换文件集合并删除输入文件
+     *
+     * @param inputs
+     * @param outputs
+     */
+    private void installCompaction(List<SsTable> inputs, List<SsTable> outputs) {
+        indexLock.writeLock().lock();
+        try {
+            this.tableLevels = this.tableLevels.replace(inputs, outputs);
+            //持有写锁期间没有点查，正在进行的范围扫描持有引用，扫描结束后才真正删除
+            inputs.forEach(SsTable::delete);
         } finally {
             indexLock.writeLock().unlock();
         }
     }
 
+    private void deleteWal(MemTable target) {
+        if (!target.getWalFile().delete()) {
+            log.error("删除WAL文件失败:{}", target.getWalFile().getPath());
+        }
+    }
+
     /**
-     * 从暂存日志中恢复数据
+     * 内存表中区间内的数据
      *
-     * @param wal
+     * @param target
+     * @param fromKey
+     * @param toKey
+     * @return
      */
-    private void restoreFromWal(RandomAccessFile wal) {
+    private Iterator<TableData> memTableIterator(MemTable target, String fromKey, String toKey) {
+        NavigableMap<String, TableData> data = target.getData();
+        if (fromKey != null) {
+            data = data.tailMap(fromKey, true);
+        }
+        if (toKey != null) {
+            data = data.headMap(toKey, false);
+        }
+        return data.values().iterator();
+    }
+
+    /**
+     * 大于所有以指定前缀开头的key的最小key，不存在返回null
+     *
+     * @param prefix
+     * @return
+     */
+    private String prefixUpperBound(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+
+        if (end == 0) {
+            return null;
+        }
+
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    /**
+     * 保存，写入之间只持有读锁，多个线程可以并发写入WAL和内存表，只有切换内存表时需要写锁
+     *
+     * @param entries 同一批数据，序列号连续
+     */
+    private void store(List<TableData> entries) {
+        MemTable current;
+
         try {
-            long len = wal.length();
-            long start = 0;
-            wal.seek(start);
-            while (start < len) {
-                //先读取数据大小
-                int valueLen = wal.readInt();
-                //根据数据大小读取数据
-                byte[] bytes = new byte[valueLen];
-                wal.read(bytes);
-
-                TableData tableData = objectMapper.readValue(new String(bytes, StandardCharsets.UTF_8), TableData.class);
-                index.put(tableData.getKey(), tableData);
-
-                start += 4;
-                start += valueLen;
+            this.awaitImmutableSlot();
+
+            long sequence = lastSequence.getAndAdd(entries.size()) + 1;
+            for (int i = 0; i < entries.size(); i++) {
+                entries.get(i).setSequence(sequence + i);
+            }
+            ByteBuffer record = WalRecord.encode(sequence, entries);
+
+            indexLock.readLock().lock();
+            try {
+                current = this.memTable;
+                //先保存数据到WAL中
+                current.append(record);
+                for (TableData tableData : entries) {
+                    current.put(tableData);
+                }
+            } finally {
+                indexLock.readLock().unlock();
             }
-            wal.seek(wal.length());
+        } catch (EngineException e) {
+            throw e;
         } catch (Exception e) {
-            log.error("恢复数据失败", e);
+            log.error("保存数据失败", e);
             throw new EngineException(e.getMessage());
         }
+        //内存表大小超过阈值切换内存表，由后台刷盘
+        if (current.size() > storeThreshold && this.switchMemTable(current)) {
+            this.scheduleFlush();
+        }
     }
 
     /**
-     * 切换内存表
+     * 不可变内存表达到上限时等待刷盘完成
+     *
+     * @throws InterruptedException
      */
-    private void switchIndex() {
-        indexLock.writeLock().lock();
+    private void awaitImmutableSlot() throws InterruptedException {
+        indexLock.readLock().lock();
         try {
-            //切换内存表
-            immutableIndex = index;
-            index = new TreeMap<>();
-            wal.close();
-            //切换内存表后也要切换WAL
-            File tmpWal = new File(dataDir + WAL_TMP);
-            if (tmpWal.exists()) {
-                if (!tmpWal.delete()) {
-                    throw new EngineException("删除文件walTmp失败");
-                }
+            if (immutables.size() < MAX_IMMUTABLE_MEMTABLES) {
+                return;
             }
-            if (!walFile.renameTo(tmpWal)) {
-                throw new EngineException("重命名文件walTmp失败");
+        } finally {
+            indexLock.readLock().unlock();
+        }
+
+        indexLock.writeLock().lock();
+        try {
+            long start = System.nanoTime();
+            while (immutables.size() >= MAX_IMMUTABLE_MEMTABLES) {
+                //刷盘失败时没有后续的刷盘任务，等待期间定期重新提交
+                this.scheduleFlush();
+                flushed.await(STALL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
             }
-            walFile = new File(dataDir + WAL);
-            wal = new RandomAccessFile(walFile, RW_MODE);
-        } catch (Exception e) {
-            log.error("切换内存表失败", e);
-            throw new EngineException(e.getMessage());
+            statistics.recordWriteStall(System.nanoTime() - start);
         } finally {
             indexLock.writeLock().unlock();
         }
     }
 
     /**
-     * 保存数据到ssTable
+     * 从WAL中恢复最长的有效前缀，末尾不完整、校验失败的记录或全为0的填充截断丢弃
+     *
+     * @param target
+     * @return 是否为二进制格式
      */
-    private void storeToSsTable() {
+    private boolean restoreFromWal(MemTable target) {
         try {
-            //ssTable按照时间命名，这样可以保证名称递增
-            SsTable ssTable = SsTable.build(dataDir + System.currentTimeMillis() + TABLE, partSize, objectMapper);
-            ssTable.write(this.immutableIndex);
-            this.ssTables.addFirst(ssTable);
-            //持久化完成删除暂存的内存表和WAL_TMP
-            this.immutableIndex = null;
-
-            File tmpWal = new File(dataDir + WAL_TMP);
-            if (tmpWal.exists()) {
-                if (!tmpWal.delete()) {
-                    throw new EngineException("删除文件walTmp失败");
+            FileChannel channel = target.getWalChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    break;
                 }
             }
+            buffer.flip();
+
+            boolean binary = WalRecord.isBinary(buffer);
+            int end;
+            if (binary) {
+                buffer.position(WalRecord.HEADER_SIZE);
+                end = WalRecord.decode(buffer, tableData -> {
+                    lastSequence.accumulateAndGet(tableData.getSequence(), Math::max);
+                    target.put(tableData);
+                });
+            } else {
+                end = this.restoreFromLegacyWal(buffer, target);
+            }
+
+            if (end < channel.size()) {
+                log.warn("WAL末尾存在不完整的记录，截断:{}", target.getWalFile().getPath());
+                channel.truncate(end);
+            }
+            target.resetWalOffset(end);
+            return binary;
         } catch (Exception e) {
-            log.error("保存到ss table失败", e);
+            log.error("恢复数据失败", e);
+            throw new EngineException(e.getMessage());
+        }
+    }
+
+    /**
+     * 旧版本WAL，每条记录为长度+JSON
+     *
+     * @param buffer
+     * @param target
+     * @return 最后一条有效记录结束的位置
+     */
+    private int restoreFromLegacyWal(ByteBuffer buffer, MemTable target) {
+        int start = 0;
+        while (buffer.remaining() >= 4) {
+            //先读取数据大小
+            int valueLen = buffer.getInt();
+            if (valueLen <= 0 || valueLen > buffer.remaining()) {
+                break;
+            }
+            //根据数据大小读取数据
+            byte[] bytes = new byte[valueLen];
+            buffer.get(bytes);
+
+            TableData tableData;
+            try {
+                tableData = objectMapper.readValue(new String(bytes, StandardCharsets.UTF_8), TableData.class);
+            } catch (IOException e) {
+                break;
+            }
+            tableData.setSequence(start);
+            target.put(tableData);
+
+            start = buffer.position();
+        }
+        return start;
+    }
+
+    /**
+     * 打开内存表和对应的WAL
+     *
+     * @param walFile
+     * @param restore 是否从WAL中恢复数据
+     * @return WAL是否为二进制格式
+     * @throws IOException
+     */
+    private boolean openMemTable(File walFile, boolean restore) throws IOException {
+        this.memTable = new MemTable(walFile, statistics);
+        return !restore || this.restoreFromWal(memTable);
+    }
+
+    /**
+     * 切换内存表，当前内存表加入不可变队列等待刷盘，新的内存表使用新的WAL文件
+     * <p>
+     * 持有写锁时没有正在进行的写入，关闭WAL不会丢失数据
+     *
+     * @param current 超过阈值的内存表
+     * @return 已经被其他线程切换返回false
+     */
+    private boolean switchMemTable(MemTable current) {
+        indexLock.writeLock().lock();
+        try {
+            if (this.memTable != current) {
+                return false;
+            }
+
+            current.close();
+            immutables.addFirst(current);
+            this.openMemTable(new File(dataDir + WAL + WAL_SEPARATOR + (++walSequence)), false);
+            return true;
+        } catch (IOException e) {
+            log.error("切换内存表失败", e);
             throw new EngineException(e.getMessage());
+        } finally {
+            indexLock.writeLock().unlock();
         }
     }
+
+    /**
+     * ssTable按照时间编号，这样可以保证编号递增，同一毫秒内生成多个文件时顺延
+     *
+     * @return
+     */
+    private long nextTableNumber() {
+        return lastTableNumber.updateAndGet(last -> Math.max(System.currentTimeMillis(), last + 1));
+    }
+
+    private String tablePath(long number, int level) {
+        return dataDir + number + LEVEL_SEPARATOR + level + TABLE;
+    }
 }
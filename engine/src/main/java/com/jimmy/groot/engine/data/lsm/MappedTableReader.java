@@ -0,0 +1,67 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.jimmy.groot.engine.utils.MappedBufferUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 通过内存映射读取ssTable，读取时直接切片映射区域，不产生拷贝
+ * <p>
+ * 单个映射区域最大2GB，文件按{@link #CHUNK_SIZE}分块映射，跨块的读取才会拷贝
+ */
+class MappedTableReader implements TableReader {
+
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private final MappedByteBuffer[] chunks;
+
+    MappedTableReader(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int count = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+        this.chunks = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = i * CHUNK_SIZE;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+        }
+    }
+
+    @Override
+    public ByteBuffer read(long position, int len) {
+        int index = (int) (position / CHUNK_SIZE);
+        int offset = (int) (position % CHUNK_SIZE);
+        //区间位于同一个映射块内，直接切片
+        if (offset + len <= chunks[index].capacity()) {
+            return slice(chunks[index], offset, len);
+        }
+        //跨映射块，拷贝到堆内存
+        ByteBuffer result = ByteBuffer.allocate(len);
+        while (result.hasRemaining()) {
+            int size = Math.min(result.remaining(), chunks[index].capacity() - offset);
+            result.put(slice(chunks[index], offset, size));
+            index++;
+            offset = 0;
+        }
+
+        result.flip();
+        return result;
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < chunks.length; i++) {
+            MappedBufferUtil.unmap(chunks[i]);
+            chunks[i] = null;
+        }
+    }
+
+    private static ByteBuffer slice(MappedByteBuffer chunk, int offset, int len) {
+        ByteBuffer duplicate = chunk.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + len);
+        return duplicate.slice();
+    }
+}
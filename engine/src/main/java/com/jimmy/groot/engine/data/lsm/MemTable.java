@@ -0,0 +1,94 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内存表，每个内存表对应一个独立的WAL文件，内存表刷盘完成后删除对应的WAL
+ * <p>
+ * 数据保存在跳表中，多个线程可以并发写入；WAL由{@link WalWriter}组提交写入。
+ * 同一个key并发写入时以序列号大的为准，序列号随记录写入WAL，保证重启恢复后和内存中的结果一致
+ */
+class MemTable implements Closeable {
+
+    private final WalWriter walWriter;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final ConcurrentSkipListMap<String, TableData> data = new ConcurrentSkipListMap<>();
+
+    MemTable(File walFile, LsmStatistics statistics) throws IOException {
+        this.walWriter = new WalWriter(walFile, statistics);
+    }
+
+    File getWalFile() {
+        return walWriter.getFile();
+    }
+
+    FileChannel getWalChannel() {
+        return walWriter.getChannel();
+    }
+
+    ConcurrentNavigableMap<String, TableData> getData() {
+        return data;
+    }
+
+    TableData get(String key) {
+        return data.get(key);
+    }
+
+    /**
+     * 写入WAL
+     *
+     * @param record
+     * @return 记录在WAL中的偏移量
+     * @throws IOException
+     */
+    long append(ByteBuffer record) throws IOException {
+        return walWriter.append(record);
+    }
+
+    /**
+     * 恢复时WAL末尾不完整的记录被丢弃，后续写入从有效数据之后开始
+     *
+     * @param offset
+     */
+    void resetWalOffset(long offset) {
+        walWriter.resetOffset(offset);
+    }
+
+    /**
+     * 写入内存表，已存在序列号更大的数据时忽略
+     * <p>
+     * 不能用replace按equals比较旧数据，equals不包含序列号，相同值的数据会被误判为未变化而覆盖更新的写入
+     *
+     * @param tableData
+     */
+    void put(TableData tableData) {
+        //并发修改时compute会重新执行，以最后一次执行的结果为准
+        boolean[] inserted = new boolean[1];
+        data.compute(tableData.getKey(), (key, current) -> {
+            inserted[0] = current == null;
+            return current == null || current.getSequence() < tableData.getSequence() ? tableData : current;
+        });
+
+        if (inserted[0]) {
+            size.incrementAndGet();
+        }
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        walWriter.close();
+    }
+}
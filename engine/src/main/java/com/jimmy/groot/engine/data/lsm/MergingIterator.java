@@ -0,0 +1,81 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.google.common.collect.AbstractIterator;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 多路归并迭代器，每一路都按key有序，按key从小到大输出
+ * <p>
+ * 同一个key出现在多路中时只输出最新的一条，数据源按从新到旧的顺序传入，下标越小越新
+ */
+class MergingIterator extends AbstractIterator<TableData> {
+
+    private final PriorityQueue<Source> queue;
+
+    MergingIterator(List<Iterator<TableData>> iterators) {
+        this.queue = new PriorityQueue<>(Math.max(iterators.size(), 1));
+
+        for (int i = 0; i < iterators.size(); i++) {
+            Source source = new Source(i, iterators.get(i));
+            if (source.advance()) {
+                queue.add(source);
+            }
+        }
+    }
+
+    @Override
+    protected TableData computeNext() {
+        Source first = queue.poll();
+        if (first == null) {
+            return endOfData();
+        }
+
+        TableData result = first.current;
+        this.advance(first);
+        //跳过其他数据源中相同key的旧数据
+        while (!queue.isEmpty() && queue.peek().current.getKey().equals(result.getKey())) {
+            this.advance(queue.poll());
+        }
+
+        return result;
+    }
+
+    private void advance(Source source) {
+        if (source.advance()) {
+            queue.add(source);
+        }
+    }
+
+    private static class Source implements Comparable<Source> {
+
+        private final int rank;
+
+        private final Iterator<TableData> iterator;
+
+        private TableData current;
+
+        Source(int rank, Iterator<TableData> iterator) {
+            this.rank = rank;
+            this.iterator = iterator;
+        }
+
+        boolean advance() {
+            if (!iterator.hasNext()) {
+                current = null;
+                return false;
+            }
+
+            current = iterator.next();
+            return true;
+        }
+
+        @Override
+        public int compareTo(Source o) {
+            int compare = current.getKey().compareTo(o.current.getKey());
+            return compare != 0 ? compare : Integer.compare(rank, o.rank);
+        }
+    }
+}
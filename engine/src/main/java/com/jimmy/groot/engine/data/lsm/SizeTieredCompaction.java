@@ -0,0 +1,58 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.google.common.collect.Lists;
+import com.jimmy.groot.engine.enums.CompactionStrategyEnum;
+
+import java.util.List;
+
+/**
+ * 分级大小合并策略，所有文件都在L0，适合追加为主的表，写放大小于分层合并
+ * <p>
+ * L0文件数量达到阈值时，从最新的文件开始向旧文件累加，下一个文件不超过已累加大小一定比例时加入同一批，
+ * 大小相近的文件合并成一个更大的文件。只合并从最新文件开始的连续文件，合并结果仍然比未参与合并的文件新
+ */
+class SizeTieredCompaction implements CompactionStrategy {
+
+    private static final double SIZE_RATIO = 1.2;
+
+    private static final int MIN_MERGE_WIDTH = 2;
+
+    private final int trigger;
+
+    SizeTieredCompaction(int trigger) {
+        this.trigger = Math.max(trigger, MIN_MERGE_WIDTH);
+    }
+
+    @Override
+    public CompactionStrategyEnum getType() {
+        return CompactionStrategyEnum.SIZE_TIERED;
+    }
+
+    @Override
+    public boolean needsCompaction(TableLevels tableLevels) {
+        return tableLevels.level(0).size() >= trigger;
+    }
+
+    @Override
+    public CompactionTask pick(TableLevels tableLevels) {
+        List<SsTable> l0 = tableLevels.level(0);
+        if (l0.size() < trigger) {
+            return null;
+        }
+
+        long sum = l0.get(0).size();
+        int width = 1;
+        while (width < l0.size() && l0.get(width).size() <= sum * SIZE_RATIO) {
+            sum += l0.get(width).size();
+            width++;
+        }
+        //最新的文件远小于之前的文件时，至少合并阈值数量的最新文件，避免文件数量无限增长
+        if (width < MIN_MERGE_WIDTH) {
+            width = trigger;
+        }
+
+        List<SsTable> inputs = Lists.newArrayList(l0.subList(0, width));
+        boolean dropTombstones = width == l0.size() && tableLevels.isBottom(0);
+        return CompactionTask.merge(inputs, 0, Long.MAX_VALUE, dropTombstones);
+    }
+}
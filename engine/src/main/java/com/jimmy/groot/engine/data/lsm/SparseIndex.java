@@ -0,0 +1,204 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.google.common.collect.Lists;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ssTable稀疏索引，按分区第一个key排序的数组，同时记录每个分区的最后一个key作为边界
+ * <p>
+ * 查询时二分查找最后一个第一个key小于等于目标key的分区，目标key超过该分区最后一个key时无需读取任何分区
+ */
+class SparseIndex {
+
+    private final String[] firstKeys;
+
+    /**
+     * 旧版本文件没有记录最后一个key，此时为null
+     */
+    private final String[] lastKeys;
+
+    private final long[] starts;
+
+    private final long[] lens;
+
+    private SparseIndex(String[] firstKeys, String[] lastKeys, long[] starts, long[] lens) {
+        this.firstKeys = firstKeys;
+        this.lastKeys = lastKeys;
+        this.starts = starts;
+        this.lens = lens;
+    }
+
+    /**
+     * 旧版本JSON格式的稀疏索引
+     *
+     * @param index
+     * @return
+     */
+    static SparseIndex fromLegacy(TreeMap<String, SsTable.Position> index) {
+        int size = index.size();
+        String[] firstKeys = new String[size];
+        long[] starts = new long[size];
+        long[] lens = new long[size];
+
+        int i = 0;
+        for (Map.Entry<String, SsTable.Position> entry : index.entrySet()) {
+            firstKeys[i] = entry.getKey();
+            starts[i] = entry.getValue().getStart();
+            lens[i] = entry.getValue().getLen();
+            i++;
+        }
+
+        return new SparseIndex(firstKeys, null, starts, lens);
+    }
+
+    /**
+     * 解码，格式：数量|（第一个key|最后一个key|起始位置|长度）*，不带最后一个key的为旧版本格式
+     *
+     * @param buffer
+     * @param withLastKey
+     * @return
+     */
+    static SparseIndex decode(ByteBuffer buffer, boolean withLastKey) {
+        int size = Coding.readVarInt(buffer);
+        String[] firstKeys = new String[size];
+        String[] lastKeys = withLastKey ? new String[size] : null;
+        long[] starts = new long[size];
+        long[] lens = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            firstKeys[i] = Coding.readString(buffer);
+            if (withLastKey) {
+                lastKeys[i] = Coding.readString(buffer);
+            }
+            starts[i] = Coding.readVarLong(buffer);
+            lens[i] = Coding.readVarLong(buffer);
+        }
+
+        return new SparseIndex(firstKeys, lastKeys, starts, lens);
+    }
+
+    int size() {
+        return firstKeys.length;
+    }
+
+    /**
+     * 二分查找最后一个第一个key小于等于目标key的分区
+     *
+     * @param key
+     * @return 不存在返回-1
+     */
+    int floor(String key) {
+        int left = 0;
+        int right = firstKeys.length - 1;
+        int result = -1;
+
+        while (left <= right) {
+            int mid = (left + right) >>> 1;
+            if (firstKeys[mid].compareTo(key) <= 0) {
+                result = mid;
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * 目标key是否可能位于分区内
+     *
+     * @param i
+     * @param key
+     * @return
+     */
+    boolean inRange(int i, String key) {
+        return i >= 0 && (lastKeys == null || key.compareTo(lastKeys[i]) <= 0);
+    }
+
+    SsTable.Position position(int i) {
+        return new SsTable.Position(starts[i], lens[i]);
+    }
+
+    String firstKey(int i) {
+        return firstKeys[i];
+    }
+
+    /**
+     * 分区最后一个key，旧版本文件返回null
+     *
+     * @param i
+     * @return
+     */
+    String lastKey(int i) {
+        return lastKeys == null ? null : lastKeys[i];
+    }
+
+    static class Builder {
+
+        private final List<String> firstKeys = Lists.newArrayList();
+
+        private final List<String> lastKeys = Lists.newArrayList();
+
+        private final List<Long> starts = Lists.newArrayList();
+
+        private final List<Long> lens = Lists.newArrayList();
+
+        void add(String firstKey, String lastKey, long start, long len) {
+            firstKeys.add(firstKey);
+            lastKeys.add(lastKey);
+            starts.add(start);
+            lens.add(len);
+        }
+
+        int size() {
+            return firstKeys.size();
+        }
+
+        String getFirstKey(int i) {
+            return firstKeys.get(i);
+        }
+
+        String getLastKey(int i) {
+            return lastKeys.get(i);
+        }
+
+        /**
+         * 编码指定区间的索引项
+         *
+         * @param from
+         * @param to
+         * @return
+         */
+        byte[] encode(int from, int to) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Coding.writeVarInt(out, to - from);
+
+            for (int i = from; i < to; i++) {
+                Coding.writeString(out, firstKeys.get(i));
+                Coding.writeString(out, lastKeys.get(i));
+                Coding.writeVarLong(out, starts.get(i));
+                Coding.writeVarLong(out, lens.get(i));
+            }
+
+            return out.toByteArray();
+        }
+
+        SparseIndex build() {
+            int size = firstKeys.size();
+            long[] startArray = new long[size];
+            long[] lenArray = new long[size];
+            for (int i = 0; i < size; i++) {
+                startArray[i] = starts.get(i);
+                lenArray[i] = lens.get(i);
+            }
+
+            return new SparseIndex(firstKeys.toArray(new String[0]), lastKeys.toArray(new String[0]), startArray, lenArray);
+        }
+    }
+}
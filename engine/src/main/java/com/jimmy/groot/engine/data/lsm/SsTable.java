@@ -1,59 +1,154 @@
 package com.jimmy.groot.engine.data.lsm;
 
-import cn.hutool.core.collection.CollUtil;
-import cn.hutool.core.map.MapUtil;
+import cn.hutool.core.io.FileUtil;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Maps;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.jimmy.groot.engine.enums.ReadModeEnum;
 import com.jimmy.groot.engine.exception.EngineException;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.LinkedList;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 public class SsTable implements Closeable {
 
+    private static final double BLOOM_FPP = 0.01;
+
+    private static final ReadModeEnum READ_MODE = LsmConfig.getReadMode();
+
+    private static final int INDEX_PARTITION_SIZE = LsmConfig.getIndexPartitionSize();
+
+    static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * 旧版本分区每条数据的对象开销：TreeMap节点、TableData以及三个String和字符数组的对象头
+     */
+    private static final int LEGACY_ENTRY_OVERHEAD = 200;
+
+    private static final byte FLAT_INDEX = 0;
+
+    private static final byte TWO_LEVEL_INDEX = 1;
+
+    private String filePath;
+
+    /**
+     * 实际打开的文件，写入完成前为临时文件
+     */
+    private String openPath;
+
+    /**
+     * 文件编号，同一个lsm存储内递增，编号越大数据越新
+     */
+    private long fileNumber;
+
+    /**
+     * 所在层级
+     */
+    private int level;
+
+    /**
+     * 最小和最大key，旧版本文件没有记录时为null，视为覆盖全部key
+     */
+    private String smallestKey;
+
+    private String largestKey;
+
+    private long fileSize;
+
     private ObjectMapper objectMapper;
 
     private RandomAccessFile tableFile;
 
+    private TableReader reader;
+
     private TableMetaData tableMetaData;
 
-    private TreeMap<String, Position> sparseIndex;
+    private SparseIndex sparseIndex;
+
+    /**
+     * 两级索引时sparseIndex为顶层索引，指向按需加载的叶子索引块
+     */
+    private boolean twoLevelIndex;
+
+    private BloomFilter<CharSequence> bloomFilter;
+
+    private int bloomExpected;
+
+    /**
+     * 引用计数，文件集合持有一个引用，范围扫描期间各持有一个引用，归零时才关闭文件
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /**
+     * 已经被合并替换，引用归零时删除文件
+     */
+    private volatile boolean obsolete;
 
     public SsTable() {
 
     }
 
-    static SsTable restore(String filePath, ObjectMapper objectMapper) {
-        SsTable ssTable = build(filePath, 0L, objectMapper);
+    static SsTable restore(String filePath, long fileNumber, int level, ObjectMapper objectMapper) {
+        SsTable ssTable = open(filePath, filePath, fileNumber, level, 0L, 0, objectMapper);
         ssTable.restoreFromFile();
         return ssTable;
     }
 
-    static SsTable build(String filePath, Long partSize, ObjectMapper objectMapper) {
+    /**
+     * 创建新文件，写入完成前使用临时文件名，崩溃时只会留下临时文件，不会留下不完整的ssTable
+     *
+     * @param filePath
+     * @param fileNumber
+     * @param level
+     * @param partSize
+     * @param bloomExpected
+     * @param objectMapper
+     * @return
+     */
+    static SsTable build(String filePath, long fileNumber, int level, Long partSize, int bloomExpected, ObjectMapper objectMapper) {
+        return open(filePath, filePath + TMP_SUFFIX, fileNumber, level, partSize, bloomExpected, objectMapper);
+    }
+
+    private static SsTable open(String filePath, String openPath, long fileNumber, int level, Long partSize, int bloomExpected, ObjectMapper objectMapper) {
         SsTable ssTable = new SsTable();
 
         try {
-            ssTable.tableFile = new RandomAccessFile(filePath, "rw");
+            ssTable.tableFile = new RandomAccessFile(openPath, "rw");
             ssTable.tableFile.seek(0);
         } catch (Exception e) {
             log.error("创建ssTable文件失败", e);
             throw new EngineException("创建ssTable文件失败");
         }
 
+        ssTable.filePath = filePath;
+        ssTable.openPath = openPath;
+        ssTable.fileNumber = fileNumber;
+        ssTable.level = level;
         ssTable.objectMapper = objectMapper;
-        ssTable.sparseIndex = new TreeMap<>();
+        ssTable.bloomExpected = bloomExpected;
         ssTable.tableMetaData = new TableMetaData();
         ssTable.tableMetaData.setPartSize(partSize);
         return ssTable;
@@ -63,62 +158,126 @@ public class SsTable implements Closeable {
         return tableMetaData.getTotal();
     }
 
-    TreeMap<String, TableData> load() {
-        TreeMap<String, TableData> data = new TreeMap<>();
+    long getFileNumber() {
+        return fileNumber;
+    }
 
-        try {
-            for (Map.Entry<String, Position> stringPositionEntry : sparseIndex.entrySet()) {
-                Position value = stringPositionEntry.getValue();
+    int getLevel() {
+        return level;
+    }
 
-                long start = value.getStart();
-                long len = value.getLen();
+    String getSmallestKey() {
+        return smallestKey;
+    }
 
-                byte[] indexBytes = new byte[(int) len];
-                tableFile.seek(start);
-                tableFile.read(indexBytes);
+    String getLargestKey() {
+        return largestKey;
+    }
 
-                String dataStr = new String(indexBytes, StandardCharsets.UTF_8);
-                data.putAll(objectMapper.readValue(dataStr, new TypeReference<TreeMap<String, TableData>>() {
-                }));
-            }
+    /**
+     * 文件大小
+     *
+     * @return
+     */
+    long size() {
+        return fileSize;
+    }
 
-            return data;
-        } catch (Exception e) {
-            log.error("读取ssTable数据失败", e);
-            throw new EngineException("读取ssTable数据失败");
+    /**
+     * 是否和指定key区间有交集，区间边界为null表示不限
+     *
+     * @param smallest
+     * @param largest
+     * @return
+     */
+    boolean overlaps(String smallest, String largest) {
+        if (smallestKey == null || largestKey == null) {
+            return true;
         }
+
+        return (largest == null || smallestKey.compareTo(largest) <= 0) && (smallest == null || largestKey.compareTo(smallest) >= 0);
+    }
+
+    boolean hasBloomFilter() {
+        return bloomFilter != null;
     }
 
-    void write(TreeMap<String, TableData> data) {
-        Map<String, TableData> part = Maps.newHashMap();
+    /**
+     * 布隆过滤器判断key是否可能存在，没有布隆过滤器的旧版本文件都认为可能存在
+     *
+     * @param key
+     * @return
+     */
+    boolean mightContain(String key) {
+        return bloomFilter == null || bloomFilter.mightContain(key);
+    }
+
+    void write(SortedMap<String, TableData> data) {
+        this.write(data.values().iterator(), data.size(), Long.MAX_VALUE);
+    }
+
+    /**
+     * 流式写入有序数据，数据区超过指定大小时在分区边界处停止，剩余数据留在迭代器中由下一个文件继续写入
+     *
+     * @param data        按key有序且不重复
+     * @param expected    预计写入数量，用于布隆过滤器容量
+     * @param maxDataSize 数据区最大字节数
+     */
+    void write(Iterator<TableData> data, int expected, long maxDataSize) {
+        BlockBuilder blockBuilder = new BlockBuilder();
+        SparseIndex.Builder indexBuilder = new SparseIndex.Builder();
+        BloomFilter<CharSequence> bloom = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), Math.max(expected, bloomExpected), BLOOM_FPP);
 
         try {
-            for (Map.Entry<String, TableData> entry : data.entrySet()) {
-                String key = entry.getKey();
-                TableData value = entry.getValue();
+            tableMetaData.setVersion(TableMetaData.CURRENT_VERSION);
+            tableMetaData.setDataStart(tableFile.getFilePointer());
 
-                part.put(key, value);
+            long total = 0;
+            while (data.hasNext()) {
+                if (blockBuilder.isEmpty() && tableFile.getFilePointer() - tableMetaData.getDataStart() >= maxDataSize) {
+                    break;
+                }
+
+                TableData value = data.next();
+                blockBuilder.add(value);
+                bloom.put(value.getKey());
+                total++;
 
                 //达到分段数量，开始写入数据段
-                if (part.size() >= tableMetaData.getPartSize()) {
-                    writeDataPart(part);
+                if (blockBuilder.count() >= tableMetaData.getPartSize()) {
+                    writeDataPart(blockBuilder, indexBuilder);
                 }
             }
             //遍历完之后如果有剩余的数据（尾部数据不一定达到分段条件）写入文件
-            if (MapUtil.isNotEmpty(part)) {
-                writeDataPart(part);
+            if (!blockBuilder.isEmpty()) {
+                writeDataPart(blockBuilder, indexBuilder);
             }
 
             long dataPartLen = tableFile.getFilePointer() - tableMetaData.getDataStart();
             tableMetaData.setDataLen(dataPartLen);
             //保存稀疏索引
-            byte[] indexBytes = objectMapper.writeValueAsString(sparseIndex).getBytes(StandardCharsets.UTF_8);
+            byte[] indexBytes = this.writeSparseIndex(indexBuilder);
             tableMetaData.setIndexStart(tableFile.getFilePointer());
             tableFile.write(indexBytes);
-            tableMetaData.setTotal(data.size());
+            tableMetaData.setTotal(total);
             tableMetaData.setIndexLen(indexBytes.length);
+            //保存布隆过滤器
+            ByteArrayOutputStream bloomBytes = new ByteArrayOutputStream();
+            bloom.writeTo(bloomBytes);
+            tableMetaData.setBloomStart(tableFile.getFilePointer());
+            tableMetaData.setBloomLen(bloomBytes.size());
+            tableFile.write(bloomBytes.toByteArray());
+            this.bloomFilter = bloom;
             //保存文件索引
             tableMetaData.writeToFile(tableFile);
+            //写入的数据落盘后再改为正式文件名，之后才能删除对应的WAL或合并的输入文件
+            tableFile.getChannel().force(true);
+            Files.move(Paths.get(openPath), Paths.get(filePath), StandardCopyOption.ATOMIC_MOVE);
+            this.openPath = filePath;
+            //写入完成后文件不再变化，打开读取
+            this.reader = this.openReader();
+            this.fileSize = tableFile.length();
+            this.initKeyRange();
         } catch (Exception e) {
             log.error("写入ssTable数据失败", e);
             throw new EngineException("写入ssTable数据失败");
@@ -127,72 +286,135 @@ public class SsTable implements Closeable {
 
     TableData query(String key) {
         try {
-            LinkedList<Position> sparseKeyPositionList = new LinkedList<>();
-
-            Position lastSmallPosition = null;
-            Position firstBigPosition = null;
-            //从稀疏索引中找到最后一个小于key的位置，以及第一个大于key的位置
-            for (String k : sparseIndex.keySet()) {
-                if (k.compareTo(key) <= 0) {
-                    lastSmallPosition = sparseIndex.get(k);
-                } else {
-                    firstBigPosition = sparseIndex.get(k);
-                    break;
+            SparseIndex index = sparseIndex;
+            int i = index.floor(key);
+            //两级索引先在顶层索引中定位叶子索引块
+            if (twoLevelIndex) {
+                if (!index.inRange(i, key)) {
+                    return null;
                 }
-            }
 
-            if (lastSmallPosition != null) {
-                sparseKeyPositionList.add(lastSmallPosition);
+                index = this.readLeafIndex(index.position(i));
+                i = index.floor(key);
             }
+            //旧版本JSON格式记录的不一定是分区最小的key，目标key可能位于后一个分区
+            if (tableMetaData.isLegacy()) {
+                for (int j = Math.max(i, 0); j <= i + 1 && j < index.size(); j++) {
+                    TableData tableData = this.readLegacyPart(index.position(j)).get(key);
+                    if (tableData != null) {
+                        return tableData;
+                    }
+                }
 
-            if (firstBigPosition != null) {
-                sparseKeyPositionList.add(firstBigPosition);
+                return null;
             }
-
-            if (CollUtil.isEmpty(sparseKeyPositionList)) {
+            //目标key位于两个分区之间的空隙时不需要读取
+            if (!index.inRange(i, key)) {
                 return null;
             }
 
-            Position firstKeyPosition = sparseKeyPositionList.getFirst();
-            Position lastKeyPosition = sparseKeyPositionList.getLast();
+            return this.readBlock(index.position(i)).get(key);
+        } catch (Exception e) {
+            log.error("获取ssTable数据失败", e);
+            throw new EngineException("获取ssTable数据失败");
+        }
+    }
 
-            long start = firstKeyPosition.getStart();
-            long len = firstKeyPosition.equals(lastKeyPosition) ? firstKeyPosition.getLen() : lastKeyPosition.getStart() + lastKeyPosition.getLen() - start;
-            //key如果存在必定位于区间内，所以只需要读取区间内的数据，减少io
-            byte[] dataPart = new byte[(int) len];
+    /**
+     * 按key顺序逐个分区读取全部数据，不经过数据块缓存，用于合并时顺序扫描
+     *
+     * @return
+     */
+    Iterator<TableData> iterator() {
+        return this.iterator(null);
+    }
+
+    /**
+     * 从指定key开始按key顺序逐个分区读取，跳过起始key所在分区之前的分区
+     *
+     * @param fromKey 包含，null表示从头开始
+     * @return
+     */
+    Iterator<TableData> iterator(String fromKey) {
+        Iterator<Position> positions = this.partPositions(fromKey).iterator();
 
-            tableFile.seek(start);
-            tableFile.read(dataPart);
+        return new AbstractIterator<TableData>() {
 
-            int pStart = 0;
-            //读取分区数据
-            for (Position position : sparseKeyPositionList) {
-                JsonNode jsonNode = objectMapper.readTree(new String(dataPart, pStart, (int) position.getLen()));
+            private Iterator<TableData> current = Collections.emptyIterator();
 
-                if (jsonNode.has(key)) {
-                    JsonNode js = jsonNode.get(key);
+            @Override
+            protected TableData computeNext() {
+                while (!current.hasNext()) {
+                    if (!positions.hasNext()) {
+                        return endOfData();
+                    }
 
-                    if (js != null) {
-                        return objectMapper.convertValue(js, TableData.class);
+                    current = readPartData(positions.next());
+                    if (fromKey != null) {
+                        current = Iterators.filter(current, tableData -> tableData.getKey().compareTo(fromKey) >= 0);
                     }
                 }
 
-                pStart += (int) position.getLen();
+                return current.next();
             }
-
-            return null;
-        } catch (Exception e) {
-            log.error("获取ssTable数据失败", e);
-            throw new EngineException("获取ssTable数据失败");
-        }
+        };
     }
 
-
     @Override
     public void close() throws IOException {
+        //先清除缓存中引用映射区域的数据块，再释放映射
+        BlockCache.getInstance().invalidate(filePath);
+        if (reader != null) {
+            reader.close();
+        }
         tableFile.close();
     }
 
+    /**
+     * 增加引用，文件已经释放时返回false
+     *
+     * @return
+     */
+    boolean retain() {
+        while (true) {
+            int current = refs.get();
+            if (current <= 0) {
+                return false;
+            }
+
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时关闭文件，已经被替换的同时删除文件
+     */
+    void release() {
+        if (refs.decrementAndGet() != 0) {
+            return;
+        }
+
+        try {
+            this.close();
+        } catch (IOException e) {
+            log.error("关闭ssTable失败", e);
+        }
+
+        if (obsolete && !FileUtil.del(openPath)) {
+            log.error("删除ssTable文件失败:{}", openPath);
+        }
+    }
+
+    /**
+     * 释放文件集合持有的引用并删除文件，正在进行的范围扫描结束后才真正删除
+     */
+    void delete() {
+        this.obsolete = true;
+        this.release();
+    }
+
     /**
      * 从文件中恢复ssTable到内存
      */
@@ -203,35 +425,248 @@ public class SsTable implements Closeable {
             //读取稀疏索引
             byte[] indexBytes = new byte[(int) tableMetaData.getIndexLen()];
             tableFile.seek(tableMetaData.getIndexStart());
-            tableFile.read(indexBytes);
-            String indexStr = new String(indexBytes, StandardCharsets.UTF_8);
+            tableFile.readFully(indexBytes);
+
+            if (tableMetaData.isLegacy()) {
+                String indexStr = new String(indexBytes, StandardCharsets.UTF_8);
+
+                this.sparseIndex = SparseIndex.fromLegacy(objectMapper.readValue(indexStr,
+                        new TypeReference<TreeMap<String, Position>>() {
+                        }));
+            } else if (tableMetaData.hasFencePointers()) {
+                ByteBuffer buffer = ByteBuffer.wrap(indexBytes);
+                this.twoLevelIndex = buffer.get() == TWO_LEVEL_INDEX;
+                this.sparseIndex = SparseIndex.decode(buffer, true);
+            } else {
+                this.sparseIndex = SparseIndex.decode(ByteBuffer.wrap(indexBytes), false);
+            }
+            //读取布隆过滤器
+            if (tableMetaData.hasBloomFilter()) {
+                byte[] bloomBytes = new byte[(int) tableMetaData.getBloomLen()];
+                tableFile.seek(tableMetaData.getBloomStart());
+                tableFile.readFully(bloomBytes);
 
-            this.sparseIndex = objectMapper.readValue(indexStr,
-                    new TypeReference<TreeMap<String, Position>>() {
-                    });
+                this.bloomFilter = BloomFilter.readFrom(new ByteArrayInputStream(bloomBytes), Funnels.stringFunnel(StandardCharsets.UTF_8));
+            }
 
             this.tableMetaData = tableMetaData;
+            this.reader = this.openReader();
+            this.fileSize = tableFile.length();
+            this.initKeyRange();
         } catch (Exception e) {
             log.error("恢复ssTable失败", e);
             throw new EngineException("恢复ssTable失败");
         }
     }
 
+    /**
+     * 读取数据分区
+     *
+     * @param position
+     * @return
+     * @throws IOException
+     */
+    private ByteBuffer readPart(Position position) throws IOException {
+        return reader.read(position.getStart(), (int) position.getLen());
+    }
+
+    /**
+     * 按照配置的读取方式打开文件
+     *
+     * @return
+     * @throws IOException
+     */
+    private TableReader openReader() throws IOException {
+        return READ_MODE == ReadModeEnum.MMAP ? new MappedTableReader(tableFile.getChannel()) : new FileTableReader(tableFile.getChannel());
+    }
+
+    /**
+     * 从缓存中获取二进制数据块
+     *
+     * @param position
+     * @return
+     */
+    private Block readBlock(Position position) {
+        return BlockCache.getInstance().get(filePath, position.getStart(), (int) position.getLen(), () -> new Block(this.readPart(position)));
+    }
+
+    /**
+     * 从缓存中获取旧版本JSON格式分区，按解码后的对象估算占用，而不是JSON的字节数
+     *
+     * @param position
+     * @return
+     */
+    private Map<String, TableData> readLegacyPart(Position position) {
+        return BlockCache.getInstance().get(filePath, position.getStart(), SsTable::legacyPartWeight, () -> objectMapper.readValue(StandardCharsets.UTF_8.decode(this.readPart(position)).toString(), new TypeReference<TreeMap<String, TableData>>() {
+        }));
+    }
+
+    /**
+     * 估算旧版本分区解码后占用的堆内存：每条数据的对象开销加上key（map和TableData各一份）和value的字符数
+     *
+     * @param part
+     * @return
+     */
+    static int legacyPartWeight(Map<String, TableData> part) {
+        long weight = 0;
+        for (Map.Entry<String, TableData> entry : part.entrySet()) {
+            TableData tableData = entry.getValue();
+            weight += LEGACY_ENTRY_OVERHEAD + 2L * entry.getKey().length();
+            if (tableData != null) {
+                weight += 2L * (tableData.getKey() != null ? tableData.getKey().length() : 0);
+                weight += 2L * (tableData.getValue() != null ? tableData.getValue().length() : 0);
+            }
+        }
+
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 从缓存中获取叶子索引块
+     *
+     * @param position
+     * @return
+     */
+    private SparseIndex readLeafIndex(Position position) {
+        return BlockCache.getInstance().get(filePath, position.getStart(), (int) position.getLen(), () -> SparseIndex.decode(this.readPart(position), true));
+    }
+
+    /**
+     * 读取单个分区的全部数据
+     *
+     * @param position
+     * @return
+     */
+    private Iterator<TableData> readPartData(Position position) {
+        try {
+            ByteBuffer partBuffer = this.readPart(position);
+            //旧版本JSON格式
+            if (tableMetaData.isLegacy()) {
+                TreeMap<String, TableData> part = objectMapper.readValue(StandardCharsets.UTF_8.decode(partBuffer).toString(), new TypeReference<TreeMap<String, TableData>>() {
+                });
+                return part.values().iterator();
+            }
+
+            return new Block(partBuffer).iterator();
+        } catch (Exception e) {
+            log.error("读取ssTable数据失败", e);
+            throw new EngineException("读取ssTable数据失败");
+        }
+    }
+
+    /**
+     * 从稀疏索引中获取最小和最大key，只有记录了分区边界的文件才能确定
+     */
+    private void initKeyRange() {
+        if (!tableMetaData.hasFencePointers() || sparseIndex.size() == 0) {
+            return;
+        }
+
+        this.smallestKey = sparseIndex.firstKey(0);
+        this.largestKey = sparseIndex.lastKey(sparseIndex.size() - 1);
+    }
+
+    /**
+     * 按顺序获取可能包含起始key及之后数据的分区位置
+     *
+     * @param fromKey null表示全部分区
+     * @return
+     */
+    private List<Position> partPositions(String fromKey) {
+        List<Position> positions = Lists.newArrayList();
+
+        for (int i = this.firstPart(sparseIndex, fromKey); i < sparseIndex.size(); i++) {
+            if (!twoLevelIndex) {
+                positions.add(sparseIndex.position(i));
+                continue;
+            }
+
+            SparseIndex leaf = this.readLeafIndex(sparseIndex.position(i));
+            for (int j = positions.isEmpty() ? this.firstPart(leaf, fromKey) : 0; j < leaf.size(); j++) {
+                positions.add(leaf.position(j));
+            }
+        }
+
+        return positions;
+    }
+
+    /**
+     * 起始key所在的分区，旧版本JSON格式记录的不一定是分区最小的key，从前一个分区开始
+     *
+     * @param index
+     * @param fromKey
+     * @return
+     */
+    private int firstPart(SparseIndex index, String fromKey) {
+        if (fromKey == null) {
+            return 0;
+        }
+
+        int i = index.floor(fromKey);
+        if (tableMetaData.isLegacy()) {
+            i--;
+        }
+        return Math.max(i, 0);
+    }
+
     /**
      * 将数据分区写入文件
      *
-     * @param partData
+     * @param blockBuilder
+     * @param indexBuilder
      * @throws IOException
      */
-    private void writeDataPart(Map<String, TableData> partData) throws IOException {
-        byte[] partDataBytes = objectMapper.writeValueAsString(partData).getBytes(StandardCharsets.UTF_8);
+    private void writeDataPart(BlockBuilder blockBuilder, SparseIndex.Builder indexBuilder) throws IOException {
+        String firstKey = blockBuilder.getFirstKey();
+        String lastKey = blockBuilder.getLastKey();
+        byte[] partDataBytes = blockBuilder.finish();
         long start = tableFile.getFilePointer();
         tableFile.write(partDataBytes);
 
-        //记录数据段的第一个key到稀疏索引中
-        Optional<String> firstKey = partData.keySet().stream().findFirst();
-        firstKey.ifPresent(s -> sparseIndex.put(s, new Position(start, partDataBytes.length)));
-        partData.clear();
+        //记录数据段的第一个和最后一个key到稀疏索引中
+        indexBuilder.add(firstKey, lastKey, start, partDataBytes.length);
+        blockBuilder.reset();
+    }
+
+    /**
+     * 写入稀疏索引，格式：索引类型|索引项
+     * <p>
+     * 分区数量超过配置的阈值时，索引项按阈值切分成叶子索引块写在顶层索引之前，顶层索引只记录叶子索引块的位置，
+     * 打开文件时只加载顶层索引
+     *
+     * @param indexBuilder
+     * @return 顶层索引
+     * @throws IOException
+     */
+    private byte[] writeSparseIndex(SparseIndex.Builder indexBuilder) throws IOException {
+        int size = indexBuilder.size();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        if (INDEX_PARTITION_SIZE <= 0 || size <= INDEX_PARTITION_SIZE) {
+            byte[] flat = indexBuilder.encode(0, size);
+            out.write(FLAT_INDEX);
+            out.write(flat, 0, flat.length);
+            this.twoLevelIndex = false;
+            this.sparseIndex = indexBuilder.build();
+            return out.toByteArray();
+        }
+
+        SparseIndex.Builder topBuilder = new SparseIndex.Builder();
+        for (int from = 0; from < size; from += INDEX_PARTITION_SIZE) {
+            int to = Math.min(from + INDEX_PARTITION_SIZE, size);
+
+            byte[] leaf = indexBuilder.encode(from, to);
+            long start = tableFile.getFilePointer();
+            tableFile.write(leaf);
+            topBuilder.add(indexBuilder.getFirstKey(from), indexBuilder.getLastKey(to - 1), start, leaf.length);
+        }
+
+        byte[] top = topBuilder.encode(0, topBuilder.size());
+        out.write(TWO_LEVEL_INDEX);
+        out.write(top, 0, top.length);
+        this.twoLevelIndex = true;
+        this.sparseIndex = topBuilder.build();
+        return out.toByteArray();
     }
 
     @Data
@@ -241,6 +676,10 @@ public class SsTable implements Closeable {
 
         private long len;
 
+        public Position() {
+
+        }
+
         public Position(long start, long len) {
             this.start = start;
             this.len = len;
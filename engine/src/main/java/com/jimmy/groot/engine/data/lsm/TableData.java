@@ -1,5 +1,6 @@
 package com.jimmy.groot.engine.data.lsm;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.jimmy.groot.engine.enums.TableDataTypeEnum;
 import lombok.Data;
 
@@ -14,6 +15,12 @@ public class TableData implements Serializable {
 
     private TableDataTypeEnum tableDataType;
 
+    /**
+     * 写入顺序，随记录写入WAL，只在内存表中用于判断同一个key写入的先后，不写入ssTable
+     */
+    @JsonIgnore
+    private transient long sequence;
+
     public TableData(String key, String value, TableDataTypeEnum tableDataType) {
         this.key = key;
         this.value = value;
@@ -0,0 +1,202 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 分层的ssTable集合，创建后不可变，刷盘和合并时生成新的实例整体替换
+ * <p>
+ * L0由内存表直接刷盘生成，文件之间key区间可能重叠，按从新到旧排列；L1及以上每层文件按key区间排序且互不重叠，
+ * 查询时每层最多只需要读取一个文件
+ */
+class TableLevels {
+
+    static final int MAX_LEVEL = 7;
+
+    private static final Comparator<SsTable> NEWEST_FIRST = Comparator.comparingLong(SsTable::getFileNumber).reversed();
+
+    private static final Comparator<SsTable> BY_SMALLEST_KEY = Comparator.comparing(SsTable::getSmallestKey);
+
+    private final List<List<SsTable>> levels;
+
+    private TableLevels(List<List<SsTable>> levels) {
+        this.levels = levels;
+    }
+
+    static TableLevels empty() {
+        List<List<SsTable>> levels = Lists.newArrayListWithCapacity(MAX_LEVEL);
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            levels.add(Collections.emptyList());
+        }
+        return new TableLevels(levels);
+    }
+
+    /**
+     * 按文件记录的层级恢复
+     *
+     * @param ssTables
+     * @return
+     */
+    static TableLevels restore(Collection<SsTable> ssTables) {
+        List<List<SsTable>> levels = Lists.newArrayListWithCapacity(MAX_LEVEL);
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            levels.add(Lists.newArrayList());
+        }
+
+        for (SsTable ssTable : ssTables) {
+            levels.get(ssTable.getLevel()).add(ssTable);
+        }
+
+        return new TableLevels(sort(levels));
+    }
+
+    List<SsTable> level(int level) {
+        return levels.get(level);
+    }
+
+    /**
+     * 层级中文件总大小
+     *
+     * @param level
+     * @return
+     */
+    long levelSize(int level) {
+        long size = 0;
+        for (SsTable ssTable : levels.get(level)) {
+            size += ssTable.size();
+        }
+        return size;
+    }
+
+    /**
+     * 按从新到旧的顺序返回所有文件
+     *
+     * @return
+     */
+    List<SsTable> all() {
+        List<SsTable> all = Lists.newArrayList();
+        for (List<SsTable> level : levels) {
+            all.addAll(level);
+        }
+        return all;
+    }
+
+    /**
+     * 二分查找L1及以上层级中key区间包含目标key的文件
+     *
+     * @param level
+     * @param key
+     * @return 不存在返回null
+     */
+    SsTable find(int level, String key) {
+        List<SsTable> tables = levels.get(level);
+
+        int left = 0;
+        int right = tables.size() - 1;
+        while (left <= right) {
+            int mid = (left + right) >>> 1;
+            SsTable ssTable = tables.get(mid);
+            if (ssTable.getLargestKey().compareTo(key) < 0) {
+                left = mid + 1;
+            } else if (ssTable.getSmallestKey().compareTo(key) > 0) {
+                right = mid - 1;
+            } else {
+                return ssTable;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 层级中和指定key区间有交集的文件
+     *
+     * @param level
+     * @param smallest
+     * @param largest
+     * @return
+     */
+    List<SsTable> overlapping(int level, String smallest, String largest) {
+        List<SsTable> result = Lists.newArrayList();
+        for (SsTable ssTable : levels.get(level)) {
+            if (ssTable.overlaps(smallest, largest)) {
+                result.add(ssTable);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 指定层级之后是否还有文件，没有时合并可以丢弃删除标记
+     *
+     * @param level
+     * @return
+     */
+    boolean isBottom(int level) {
+        for (int i = level + 1; i < MAX_LEVEL; i++) {
+            if (!levels.get(i).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 新增刷盘生成的L0文件
+     *
+     * @param ssTable
+     * @return
+     */
+    TableLevels addL0(SsTable ssTable) {
+        List<List<SsTable>> copy = this.copy();
+        copy.get(0).add(ssTable);
+        return new TableLevels(sort(copy));
+    }
+
+    /**
+     * 合并完成后移除输入文件，加入输出文件
+     *
+     * @param inputs
+     * @param outputs
+     * @return
+     */
+    TableLevels replace(Collection<SsTable> inputs, Collection<SsTable> outputs) {
+        Set<SsTable> removed = Sets.newIdentityHashSet();
+        removed.addAll(inputs);
+
+        List<List<SsTable>> copy = this.copy();
+        for (List<SsTable> level : copy) {
+            level.removeIf(removed::contains);
+        }
+
+        for (SsTable output : outputs) {
+            copy.get(output.getLevel()).add(output);
+        }
+
+        return new TableLevels(sort(copy));
+    }
+
+    private List<List<SsTable>> copy() {
+        List<List<SsTable>> copy = Lists.newArrayListWithCapacity(MAX_LEVEL);
+        for (List<SsTable> level : levels) {
+            copy.add(Lists.newArrayList(level));
+        }
+        return copy;
+    }
+
+    private static List<List<SsTable>> sort(List<List<SsTable>> levels) {
+        List<List<SsTable>> sorted = Lists.newArrayListWithCapacity(MAX_LEVEL);
+        for (int i = 0; i < levels.size(); i++) {
+            List<SsTable> level = levels.get(i);
+            level.sort(i == 0 ? NEWEST_FIRST : BY_SMALLEST_KEY);
+            sorted.add(Collections.unmodifiableList(level));
+        }
+        return sorted;
+    }
+}
@@ -3,9 +3,45 @@ package com.jimmy.groot.engine.data.lsm;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 public class TableMetaData implements Serializable {
 
+    /**
+     * 旧版本JSON格式ssTable的版本号
+     */
+    static final long LEGACY_VERSION = 0L;
+
+    /**
+     * 二进制块格式ssTable的版本号
+     */
+    static final long BLOCK_VERSION = 1L;
+
+    /**
+     * 带布隆过滤器的二进制格式ssTable的版本号
+     */
+    static final long BLOOM_VERSION = 2L;
+
+    /**
+     * 稀疏索引带分区边界key、支持两级索引的版本号
+     */
+    static final long FENCE_VERSION = 3L;
+
+    /**
+     * 当前写入的版本号
+     */
+    static final long CURRENT_VERSION = FENCE_VERSION;
+
+    /**
+     * 二进制格式文件尾部的魔数，旧版本文件尾部为版本号0，以此区分新旧格式
+     */
+    static final long MAGIC = 0x67726F6F74535354L;
+
+    /**
+     * 文件尾最后两个字段：版本号和魔数
+     */
+    private static final int FOOTER_TAIL_SIZE = 8 * 2;
+
     private long version;
 
     private long dataStart;
@@ -16,6 +52,10 @@ public class TableMetaData implements Serializable {
 
     private long indexLen;
 
+    private long bloomStart;
+
+    private long bloomLen;
+
     private long partSize;
 
     private long total;
@@ -72,6 +112,22 @@ public class TableMetaData implements Serializable {
         this.indexLen = indexLen;
     }
 
+    long getBloomStart() {
+        return bloomStart;
+    }
+
+    void setBloomStart(long bloomStart) {
+        this.bloomStart = bloomStart;
+    }
+
+    long getBloomLen() {
+        return bloomLen;
+    }
+
+    void setBloomLen(long bloomLen) {
+        this.bloomLen = bloomLen;
+    }
+
     long getPartSize() {
         return partSize;
     }
@@ -80,23 +136,91 @@ public class TableMetaData implements Serializable {
         this.partSize = partSize;
     }
 
+    boolean isLegacy() {
+        return version == LEGACY_VERSION;
+    }
+
+    boolean hasBloomFilter() {
+        return version >= BLOOM_VERSION && bloomLen > 0;
+    }
+
+    boolean hasFencePointers() {
+        return version >= FENCE_VERSION;
+    }
+
     void writeToFile(RandomAccessFile file) throws IOException {
-        file.writeLong(total);
-        file.writeLong(partSize);
-        file.writeLong(dataStart);
-        file.writeLong(dataLen);
-        file.writeLong(indexStart);
-        file.writeLong(indexLen);
-        file.writeLong(version);
+        ByteBuffer footer = ByteBuffer.allocate(footerSize(version));
+        footer.putLong(total);
+        footer.putLong(partSize);
+        footer.putLong(dataStart);
+        footer.putLong(dataLen);
+        footer.putLong(indexStart);
+        footer.putLong(indexLen);
+        if (version >= BLOOM_VERSION) {
+            footer.putLong(bloomStart);
+            footer.putLong(bloomLen);
+        }
+        footer.putLong(version);
+        footer.putLong(MAGIC);
+        file.write(footer.array());
     }
 
     /**
-     * 从文件中读取元信息，按照写入的顺序倒着读取出来
+     * 从文件中读取元信息，尾部为魔数的是二进制格式，否则按照旧版本格式读取
      *
      * @param file
      * @return
      */
     static TableMetaData readFromFile(RandomAccessFile file) throws IOException {
+        long fileLen = file.length();
+        if (fileLen >= FOOTER_TAIL_SIZE) {
+            file.seek(fileLen - FOOTER_TAIL_SIZE);
+            long version = file.readLong();
+            long magic = file.readLong();
+
+            if (magic == MAGIC) {
+                int footerSize = footerSize(version);
+                byte[] bytes = new byte[footerSize];
+                file.seek(fileLen - footerSize);
+                file.readFully(bytes);
+
+                ByteBuffer footer = ByteBuffer.wrap(bytes);
+                TableMetaData tableMetaInfo = new TableMetaData();
+                tableMetaInfo.setTotal(footer.getLong());
+                tableMetaInfo.setPartSize(footer.getLong());
+                tableMetaInfo.setDataStart(footer.getLong());
+                tableMetaInfo.setDataLen(footer.getLong());
+                tableMetaInfo.setIndexStart(footer.getLong());
+                tableMetaInfo.setIndexLen(footer.getLong());
+                if (version >= BLOOM_VERSION) {
+                    tableMetaInfo.setBloomStart(footer.getLong());
+                    tableMetaInfo.setBloomLen(footer.getLong());
+                }
+                tableMetaInfo.setVersion(version);
+                return tableMetaInfo;
+            }
+        }
+
+        return readLegacyFromFile(file);
+    }
+
+    /**
+     * 文件尾大小，不同版本字段数量不同
+     *
+     * @param version
+     * @return
+     */
+    private static int footerSize(long version) {
+        return version >= BLOOM_VERSION ? 8 * 10 : 8 * 8;
+    }
+
+    /**
+     * 读取旧版本元信息，按照写入的顺序倒着读取出来
+     *
+     * @param file
+     * @return
+     */
+    private static TableMetaData readLegacyFromFile(RandomAccessFile file) throws IOException {
         TableMetaData tableMetaInfo = new TableMetaData();
         long fileLen = file.length();
 
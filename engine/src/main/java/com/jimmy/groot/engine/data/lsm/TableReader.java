@@ -0,0 +1,21 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * ssTable文件读取，文件写入完成后不再变化
+ */
+interface TableReader extends Closeable {
+
+    /**
+     * 读取指定区间的数据，返回的buffer位置为0，长度为len
+     *
+     * @param position
+     * @param len
+     * @return
+     * @throws IOException
+     */
+    ByteBuffer read(long position, int len) throws IOException;
+}
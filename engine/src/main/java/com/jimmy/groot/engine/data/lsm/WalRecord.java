@@ -0,0 +1,150 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.jimmy.groot.engine.enums.TableDataTypeEnum;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * WAL二进制记录格式
+ * <p>
+ * 文件头：魔数（4字节），旧版本JSON格式的WAL没有文件头
+ * <p>
+ * 记录：校验和（4字节，CRC32C，覆盖长度之后的内容）|内容长度（变长）|内容
+ * <p>
+ * 内容：记录类型（1字节）|起始序列号（变长）|数量（变长）|（数据类型（1字节）|key|value长度+1（变长，0表示null）|value）*，
+ * 一条记录中的多个key共用一次写入，序列号依次递增
+ */
+final class WalRecord {
+
+    static final int MAGIC = 0x57414C32;
+
+    static final int HEADER_SIZE = 4;
+
+    private static final byte BATCH = 1;
+
+    private static final HashFunction CRC32C = Hashing.crc32c();
+
+    private WalRecord() {
+
+    }
+
+    static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * 是否为二进制格式
+     *
+     * @param buffer 文件全部内容
+     * @return
+     */
+    static boolean isBinary(ByteBuffer buffer) {
+        return buffer.remaining() >= HEADER_SIZE && buffer.getInt(buffer.position()) == MAGIC;
+    }
+
+    /**
+     * 编码一条记录
+     *
+     * @param sequence 第一条数据的序列号
+     * @param entries
+     * @return
+     */
+    static ByteBuffer encode(long sequence, List<TableData> entries) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(BATCH);
+        Coding.writeVarLong(content, sequence);
+        Coding.writeVarInt(content, entries.size());
+
+        for (TableData entry : entries) {
+            content.write(entry.getTableDataType().ordinal());
+            Coding.writeString(content, entry.getKey());
+
+            String value = entry.getValue();
+            if (value == null) {
+                Coding.writeVarInt(content, 0);
+                continue;
+            }
+
+            byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+            Coding.writeVarInt(content, valueBytes.length + 1);
+            content.write(valueBytes, 0, valueBytes.length);
+        }
+
+        byte[] contentBytes = content.toByteArray();
+        ByteArrayOutputStream length = new ByteArrayOutputStream(5);
+        Coding.writeVarInt(length, contentBytes.length);
+
+        ByteBuffer record = ByteBuffer.allocate(4 + length.size() + contentBytes.length);
+        record.putInt(CRC32C.hashBytes(contentBytes).asInt());
+        record.put(length.toByteArray());
+        record.put(contentBytes);
+        record.flip();
+        return record;
+    }
+
+    /**
+     * 解码文件头之后的所有记录，遇到不完整或校验失败的记录时停止
+     * <p>
+     * 记录按偏移量顺序写入，只恢复最长的有效前缀，崩溃后末尾未写完的记录或全为0的填充都在此处截断
+     *
+     * @param buffer   从文件头之后开始
+     * @param consumer
+     * @return 最后一条有效记录结束的位置
+     */
+    static int decode(ByteBuffer buffer, Consumer<TableData> consumer) {
+        int end = buffer.position();
+
+        try {
+            while (buffer.hasRemaining()) {
+                int checksum = buffer.getInt();
+                int length = Coding.readVarInt(buffer);
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+
+                ByteBuffer content = buffer.slice();
+                content.limit(length);
+                if (CRC32C.hashBytes(content.duplicate()).asInt() != checksum) {
+                    break;
+                }
+
+                decodeContent(content, consumer);
+                buffer.position(buffer.position() + length);
+                end = buffer.position();
+            }
+        } catch (BufferUnderflowException | IllegalStateException e) {
+            //末尾不完整的记录
+        }
+
+        return end;
+    }
+
+    private static void decodeContent(ByteBuffer content, Consumer<TableData> consumer) {
+        if (content.get() != BATCH) {
+            throw new IllegalStateException("WAL记录类型错误");
+        }
+
+        long sequence = Coding.readVarLong(content);
+        int count = Coding.readVarInt(content);
+        for (int i = 0; i < count; i++) {
+            TableDataTypeEnum tableDataType = TableDataTypeEnum.values()[content.get()];
+            String key = Coding.readString(content);
+            int valueLen = Coding.readVarInt(content);
+            String value = valueLen == 0 ? null : Coding.readString(content, valueLen - 1);
+
+            TableData tableData = new TableData(key, value, tableDataType);
+            tableData.setSequence(sequence + i);
+            consumer.accept(tableData);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.jimmy.groot.engine.core.DestroyHook;
+import com.jimmy.groot.engine.enums.WalSyncModeEnum;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 组提交WAL写入
+ * <p>
+ * 并发写入的记录先进入队列，队首的写入线程作为组长把队列中所有记录合并成一次顺序写入，
+ * 再唤醒同一批的其他写入线程，组长写入期间新到达的记录组成下一批，多个写入分摊一次系统调用和刷盘的开销。
+ * 记录总是按偏移量顺序写入，文件中不会出现空洞
+ * <p>
+ * 各持久化方式只有刷盘不同：SYNC由组长写入后刷盘，INTERVAL由后台线程按固定间隔刷盘，NONE只写入操作系统缓存
+ */
+@Slf4j
+class WalWriter implements Closeable {
+
+    private static final String RW_MODE = "rw";
+
+    /**
+     * 单批最大字节数，避免组长一次写入过多数据
+     */
+    private static final long MAX_BATCH_BYTES = 1024 * 1024;
+
+    private static final WalSyncModeEnum SYNC_MODE = LsmConfig.getWalSyncMode();
+
+    private final File file;
+
+    private final RandomAccessFile raf;
+
+    private final FileChannel channel;
+
+    private final LsmStatistics statistics;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final ArrayDeque<Request> queue = new ArrayDeque<>();
+
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    /**
+     * 下一条记录的偏移量
+     */
+    private final AtomicLong writeOffset;
+
+    WalWriter(File file, LsmStatistics statistics) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, RW_MODE);
+        this.channel = raf.getChannel();
+        this.statistics = statistics;
+        //新建的WAL先写入文件头
+        if (channel.size() == 0) {
+            ByteBuffer header = WalRecord.header();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+        this.writeOffset = new AtomicLong(channel.size());
+
+        if (SYNC_MODE == WalSyncModeEnum.INTERVAL) {
+            IntervalSyncer.WRITERS.add(this);
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * 恢复时WAL末尾不完整的记录被丢弃，后续写入从有效数据之后开始
+     *
+     * @param offset
+     */
+    void resetOffset(long offset) {
+        writeOffset.set(offset);
+    }
+
+    /**
+     * 写入一条记录，返回时记录已按配置的持久化方式写入
+     *
+     * @param record
+     * @return 记录在WAL中的偏移量
+     * @throws IOException
+     */
+    long append(ByteBuffer record) throws IOException {
+        long start = System.nanoTime();
+        Request request = new Request(record, lock.newCondition());
+        List<Request> batch = new ArrayList<>();
+
+        lock.lock();
+        try {
+            queue.addLast(request);
+            while (!request.done && queue.peekFirst() != request) {
+                request.condition.awaitUninterruptibly();
+            }
+            //已经由其他组长写入
+            if (request.done) {
+                statistics.recordWalLatency((System.nanoTime() - start) / 1000);
+                return request.result();
+            }
+            //成为组长，带上队列中所有等待的记录
+            long bytes = 0;
+            for (Request waiting : queue) {
+                if (!batch.isEmpty() && bytes + waiting.record.remaining() > MAX_BATCH_BYTES) {
+                    break;
+                }
+
+                batch.add(waiting);
+                bytes += waiting.record.remaining();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        IOException error = null;
+        try {
+            this.writeBatch(batch);
+        } catch (IOException e) {
+            error = e;
+        }
+
+        lock.lock();
+        try {
+            for (Request done : batch) {
+                queue.pollFirst();
+                done.error = error;
+                done.done = true;
+                done.condition.signal();
+            }
+            //唤醒下一批的组长
+            Request next = queue.peekFirst();
+            if (next != null) {
+                next.condition.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        statistics.recordWalBatch(batch.size());
+        statistics.recordWalLatency((System.nanoTime() - start) / 1000);
+        return request.result();
+    }
+
+    /**
+     * 按间隔刷盘
+     */
+    void syncIfDirty() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            //已经关闭，关闭时会刷盘
+        } catch (IOException e) {
+            log.error("WAL刷盘失败:{}", file.getPath(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (SYNC_MODE == WalSyncModeEnum.INTERVAL) {
+            IntervalSyncer.WRITERS.remove(this);
+        }
+
+        lock.lock();
+        try {
+            if (SYNC_MODE != WalSyncModeEnum.NONE && channel.isOpen()) {
+                channel.force(false);
+            }
+            raf.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 组长写入一批记录，按持久化方式刷盘，同一时间只有一个组长，不需要加锁
+     *
+     * @param batch
+     * @throws IOException
+     */
+    private void writeBatch(List<Request> batch) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        long offset = writeOffset.get();
+        long total = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Request request = batch.get(i);
+            request.offset = offset + total;
+            total += request.record.remaining();
+            buffers[i] = request.record;
+        }
+
+        if (buffers.length == 1) {
+            //只有一条记录时按位置写入，省去一次定位
+            long position = offset;
+            while (buffers[0].hasRemaining()) {
+                position += channel.write(buffers[0], position);
+            }
+        } else {
+            channel.position(offset);
+            long written = 0;
+            while (written < total) {
+                written += channel.write(buffers);
+            }
+        }
+        writeOffset.set(offset + total);
+
+        if (SYNC_MODE == WalSyncModeEnum.SYNC) {
+            channel.force(false);
+        } else if (SYNC_MODE == WalSyncModeEnum.INTERVAL) {
+            dirty.set(true);
+        }
+    }
+
+    private static class Request {
+
+        private final ByteBuffer record;
+
+        private final Condition condition;
+
+        private boolean done;
+
+        private long offset;
+
+        private IOException error;
+
+        Request(ByteBuffer record, Condition condition) {
+            this.record = record;
+            this.condition = condition;
+        }
+
+        long result() throws IOException {
+            if (error != null) {
+                throw error;
+            }
+            return offset;
+        }
+    }
+
+    /**
+     * 按间隔刷盘的后台线程，只有配置为INTERVAL时才会启动
+     */
+    private static class IntervalSyncer {
+
+        private static final Set<WalWriter> WRITERS = ConcurrentHashMap.newKeySet();
+
+        static {
+            long interval = LsmConfig.getWalSyncInterval();
+            ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "lsm-wal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executorService.scheduleWithFixedDelay(() -> WRITERS.forEach(WalWriter::syncIfDirty), interval, interval, TimeUnit.MILLISECONDS);
+            DestroyHook.registerHook(() -> {
+                executorService.shutdown();
+                WRITERS.forEach(WalWriter::syncIfDirty);
+            });
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.jimmy.groot.engine.enums.TableDataTypeEnum;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量写入，一批数据作为一条WAL记录写入，要么全部恢复要么全部丢弃
+ * <p>
+ * 同一批中重复的key以后加入的为准
+ */
+public class WriteBatch {
+
+    private final List<TableData> entries = new ArrayList<>();
+
+    public WriteBatch set(String key, String value) {
+        entries.add(new TableData(key, value, TableDataTypeEnum.SET));
+        return this;
+    }
+
+    public WriteBatch remove(String key) {
+        entries.add(new TableData(key, null, TableDataTypeEnum.REMOVE));
+        return this;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    List<TableData> getEntries() {
+        return entries;
+    }
+}
@@ -0,0 +1,319 @@
+package com.jimmy.groot.engine.data.memory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.jimmy.groot.platform.base.Serializer;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 二进制行格式
+ * <p>
+ * 字段数量（2字节）|标记（1字节）|空值位图|类型（每个字段1字节）|定长槽位（每个字段8字节）|溢出槽位（8字节，有表结构之外的字段时才有）|变长区
+ * <p>
+ * 数值、布尔、日期直接放在槽位中，字符串等变长数据在槽位中记录相对行开头的偏移量（4字节）和长度（4字节），
+ * 读取一个字段只需要按编号定位，不需要解析整行。表结构之外的字段合并后用序列化方式放在溢出槽位
+ */
+final class BinaryRowCodec {
+
+    private static final int HEADER_SIZE = 3;
+
+    private static final int SLOT_SIZE = 8;
+
+    private static final byte FLAG_OVERFLOW = 1;
+
+    private static final byte BYTE = 1;
+
+    private static final byte SHORT = 2;
+
+    private static final byte INT = 3;
+
+    private static final byte LONG = 4;
+
+    private static final byte FLOAT = 5;
+
+    private static final byte DOUBLE = 6;
+
+    private static final byte BOOLEAN = 7;
+
+    private static final byte DATE = 8;
+
+    private static final byte STRING = 9;
+
+    private static final byte DECIMAL = 10;
+
+    private static final byte BYTES = 11;
+
+    /**
+     * 其他类型用序列化方式编码
+     */
+    private static final byte OTHER = 12;
+
+    private static final String OTHER_KEY = "v";
+
+    private BinaryRowCodec() {
+
+    }
+
+    static byte[] encode(RowSchema schema, Map<String, Object> data, Serializer serializer) {
+        int count = schema.size();
+        byte[] tags = new byte[count];
+        long[] slots = new long[count];
+        byte[][] vars = new byte[count][];
+
+        for (int i = 0; i < count; i++) {
+            Object value = data.get(schema.name(i));
+            if (value != null) {
+                tags[i] = encodeValue(value, i, slots, vars, serializer);
+            }
+        }
+        //表结构之外的字段
+        Map<String, Object> overflow = null;
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            if (schema.ordinal(entry.getKey()) == null) {
+                if (overflow == null) {
+                    overflow = new HashMap<>();
+                }
+                overflow.put(entry.getKey(), entry.getValue());
+            }
+        }
+        byte[] overflowBytes = overflow == null ? null : serializer.serialize(overflow);
+
+        int bitmapOffset = HEADER_SIZE;
+        int tagOffset = bitmapOffset + bitmapSize(count);
+        int slotOffset = tagOffset + count;
+        int varOffset = slotOffset + count * SLOT_SIZE + (overflowBytes == null ? 0 : SLOT_SIZE);
+
+        int size = varOffset;
+        for (byte[] var : vars) {
+            size += var == null ? 0 : var.length;
+        }
+        size += overflowBytes == null ? 0 : overflowBytes.length;
+
+        ByteBuffer row = ByteBuffer.allocate(size);
+        row.putShort(0, (short) count);
+        row.put(2, overflowBytes == null ? 0 : FLAG_OVERFLOW);
+
+        int position = varOffset;
+        for (int i = 0; i < count; i++) {
+            if (tags[i] == 0) {
+                row.put(bitmapOffset + (i >>> 3), (byte) (row.get(bitmapOffset + (i >>> 3)) | (1 << (i & 7))));
+                continue;
+            }
+
+            row.put(tagOffset + i, tags[i]);
+            if (vars[i] == null) {
+                row.putLong(slotOffset + i * SLOT_SIZE, slots[i]);
+                continue;
+            }
+
+            position = putVar(row, slotOffset + i * SLOT_SIZE, position, vars[i]);
+        }
+
+        if (overflowBytes != null) {
+            putVar(row, slotOffset + count * SLOT_SIZE, position, overflowBytes);
+        }
+        return row.array();
+    }
+
+    /**
+     * 解码整行，空值不放入结果
+     *
+     * @param schema
+     * @param row        从position开始
+     * @param serializer
+     * @return
+     */
+    static Map<String, Object> decode(RowSchema schema, ByteBuffer row, Serializer serializer) {
+        int count = Math.min(row.getShort(row.position()) & 0xFFFF, schema.size());
+        Map<String, Object> data = Maps.newHashMapWithExpectedSize(count);
+        for (int i = 0; i < count; i++) {
+            Object value = read(row, i, serializer);
+            if (value != null) {
+                data.put(schema.name(i), value);
+            }
+        }
+
+        Map<String, Object> overflow = readOverflow(row, serializer);
+        if (overflow != null) {
+            data.putAll(overflow);
+        }
+        return data;
+    }
+
+    /**
+     * 只解码指定的字段
+     *
+     * @param schema
+     * @param row
+     * @param names
+     * @param serializer
+     * @return
+     */
+    static Map<String, Object> decode(RowSchema schema, ByteBuffer row, Collection<String> names, Serializer serializer) {
+        Map<String, Object> data = Maps.newHashMapWithExpectedSize(names.size());
+        List<String> others = null;
+        for (String name : names) {
+            Integer ordinal = schema.ordinal(name);
+            if (ordinal == null) {
+                if (others == null) {
+                    others = Lists.newArrayList();
+                }
+                others.add(name);
+                continue;
+            }
+
+            Object value = read(row, ordinal, serializer);
+            if (value != null) {
+                data.put(name, value);
+            }
+        }
+
+        if (others != null) {
+            Map<String, Object> overflow = readOverflow(row, serializer);
+            if (overflow != null) {
+                for (String other : others) {
+                    if (overflow.containsKey(other)) {
+                        data.put(other, overflow.get(other));
+                    }
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 读取一个字段
+     *
+     * @param row        从position开始
+     * @param ordinal
+     * @param serializer
+     * @return 空值或者行中没有这个字段返回null
+     */
+    static Object read(ByteBuffer row, int ordinal, Serializer serializer) {
+        int base = row.position();
+        int count = row.getShort(base) & 0xFFFF;
+        if (ordinal >= count) {
+            return null;
+        }
+
+        int bitmapOffset = base + HEADER_SIZE;
+        if ((row.get(bitmapOffset + (ordinal >>> 3)) & (1 << (ordinal & 7))) != 0) {
+            return null;
+        }
+
+        int tagOffset = bitmapOffset + bitmapSize(count);
+        int slot = tagOffset + count + ordinal * SLOT_SIZE;
+        byte tag = row.get(tagOffset + ordinal);
+        switch (tag) {
+            case BYTE:
+                return (byte) row.getLong(slot);
+            case SHORT:
+                return (short) row.getLong(slot);
+            case INT:
+                return (int) row.getLong(slot);
+            case LONG:
+                return row.getLong(slot);
+            case FLOAT:
+                return (float) Double.longBitsToDouble(row.getLong(slot));
+            case DOUBLE:
+                return Double.longBitsToDouble(row.getLong(slot));
+            case BOOLEAN:
+                return row.getLong(slot) != 0;
+            case DATE:
+                return new Date(row.getLong(slot));
+            case STRING:
+                return new String(getVar(row, base, slot), StandardCharsets.UTF_8);
+            case DECIMAL:
+                return new BigDecimal(new String(getVar(row, base, slot), StandardCharsets.UTF_8));
+            case BYTES:
+                return getVar(row, base, slot);
+            case OTHER:
+                return serializer.deserialize(getVar(row, base, slot), HashMap.class).get(OTHER_KEY);
+            default:
+                throw new IllegalStateException("字段类型错误:" + tag);
+        }
+    }
+
+    private static byte encodeValue(Object value, int i, long[] slots, byte[][] vars, Serializer serializer) {
+        Class<?> clazz = value.getClass();
+        if (clazz == String.class) {
+            vars[i] = ((String) value).getBytes(StandardCharsets.UTF_8);
+            return STRING;
+        }
+
+        if (clazz == Integer.class || clazz == Long.class || clazz == Short.class || clazz == Byte.class) {
+            slots[i] = ((Number) value).longValue();
+            return clazz == Integer.class ? INT : clazz == Long.class ? LONG : clazz == Short.class ? SHORT : BYTE;
+        }
+
+        if (clazz == Double.class || clazz == Float.class) {
+            slots[i] = Double.doubleToRawLongBits(((Number) value).doubleValue());
+            return clazz == Double.class ? DOUBLE : FLOAT;
+        }
+
+        if (clazz == Boolean.class) {
+            slots[i] = (Boolean) value ? 1 : 0;
+            return BOOLEAN;
+        }
+
+        if (clazz == Date.class) {
+            slots[i] = ((Date) value).getTime();
+            return DATE;
+        }
+
+        if (clazz == BigDecimal.class) {
+            vars[i] = value.toString().getBytes(StandardCharsets.UTF_8);
+            return DECIMAL;
+        }
+
+        if (clazz == byte[].class) {
+            vars[i] = (byte[]) value;
+            return BYTES;
+        }
+
+        Map<String, Object> wrapper = new HashMap<>(2);
+        wrapper.put(OTHER_KEY, value);
+        vars[i] = serializer.serialize(wrapper);
+        return OTHER;
+    }
+
+    private static Map<String, Object> readOverflow(ByteBuffer row, Serializer serializer) {
+        int base = row.position();
+        if ((row.get(base + 2) & FLAG_OVERFLOW) == 0) {
+            return null;
+        }
+
+        int count = row.getShort(base) & 0xFFFF;
+        int slot = base + HEADER_SIZE + bitmapSize(count) + count + count * SLOT_SIZE;
+        return serializer.deserialize(getVar(row, base, slot), HashMap.class);
+    }
+
+    private static int putVar(ByteBuffer row, int slot, int position, byte[] var) {
+        row.putInt(slot, position);
+        row.putInt(slot + 4, var.length);
+        ByteBuffer target = row.duplicate();
+        target.position(position);
+        target.put(var);
+        return position + var.length;
+    }
+
+    private static byte[] getVar(ByteBuffer row, int base, int slot) {
+        ByteBuffer source = row.duplicate();
+        source.position(base + row.getInt(slot));
+        byte[] bytes = new byte[row.getInt(slot + 4)];
+        source.get(bytes);
+        return bytes;
+    }
+
+    private static int bitmapSize(int count) {
+        return (count + 7) >>> 3;
+    }
+}
@@ -0,0 +1,44 @@
+package com.jimmy.groot.engine.data.memory;
+
+import com.google.common.collect.Maps;
+import com.jimmy.groot.sql.enums.ConditionEnum;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 列式存储批量过滤的单个字段条件，只在一次查询中使用
+ */
+@AllArgsConstructor
+public class ColumnCondition {
+
+    @Getter
+    private String name;
+
+    @Getter
+    private ConditionEnum conditionEnum;
+
+    /**
+     * 按字段类型转换后的比较值
+     */
+    @Getter
+    private Object operand;
+
+    /**
+     * 单个字段值是否满足条件，和查询表达式的判断结果一致，基本类型数组不支持的条件和字典中的值用它判断
+     */
+    @Getter
+    private Predicate<Object> predicate;
+
+    /**
+     * 字典中每个值的判断结果，同一次查询的多个块共用
+     */
+    private final Map<ColumnVector, boolean[]> matchedCodes = Maps.newConcurrentMap();
+
+    boolean[] matchedCodes(ColumnVector vector, Supplier<boolean[]> supplier) {
+        return matchedCodes.computeIfAbsent(vector, key -> supplier.get());
+    }
+}
@@ -0,0 +1,293 @@
+package com.jimmy.groot.engine.data.memory;
+
+import com.google.common.collect.Maps;
+import com.jimmy.groot.engine.metadata.Column;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+/**
+ * 分区的列式存储，每个字段一个列向量，行按行号定位，删除后的行号回收复用
+ * <p>
+ * 过滤时按块批量计算选择向量，只有被选中的行才需要组装成行数据再用查询表达式判断。
+ * 写入加锁，读取和过滤不加锁
+ * <p>
+ * 写入和释放行时重新估算占用的堆内字节数，变化登记到内存池的全局预算并通知所属的表，分区溢写后不再登记
+ */
+public class ColumnStore {
+
+    private final RowSchema schema;
+
+    private final ColumnVector[] vectors;
+
+    /**
+     * 表结构之外的字段
+     */
+    private final Map<Integer, Map<String, Object>> overflows = Maps.newConcurrentMap();
+
+    /**
+     * 已使用的最大行号
+     */
+    private int rows;
+
+    /**
+     * 写入序号，过滤开始之后写入的行不在选择向量的范围内
+     */
+    private long sequence;
+
+    private int[] freeRows = new int[16];
+
+    private int freeCount;
+
+    /**
+     * 估算的堆内字节数，包括列向量和表结构之外的字段
+     */
+    private volatile long bytes;
+
+    /**
+     * 表结构之外的字段占用的字节数
+     */
+    private long overflowBytes;
+
+    /**
+     * 占用字节数变化的通知
+     */
+    private final LongConsumer listener;
+
+    private boolean detached;
+
+    public ColumnStore(List<Column> columns) {
+        this(columns, delta -> {
+        });
+    }
+
+    /**
+     * @param columns
+     * @param listener 占用字节数变化时通知，参数为变化量
+     */
+    public ColumnStore(List<Column> columns, LongConsumer listener) {
+        this.listener = listener;
+        this.schema = new RowSchema(columns);
+        this.vectors = new ColumnVector[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            vectors[i] = ColumnVector.build(columns.get(i).getColumnType());
+        }
+    }
+
+    /**
+     * 按条件过滤所有行，外层条件之间为或，内层条件之间为且，不在表结构中的字段不过滤
+     *
+     * @param conditions
+     * @return
+     */
+    public Selection select(List<List<ColumnCondition>> conditions) {
+        int rowCount;
+        long maxSequence;
+        synchronized (this) {
+            rowCount = rows;
+            maxSequence = sequence;
+        }
+
+        long[] bits = new long[(rowCount + 63) >>> 6];
+        long[] chunkSelection = new long[ColumnVector.BITMAP_WORDS];
+        long[] all = new long[ColumnVector.BITMAP_WORDS];
+        for (int chunk = 0; chunk << ColumnVector.CHUNK_SHIFT < rowCount; chunk++) {
+            int chunkRows = Math.min(ColumnVector.CHUNK_SIZE, rowCount - (chunk << ColumnVector.CHUNK_SHIFT));
+            Arrays.fill(all, 0L);
+            for (int i = 0; i < chunkRows; i++) {
+                all[i >>> 6] |= 1L << i;
+            }
+
+            int offset = chunk * ColumnVector.BITMAP_WORDS;
+            for (List<ColumnCondition> and : conditions) {
+                System.arraycopy(all, 0, chunkSelection, 0, ColumnVector.BITMAP_WORDS);
+                for (ColumnCondition condition : and) {
+                    Integer ordinal = schema.ordinal(condition.getName());
+                    if (ordinal != null) {
+                        vectors[ordinal].filter(chunk, chunkRows, condition, chunkSelection);
+                    }
+                }
+
+                for (int i = 0; i < ColumnVector.BITMAP_WORDS && offset + i < bits.length; i++) {
+                    bits[offset + i] |= chunkSelection[i];
+                }
+            }
+        }
+        return new Selection(bits, rowCount, maxSequence);
+    }
+
+    /**
+     * 写入一行，分配的行号和写入序号记录到数据片段中
+     *
+     * @param fragment
+     * @param data
+     */
+    synchronized void append(MemoryFragment fragment, Map<String, Object> data) {
+        int row = freeCount > 0 ? freeRows[--freeCount] : rows++;
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i].set(row, data.get(schema.name(i)));
+        }
+
+        Map<String, Object> overflow = null;
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            if (schema.ordinal(entry.getKey()) == null) {
+                if (overflow == null) {
+                    overflow = Maps.newHashMap();
+                }
+                overflow.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (overflow != null) {
+            overflows.put(row, overflow);
+            overflowBytes += sizeOf(overflow);
+        }
+
+        fragment.columnRow = row;
+        fragment.columnSequence = ++sequence;
+        this.charge();
+    }
+
+    /**
+     * 估算的堆内字节数
+     *
+     * @return
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * 分区溢写后从内存池的全局预算中移除占用的字节数，之后的变化不再登记和通知，表自己的统计由溢写方扣除
+     */
+    synchronized void detach() {
+        if (detached) {
+            return;
+        }
+
+        detached = true;
+        MemoryPool.getInstance().addHeapBytes(-bytes);
+    }
+
+    /**
+     * 读取一行，空值不放入结果
+     *
+     * @param row
+     * @param columnNames 为空时读取所有字段
+     * @return
+     */
+    Map<String, Object> read(int row, Collection<String> columnNames) {
+        Map<String, Object> overflow = overflows.isEmpty() ? null : overflows.get(row);
+        if (columnNames == null) {
+            Map<String, Object> data = Maps.newHashMapWithExpectedSize(vectors.length);
+            for (int i = 0; i < vectors.length; i++) {
+                Object value = vectors[i].get(row);
+                if (value != null) {
+                    data.put(schema.name(i), value);
+                }
+            }
+
+            if (overflow != null) {
+                data.putAll(overflow);
+            }
+            return data;
+        }
+
+        Map<String, Object> data = Maps.newHashMapWithExpectedSize(columnNames.size());
+        for (String columnName : columnNames) {
+            Integer ordinal = schema.ordinal(columnName);
+            Object value = ordinal != null ? vectors[ordinal].get(row) : overflow != null ? overflow.get(columnName) : null;
+            if (value != null) {
+                data.put(columnName, value);
+            } else if (ordinal == null && overflow != null && overflow.containsKey(columnName)) {
+                data.put(columnName, null);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 释放行，行号之后分配给新写入的行
+     *
+     * @param row
+     */
+    synchronized void free(int row) {
+        for (ColumnVector vector : vectors) {
+            vector.clear(row);
+        }
+
+        Map<String, Object> overflow = overflows.remove(row);
+        if (overflow != null) {
+            overflowBytes -= sizeOf(overflow);
+        }
+
+        if (freeCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, freeRows.length * 2);
+        }
+        freeRows[freeCount++] = row;
+        this.charge();
+    }
+
+    /**
+     * 重新汇总占用的字节数，登记变化量
+     */
+    private void charge() {
+        long total = overflowBytes;
+        for (ColumnVector vector : vectors) {
+            total += vector.bytes();
+        }
+
+        long delta = total - bytes;
+        this.bytes = total;
+        if (delta == 0 || detached) {
+            return;
+        }
+
+        MemoryPool.getInstance().addHeapBytes(delta);
+        listener.accept(delta);
+    }
+
+    /**
+     * 表结构之外的字段占用字节数的估算值
+     *
+     * @param overflow
+     * @return
+     */
+    private static long sizeOf(Map<String, Object> overflow) {
+        long size = ColumnVector.ENTRY_BYTES * 2L;
+        for (Map.Entry<String, Object> entry : overflow.entrySet()) {
+            size += ColumnVector.ENTRY_BYTES + ColumnVector.sizeOf(entry.getKey()) + ColumnVector.sizeOf(entry.getValue());
+        }
+        return size;
+    }
+
+    /**
+     * 过滤结果，过滤开始之后写入的行和没有写入列式存储的行都视为选中，由查询表达式判断
+     */
+    public static class Selection {
+
+        private final long[] bits;
+
+        private final int rows;
+
+        private final long sequence;
+
+        private Selection(long[] bits, int rows, long sequence) {
+            this.bits = bits;
+            this.rows = rows;
+            this.sequence = sequence;
+        }
+
+        public boolean isSelected(MemoryFragment fragment) {
+            int row = fragment.columnRow;
+            if (row < 0 || row >= rows || fragment.columnSequence > sequence) {
+                return true;
+            }
+
+            return (bits[row >>> 6] & (1L << row)) != 0;
+        }
+    }
+}
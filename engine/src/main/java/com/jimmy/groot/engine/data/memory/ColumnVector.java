@@ -0,0 +1,566 @@
+package com.jimmy.groot.engine.data.memory;
+
+import com.google.common.collect.Maps;
+import com.jimmy.groot.sql.enums.ColumnTypeEnum;
+import com.jimmy.groot.sql.enums.ConditionEnum;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * 一个字段的列式数据，按固定行数分块，每块一个基本类型数组和一个空值位图
+ * <p>
+ * 整数保存为long，浮点数保存为double，读取时按第一个写入值的类型还原；其他类型按字典编码保存为int。
+ * 数值字段中和第一个写入值类型不同的值原样单独保存，批量过滤时总是保留，由查询表达式判断。
+ * 写入由所属的列式存储加锁，读取不需要加锁
+ * <p>
+ * 写入时估算占用的堆内字节数，包括按块分配的数组、字典中的值和类型不一致的值
+ */
+abstract class ColumnVector {
+
+    static final int CHUNK_SHIFT = 12;
+
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    static final int BITMAP_WORDS = CHUNK_SIZE >>> 6;
+
+    /**
+     * 哈希表中一项的估算字节数，包括节点和装箱的键
+     */
+    static final int ENTRY_BYTES = 48;
+
+    /**
+     * 数组对象头的字节数
+     */
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private volatile long[][] nulls = new long[0][];
+
+    /**
+     * 和字段类型不一致的值
+     */
+    private final Map<Integer, Object> boxed = Maps.newConcurrentMap();
+
+    /**
+     * 估算的堆内字节数
+     */
+    private long bytes;
+
+    static ColumnVector build(ColumnTypeEnum columnType) {
+        if (columnType == null) {
+            return new DictionaryVector();
+        }
+
+        switch (columnType) {
+            case TINYINT:
+            case SMALLINT:
+            case MEDIUMINT:
+            case INT:
+            case INTEGER:
+            case BIGINT:
+            case YEAR:
+                return new LongVector();
+            case FLOAT:
+            case DOUBLE:
+            case REAL:
+                return new DoubleVector();
+            default:
+                return new DictionaryVector();
+        }
+    }
+
+    void set(int row, Object value) {
+        int chunk = row >>> CHUNK_SHIFT;
+        if (chunk >= nulls.length) {
+            this.grow(chunk + 1);
+        }
+
+        long[] nullBits = nulls[chunk];
+        long bit = 1L << (row & 63);
+        int word = (row & CHUNK_MASK) >>> 6;
+        Object old = boxed.remove(row);
+        if (old != null) {
+            this.charge(-ENTRY_BYTES - sizeOf(old));
+        }
+
+        if (value == null) {
+            nullBits[word] |= bit;
+            return;
+        }
+
+        nullBits[word] &= ~bit;
+        if (!this.setValue(chunk, row & CHUNK_MASK, value)) {
+            boxed.put(row, value);
+            this.charge(ENTRY_BYTES + sizeOf(value));
+        }
+    }
+
+    Object get(int row) {
+        if (this.isNull(row)) {
+            return null;
+        }
+
+        Object value = boxed.isEmpty() ? null : boxed.get(row);
+        return value != null ? value : this.getValue(row >>> CHUNK_SHIFT, row & CHUNK_MASK);
+    }
+
+    /**
+     * 清除释放的行
+     *
+     * @param row
+     */
+    void clear(int row) {
+        if (!this.isNull(row) && !boxed.containsKey(row)) {
+            this.clearValue(row >>> CHUNK_SHIFT, row & CHUNK_MASK);
+        }
+        this.set(row, null);
+    }
+
+    /**
+     * 估算的堆内字节数
+     *
+     * @return
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    void charge(long delta) {
+        bytes += delta;
+    }
+
+    boolean isNull(int row) {
+        return (nulls[row >>> CHUNK_SHIFT][(row & CHUNK_MASK) >>> 6] & (1L << (row & 63))) != 0;
+    }
+
+    /**
+     * 在一块数据上按条件过滤，不满足条件的行从选择向量中清除，不能确定的行保留
+     *
+     * @param chunk
+     * @param rows      块中的行数
+     * @param condition
+     * @param selection 块的选择向量，每行一位
+     */
+    void filter(int chunk, int rows, ColumnCondition condition, long[] selection) {
+        long[] nullBits = nulls[chunk];
+        switch (condition.getConditionEnum()) {
+            case NULL:
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    selection[i] &= nullBits[i];
+                }
+                return;
+            case NOT_NULL:
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    selection[i] &= ~nullBits[i];
+                }
+                return;
+            default:
+                break;
+        }
+
+        long[] before = selection.clone();
+        if (!this.filterValues(chunk, rows, condition, selection)) {
+            //逐行判断
+            int base = chunk << CHUNK_SHIFT;
+            for (int i = 0; i < rows; i++) {
+                if ((selection[i >>> 6] & (1L << i)) != 0 && !condition.getPredicate().test(this.get(base + i))) {
+                    selection[i >>> 6] &= ~(1L << i);
+                }
+            }
+            return;
+        }
+        //空值和类型不一致的值由查询表达式判断，只恢复过滤前已选中的行
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            selection[i] |= before[i] & nullBits[i];
+        }
+
+        if (boxed.isEmpty()) {
+            return;
+        }
+
+        int base = chunk << CHUNK_SHIFT;
+        for (Integer row : boxed.keySet()) {
+            if (row >>> CHUNK_SHIFT == chunk) {
+                int word = (row - base) >>> 6;
+                selection[word] |= before[word] & (1L << row);
+            }
+        }
+    }
+
+    /**
+     * 按块批量过滤，结果中空值和类型不一致的值所在行可以是任意值
+     *
+     * @param chunk
+     * @param rows
+     * @param condition
+     * @param selection
+     * @return 不支持的条件返回false，改为逐行判断
+     */
+    abstract boolean filterValues(int chunk, int rows, ColumnCondition condition, long[] selection);
+
+    /**
+     * 写入块中的值
+     *
+     * @param chunk
+     * @param offset
+     * @param value
+     * @return 类型不一致返回false
+     */
+    abstract boolean setValue(int chunk, int offset, Object value);
+
+    abstract Object getValue(int chunk, int offset);
+
+    void clearValue(int chunk, int offset) {
+
+    }
+
+    abstract void growValues(int chunks);
+
+    private void grow(int chunks) {
+        long[][] grown = Arrays.copyOf(nulls, chunks);
+        for (int i = nulls.length; i < chunks; i++) {
+            grown[i] = new long[BITMAP_WORDS];
+        }
+        this.charge((long) (chunks - nulls.length) * chunkBytes(BITMAP_WORDS, Long.BYTES));
+        this.growValues(chunks);
+        this.nulls = grown;
+    }
+
+    static long chunkBytes(int length, int elementBytes) {
+        return ARRAY_HEADER_BYTES + (long) length * elementBytes;
+    }
+
+    /**
+     * 值占用的堆内字节数的估算值
+     *
+     * @param value
+     * @return
+     */
+    static long sizeOf(Object value) {
+        if (value == null) {
+            return 0L;
+        }
+
+        if (value instanceof String) {
+            return 40L + 2L * ((String) value).length();
+        }
+
+        if (value instanceof byte[]) {
+            return ARRAY_HEADER_BYTES + ((byte[]) value).length;
+        }
+
+        if (value instanceof Long || value instanceof Double) {
+            return 24L;
+        }
+
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            return 16L;
+        }
+        return 64L;
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    private static boolean isFloating(Object value) {
+        return value instanceof Double || value instanceof Float;
+    }
+
+    /**
+     * 比较结果是否满足条件
+     *
+     * @param conditionEnum
+     * @param compare
+     * @return
+     */
+    private static boolean matches(ConditionEnum conditionEnum, int compare) {
+        switch (conditionEnum) {
+            case EQ:
+                return compare == 0;
+            case NE:
+                return compare != 0;
+            case GT:
+                return compare > 0;
+            case GE:
+                return compare >= 0;
+            case LT:
+                return compare < 0;
+            case LE:
+                return compare <= 0;
+            default:
+                throw new IllegalArgumentException(conditionEnum.name());
+        }
+    }
+
+    private static boolean isComparison(ConditionEnum conditionEnum) {
+        switch (conditionEnum) {
+            case EQ:
+            case NE:
+            case GT:
+            case GE:
+            case LT:
+            case LE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static class LongVector extends ColumnVector {
+
+        private volatile long[][] chunks = new long[0][];
+
+        private volatile Class<?> type;
+
+        @Override
+        boolean setValue(int chunk, int offset, Object value) {
+            if (type == null && isIntegral(value)) {
+                type = value.getClass();
+            }
+
+            if (value.getClass() != type) {
+                return false;
+            }
+
+            chunks[chunk][offset] = ((Number) value).longValue();
+            return true;
+        }
+
+        @Override
+        Object getValue(int chunk, int offset) {
+            long value = chunks[chunk][offset];
+            if (type == Integer.class) {
+                return (int) value;
+            }
+
+            if (type == Short.class) {
+                return (short) value;
+            }
+
+            if (type == Byte.class) {
+                return (byte) value;
+            }
+            return value;
+        }
+
+        @Override
+        void growValues(int count) {
+            long[][] grown = Arrays.copyOf(chunks, count);
+            for (int i = chunks.length; i < count; i++) {
+                grown[i] = new long[CHUNK_SIZE];
+            }
+            this.charge((count - chunks.length) * chunkBytes(CHUNK_SIZE, Long.BYTES));
+            this.chunks = grown;
+        }
+
+        @Override
+        boolean filterValues(int chunk, int rows, ColumnCondition condition, long[] selection) {
+            Object operand = condition.getOperand();
+            if (!isComparison(condition.getConditionEnum()) || !(isIntegral(operand) || isFloating(operand))) {
+                return false;
+            }
+
+            long[] values = chunks[chunk];
+            ConditionEnum conditionEnum = condition.getConditionEnum();
+            if (isIntegral(operand)) {
+                long target = ((Number) operand).longValue();
+                for (int i = 0; i < rows; i++) {
+                    if (!matches(conditionEnum, Long.compare(values[i], target))) {
+                        selection[i >>> 6] &= ~(1L << i);
+                    }
+                }
+                return true;
+            }
+
+            double target = ((Number) operand).doubleValue();
+            for (int i = 0; i < rows; i++) {
+                if (!matches(conditionEnum, Double.compare(values[i], target))) {
+                    selection[i >>> 6] &= ~(1L << i);
+                }
+            }
+            return true;
+        }
+    }
+
+    static class DoubleVector extends ColumnVector {
+
+        private volatile double[][] chunks = new double[0][];
+
+        private volatile Class<?> type;
+
+        @Override
+        boolean setValue(int chunk, int offset, Object value) {
+            if (type == null && isFloating(value)) {
+                type = value.getClass();
+            }
+
+            if (value.getClass() != type) {
+                return false;
+            }
+
+            chunks[chunk][offset] = ((Number) value).doubleValue();
+            return true;
+        }
+
+        @Override
+        Object getValue(int chunk, int offset) {
+            double value = chunks[chunk][offset];
+            return type == Float.class ? (Object) (float) value : (Object) value;
+        }
+
+        @Override
+        void growValues(int count) {
+            double[][] grown = Arrays.copyOf(chunks, count);
+            for (int i = chunks.length; i < count; i++) {
+                grown[i] = new double[CHUNK_SIZE];
+            }
+            this.charge((count - chunks.length) * chunkBytes(CHUNK_SIZE, Double.BYTES));
+            this.chunks = grown;
+        }
+
+        @Override
+        boolean filterValues(int chunk, int rows, ColumnCondition condition, long[] selection) {
+            Object operand = condition.getOperand();
+            if (!isComparison(condition.getConditionEnum()) || !(isIntegral(operand) || isFloating(operand))) {
+                return false;
+            }
+
+            double[] values = chunks[chunk];
+            double target = ((Number) operand).doubleValue();
+            ConditionEnum conditionEnum = condition.getConditionEnum();
+            for (int i = 0; i < rows; i++) {
+                if (!matches(conditionEnum, Double.compare(values[i], target))) {
+                    selection[i >>> 6] &= ~(1L << i);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 字典编码，条件对每个不同的值只判断一次，再按编码过滤
+     * <p>
+     * 没有行引用的值从字典中移除，编码之后分配给新的值，复用编码的行都在过滤开始之后写入，不受影响
+     */
+    static class DictionaryVector extends ColumnVector {
+
+        private volatile int[][] chunks = new int[0][];
+
+        private final Map<Object, Integer> codes = Maps.newConcurrentMap();
+
+        private volatile Object[] values = new Object[16];
+
+        /**
+         * 每个编码被引用的行数
+         */
+        private int[] counts = new int[16];
+
+        private volatile int size;
+
+        private int[] freeCodes = new int[16];
+
+        private int freeCount;
+
+        @Override
+        boolean setValue(int chunk, int offset, Object value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = freeCount > 0 ? freeCodes[--freeCount] : this.nextCode();
+                values[code] = value;
+                codes.put(value, code);
+                this.charge(ENTRY_BYTES + sizeOf(value));
+            }
+
+            counts[code]++;
+            chunks[chunk][offset] = code;
+            return true;
+        }
+
+        @Override
+        void clearValue(int chunk, int offset) {
+            int code = chunks[chunk][offset];
+            if (--counts[code] > 0) {
+                return;
+            }
+
+            codes.remove(values[code]);
+            this.charge(-ENTRY_BYTES - sizeOf(values[code]));
+            values[code] = null;
+            if (freeCount == freeCodes.length) {
+                freeCodes = Arrays.copyOf(freeCodes, freeCodes.length * 2);
+            }
+            freeCodes[freeCount++] = code;
+        }
+
+        private int nextCode() {
+            int code = size;
+            if (code == values.length) {
+                //值数组和引用计数数组各扩容一倍
+                this.charge((long) values.length * (Long.BYTES + Integer.BYTES));
+                values = Arrays.copyOf(values, values.length * 2);
+                counts = Arrays.copyOf(counts, counts.length * 2);
+            }
+            size = code + 1;
+            return code;
+        }
+
+        @Override
+        Object getValue(int chunk, int offset) {
+            return values[chunks[chunk][offset]];
+        }
+
+        @Override
+        void growValues(int count) {
+            int[][] grown = Arrays.copyOf(chunks, count);
+            for (int i = chunks.length; i < count; i++) {
+                grown[i] = new int[CHUNK_SIZE];
+            }
+            this.charge((count - chunks.length) * chunkBytes(CHUNK_SIZE, Integer.BYTES));
+            this.chunks = grown;
+        }
+
+        @Override
+        boolean filterValues(int chunk, int rows, ColumnCondition condition, long[] selection) {
+            int[] rowCodes = chunks[chunk];
+            boolean[] matched = this.matchedCodes(condition);
+            for (int i = 0; i < rows; i++) {
+                int code = rowCodes[i];
+                //查询期间新加入字典的值由查询表达式判断
+                if (code < matched.length && !matched[code]) {
+                    selection[i >>> 6] &= ~(1L << i);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 每个字典值是否满足条件，同一次查询中多个块共用
+         *
+         * @param condition
+         * @return
+         */
+        private boolean[] matchedCodes(ColumnCondition condition) {
+            return condition.matchedCodes(this, () -> {
+                Object[] snapshot = values;
+                int count = Math.min(size, snapshot.length);
+                boolean[] matched = new boolean[count];
+                //字符串相等直接查字典
+                if (condition.getConditionEnum() == ConditionEnum.EQ && condition.getOperand() instanceof String) {
+                    Integer code = codes.get(condition.getOperand());
+                    if (code != null && code < count) {
+                        matched[code] = true;
+                    }
+                    return matched;
+                }
+
+                for (int i = 0; i < count; i++) {
+                    matched[i] = snapshot[i] != null && condition.getPredicate().test(snapshot[i]);
+                }
+                return matched;
+            });
+        }
+    }
+}
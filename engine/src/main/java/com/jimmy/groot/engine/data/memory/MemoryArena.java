@@ -0,0 +1,127 @@
+package com.jimmy.groot.engine.data.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 堆外内存块，按同一个大小切分成多个槽位，一行数据占用一个连续的槽位
+ * <p>
+ * 槽位开头4字节记录数据长度，分配和释放由所属的条带加锁，读取不需要加锁
+ */
+class MemoryArena {
+
+    static final int LENGTH_SIZE = 4;
+
+    private final int id;
+
+    private final int sizeClass;
+
+    private final int stripe;
+
+    private final int slotSize;
+
+    private final int slotCount;
+
+    private final ByteBuffer buffer;
+
+    /**
+     * 还没有分配过的第一个槽位，之后的槽位都是空闲的
+     */
+    private int nextSlot;
+
+    /**
+     * 释放后的空闲槽位栈，按需扩容，不需要预先为所有槽位分配
+     */
+    private int[] freeSlots = new int[16];
+
+    private int freeCount;
+
+    private int used;
+
+    MemoryArena(int id, int sizeClass, int stripe, int slotSize, int slotCount) {
+        this.id = id;
+        this.sizeClass = sizeClass;
+        this.stripe = stripe;
+        this.slotSize = slotSize;
+        this.slotCount = slotCount;
+        this.buffer = ByteBuffer.allocateDirect(slotSize * slotCount);
+    }
+
+    int getId() {
+        return id;
+    }
+
+    int getSizeClass() {
+        return sizeClass;
+    }
+
+    int getStripe() {
+        return stripe;
+    }
+
+    int getSlotSize() {
+        return slotSize;
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * 分配一个槽位
+     *
+     * @return 没有空闲槽位返回-1
+     */
+    int allocate() {
+        if (freeCount > 0) {
+            used++;
+            return freeSlots[--freeCount];
+        }
+
+        if (nextSlot < slotCount) {
+            used++;
+            return nextSlot++;
+        }
+
+        return -1;
+    }
+
+    void free(int slot) {
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, Math.min(freeSlots.length * 2, slotCount));
+        }
+
+        freeSlots[freeCount++] = slot;
+        used--;
+    }
+
+    boolean isFull() {
+        return used == slotCount;
+    }
+
+    boolean isEmpty() {
+        return used == 0;
+    }
+
+    void write(int slot, byte[] bytes) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(slot * slotSize);
+        slice.putInt(bytes.length);
+        slice.put(bytes);
+    }
+
+    /**
+     * 槽位中数据的视图，直接指向堆外内存，不复制
+     *
+     * @param slot
+     * @return
+     */
+    ByteBuffer slice(int slot) {
+        ByteBuffer slice = buffer.duplicate();
+        int offset = slot * slotSize;
+        int length = slice.getInt(offset);
+        slice.limit(offset + LENGTH_SIZE + length);
+        slice.position(offset + LENGTH_SIZE);
+        return slice;
+    }
+}
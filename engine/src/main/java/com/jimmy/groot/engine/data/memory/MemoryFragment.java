@@ -1,16 +1,16 @@
 package com.jimmy.groot.engine.data.memory;
 
-import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.map.MapUtil;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.jimmy.groot.platform.base.Serializer;
 import lombok.Getter;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MemoryFragment implements Serializable {
 
@@ -19,10 +19,39 @@ public class MemoryFragment implements Serializable {
 
     private Serializer serializer;
 
+    /**
+     * 二进制格式的表结构，为空时按序列化方式存储
+     */
+    private RowSchema schema;
+
     @Getter
     private Map<String, Object> key = Maps.newHashMap();
 
-    private List<Integer> memoryIndex = Lists.newArrayList();
+    private long memoryHandle = MemoryPool.NULL_HANDLE;
+
+    /**
+     * 列式存储，为空时数据在内存池中
+     */
+    private ColumnStore columnStore;
+
+    /**
+     * 列式存储中的行号和写入序号，由列式存储写入时分配
+     */
+    int columnRow = -1;
+
+    long columnSequence;
+
+    /**
+     * 占用的字节数，写入时确定；列式存储中的行为0，由列式存储统计
+     */
+    private int size;
+
+    /**
+     * 引用计数，数据片段本身持有一个引用，读取期间各持有一个引用，归零时才释放内存，读取期间内存不会被复用
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private final AtomicBoolean freed = new AtomicBoolean();
 
     private MemoryFragment() {
 
@@ -36,21 +65,133 @@ public class MemoryFragment implements Serializable {
         return memoryFragment;
     }
 
+    public static MemoryFragment build(String code, Serializer serializer, RowSchema schema, Map<String, Object> key) {
+        MemoryFragment memoryFragment = build(code, serializer, key);
+        memoryFragment.schema = schema;
+        return memoryFragment;
+    }
+
+    /**
+     * 按列写入分区的列式存储
+     *
+     * @param store
+     * @param data
+     * @return
+     */
+    public MemoryFragment writeColumns(ColumnStore store, Map<String, Object> data) {
+        if (MapUtil.isNotEmpty(data)) {
+            this.columnStore = store;
+            store.append(this, data);
+        }
+
+        return this;
+    }
+
     public MemoryFragment writeMemory(Map<String, Object> data) {
         if (MapUtil.isNotEmpty(data)) {
-            this.memoryIndex = MemoryPool.getInstance().allocateFromMemory(serializer.serialize(data));
+            this.memoryHandle = schema != null
+                    ? MemoryPool.getInstance().allocate(BinaryRowCodec.encode(schema, data, serializer))
+                    : MemoryPool.getInstance().allocateFromMemory(serializer.serialize(data));
+            this.size = MemoryPool.getInstance().sizeOf(memoryHandle);
         }
 
         return this;
     }
 
+    /**
+     * 读取数据
+     *
+     * @return 已经被覆盖或删除并且释放了内存时返回null
+     */
     public Map<String, Object> getData() {
-        Map<String, Object> data = Maps.newHashMap();
+        return this.readData(null);
+    }
+
+    /**
+     * 只读取指定的字段，二进制格式直接从内存中读取这几个字段，不解析整行
+     *
+     * @param columnNames
+     * @return 已经被覆盖或删除并且释放了内存时返回null
+     */
+    public Map<String, Object> getData(Collection<String> columnNames) {
+        return this.readData(columnNames);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 数据被覆盖或删除时释放自身持有的引用，正在进行的读取结束后才真正释放内存
+     */
+    public void free() {
+        if (freed.compareAndSet(false, true)) {
+            this.release();
+        }
+    }
+
+    /**
+     * 增加引用
+     *
+     * @return 已经释放返回false
+     */
+    private boolean retain() {
+        while (true) {
+            int current = refs.get();
+            if (current <= 0) {
+                return false;
+            }
+
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private Map<String, Object> readData(Collection<String> columnNames) {
+        if (memoryHandle == MemoryPool.NULL_HANDLE && columnStore == null) {
+            return Maps.newHashMap();
+        }
 
-        if (CollUtil.isNotEmpty(memoryIndex)) {
-            data.putAll(serializer.deserialize(MemoryPool.getInstance().get(memoryIndex), HashMap.class));
+        if (!this.retain()) {
+            return null;
         }
 
-        return data;
+        try {
+            if (columnStore != null) {
+                return columnStore.read(columnRow, columnNames);
+            }
+
+            if (schema != null) {
+                return MemoryPool.getInstance().view(memoryHandle, row -> columnNames == null
+                        ? BinaryRowCodec.decode(schema, row, serializer)
+                        : BinaryRowCodec.decode(schema, row, columnNames, serializer));
+            }
+            //反序列化结果就是新的对象，不需要再复制
+            Map<String, Object> data = MemoryPool.getInstance().read(memoryHandle, buffer -> serializer.deserialize(buffer, HashMap.class));
+            if (columnNames == null) {
+                return data;
+            }
+
+            Map<String, Object> select = Maps.newHashMapWithExpectedSize(columnNames.size());
+            for (String columnName : columnNames) {
+                if (data.containsKey(columnName)) {
+                    select.put(columnName, data.get(columnName));
+                }
+            }
+            return select;
+        } finally {
+            this.release();
+        }
+    }
+
+    private void release() {
+        if (refs.decrementAndGet() == 0) {
+            if (columnStore != null) {
+                columnStore.free(columnRow);
+            } else {
+                MemoryPool.getInstance().free(memoryHandle);
+            }
+        }
     }
 }
@@ -1,11 +1,22 @@
 package com.jimmy.groot.engine.data.memory;
 
-import com.google.common.collect.Maps;
+import com.google.common.collect.Collections2;
 import lombok.Getter;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * 内存分区
+ * <p>
+ * 读写期间持有读锁，溢写时尝试获取写锁，正在使用的分区不会被溢写；溢写后分区失效，需要重新加载
+ */
 public class MemoryPartition {
 
     @Getter
@@ -14,15 +25,52 @@ public class MemoryPartition {
     @Getter
     private Map<String, Object> key;
 
-    private Map<String, MemoryFragment> partitions = Maps.newConcurrentMap();
+    /**
+     * 按唯一键排序，游标分页时从上一页最后的唯一键之后继续
+     */
+    private ConcurrentNavigableMap<String, MemoryFragment> partitions = new ConcurrentSkipListMap<>();
+
+    /**
+     * 跳表的size需要遍历，单独计数
+     */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * 占用的字节数，列式存储的字节数由列式存储统计
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * 列式存储，行格式不是列式时为空
+     */
+    @Getter
+    private ColumnStore columnStore;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 时钟淘汰的访问标记
+     */
+    private volatile boolean referenced = true;
+
+    private volatile boolean evicted;
 
     public MemoryPartition(String code, Map<String, Object> key) {
         this.code = code;
         this.key = key;
     }
 
+    public MemoryPartition(String code, Map<String, Object> key, ColumnStore columnStore) {
+        this(code, key);
+        this.columnStore = columnStore;
+    }
+
     public int count() {
-        return partitions.size();
+        return count.get();
+    }
+
+    public long bytes() {
+        return columnStore != null ? columnStore.bytes() : bytes.get();
     }
 
     public MemoryFragment getFragmentByUniqueCode(String uniqueCode) {
@@ -33,12 +81,152 @@ public class MemoryPartition {
         return partitions.values();
     }
 
-    public void save(String code, MemoryFragment memoryFragment) {
-        partitions.put(code, memoryFragment);
+    /**
+     * 唯一键在指定唯一键之后的数据
+     *
+     * @param uniqueCode 为空时返回全部
+     * @return
+     */
+    public Collection<MemoryFragment> getFragmentsAfter(String uniqueCode) {
+        return uniqueCode == null ? partitions.values() : partitions.tailMap(uniqueCode, false).values();
+    }
+
+    /**
+     * 唯一键在指定唯一键之后并且被列式过滤选中的数据
+     *
+     * @param uniqueCode 为空时从头开始
+     * @param selection  为空时不过滤
+     * @return
+     */
+    public Collection<MemoryFragment> getFragmentsAfter(String uniqueCode, ColumnStore.Selection selection) {
+        Collection<MemoryFragment> fragments = this.getFragmentsAfter(uniqueCode);
+        return selection == null ? fragments : Collections2.filter(fragments, selection::isSelected);
+    }
+
+    /**
+     * 按列批量过滤
+     *
+     * @param conditions 外层之间为或，内层之间为且
+     * @return 没有列式存储或者没有条件时返回null
+     */
+    public ColumnStore.Selection select(List<List<ColumnCondition>> conditions) {
+        return columnStore == null || conditions.isEmpty() ? null : columnStore.select(conditions);
+    }
+
+    /**
+     * 保存数据
+     *
+     * @param code
+     * @param memoryFragment
+     * @return 占用字节数的变化
+     */
+    public long save(String code, MemoryFragment memoryFragment) {
+        long delta = memoryFragment.size();
+        MemoryFragment old = partitions.put(code, memoryFragment);
+        if (old != null) {
+            old.free();
+            delta -= old.size();
+        } else {
+            count.incrementAndGet();
+        }
+
+        bytes.addAndGet(delta);
+        return delta;
+    }
+
+    /**
+     * 删除数据
+     *
+     * @param code
+     * @return 释放的字节数
+     */
+    public long remove(String code) {
+        MemoryFragment old = partitions.remove(code);
+        if (old == null) {
+            return 0L;
+        }
+
+        old.free();
+        count.decrementAndGet();
+        bytes.addAndGet(-old.size());
+        return old.size();
+    }
+
+    /**
+     * 开始读写，和{@link #release()}成对使用
+     *
+     * @return 已经溢写返回false，需要重新获取分区
+     */
+    public boolean acquire() {
+        lock.readLock().lock();
+        if (evicted) {
+            lock.readLock().unlock();
+            return false;
+        }
+
+        referenced = true;
+        return true;
+    }
+
+    public void release() {
+        lock.readLock().unlock();
+    }
+
+    /**
+     * 清除访问标记，时钟淘汰时最近访问过的分区跳过一轮
+     *
+     * @return 清除前的标记
+     */
+    public boolean clearReferenced() {
+        boolean old = referenced;
+        referenced = false;
+        return old;
     }
 
-    public void remove(String code) {
-        partitions.remove(code);
+    /**
+     * 尝试开始溢写，没有读写时才能成功，成功后和{@link #finishEvict(boolean)}成对使用
+     *
+     * @return
+     */
+    public boolean tryEvict() {
+        if (!lock.writeLock().tryLock()) {
+            return false;
+        }
+
+        if (evicted) {
+            lock.writeLock().unlock();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 等待进行中的读写结束后释放所有数据，之后分区失效
+     */
+    public void close() {
+        lock.writeLock().lock();
+        this.finishEvict(true);
     }
 
+    /**
+     * 结束溢写
+     *
+     * @param success 成功时释放所有数据，分区失效；失败时分区继续使用
+     */
+    public void finishEvict(boolean success) {
+        try {
+            if (success) {
+                evicted = true;
+                if (columnStore != null) {
+                    columnStore.detach();
+                }
+                partitions.values().forEach(MemoryFragment::free);
+                partitions.clear();
+                count.set(0);
+                bytes.set(0);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 }
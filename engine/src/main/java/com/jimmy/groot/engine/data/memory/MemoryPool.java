@@ -1,28 +1,98 @@
 package com.jimmy.groot.engine.data.memory;
 
-import cn.hutool.core.collection.CollUtil;
-import cn.hutool.core.thread.ThreadUtil;
-import com.google.common.collect.Lists;
+import cn.hutool.core.io.unit.DataSizeUtil;
+import cn.hutool.core.util.StrUtil;
+import com.jimmy.groot.engine.core.ConfigLoad;
 import com.jimmy.groot.engine.exception.EngineException;
-import com.jimmy.groot.platform.other.Assert;
-import com.jimmy.groot.platform.other.IntObjectHashMap;
+import com.jimmy.groot.platform.constant.ConfigConstant;
 import lombok.extern.slf4j.Slf4j;
 import org.xerial.snappy.Snappy;
 
-import java.util.Collection;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 堆外内存池
+ * <p>
+ * 按2的幂划分大小等级，每个等级从若干个堆外内存块中分配固定大小的槽位，压缩后的一行数据放在一个连续的槽位中，
+ * 用一个long类型的句柄定位（高32位为内存块编号，低32位为槽位），不再按32字节切分成多个堆内对象。
+ * 超过内存块大小的数据单独分配一个内存块
+ * <p>
+ * 每个大小等级按线程分成多个条带，各自加锁，不同线程的写入互不竞争；内存块编号表无锁读取和注册。
+ * 内存池不负责读取期间的安全，句柄由{@link MemoryFragment}的引用计数保证没有读取时才释放
+ * <p>
+ * 按槽位大小统计已分配的字节数，加上列式存储登记的堆内字节数，超过配置的全局预算时，开启溢写的内存表把冷分区溢写到磁盘
+ */
 @Slf4j
 public class MemoryPool {
 
-    private final static int DEFAULT_CAPACITY = 32;
+    public static final long NULL_HANDLE = -1L;
+
+    private static final int MIN_SLOT_SIZE = 32;
+
+    private static final int DEFAULT_ARENA_SIZE = 4 * 1024 * 1024;
+
+    private static final int MIN_ARENA_SIZE = 64 * 1024;
+
+    private static final int MAX_ARENA_SIZE = 1 << 30;
+
+    /**
+     * 单独分配内存块的大小等级
+     */
+    private static final int HUGE = -1;
+
+    private static final int MAX_STRIPES = 16;
+
+    /**
+     * 内存块编号表每段的大小
+     */
+    private static final int TABLE_CHUNK_BITS = 10;
+
+    private static final int TABLE_CHUNKS = 1 << 12;
+
+    private static final int MIN_READ_BUFFER_SIZE = 4 * 1024;
+
+    private final int arenaSize;
+
+    private final SizeClass[] sizeClasses;
+
+    private final int stripeMask;
+
+    /**
+     * 内存块编号到内存块，分段按需创建，读取和注册都不需要加锁
+     */
+    private final AtomicReferenceArray<AtomicReferenceArray<MemoryArena>> arenas = new AtomicReferenceArray<>(TABLE_CHUNKS);
+
+    private final Queue<Integer> freeArenaIds = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger nextArenaId = new AtomicInteger();
+
+    /**
+     * 已分配槽位的字节数
+     */
+    private final LongAdder usedBytes = new LongAdder();
 
-    private final AtomicInteger counter = new AtomicInteger(0);
+    /**
+     * 列式存储在堆内占用的字节数，由列式存储登记
+     */
+    private final LongAdder heapBytes = new LongAdder();
 
-    private final MemoryQueue wait = new MemoryQueue();
+    /**
+     * 全局内存预算，0表示不限制
+     */
+    private final long budget;
 
-    private final IntObjectHashMap<MemorySegment> pool = new IntObjectHashMap<>(216);
+    /**
+     * 每个线程复用的解压缓冲区，按需扩容
+     */
+    private final ThreadLocal<ByteBuffer> readBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(MIN_READ_BUFFER_SIZE));
 
     private static class SingletonHolder {
         private static final MemoryPool INSTANCE = new MemoryPool();
@@ -33,152 +103,375 @@ public class MemoryPool {
     }
 
     private MemoryPool() {
-        new Thread(() -> {
-            while (true) {
-                if (wait.getLastPollTimestamp() < System.currentTimeMillis() - 60 * 1000) {
-                    MemorySegment poll = wait.poll();
-                    if (poll != null && poll.isFree()) {
-                        poll.release();
-                        poll = null;
-                    }
-                }
-
-                ThreadUtil.sleep(1000);
-            }
-        }).start();
+        this.arenaSize = configuredArenaSize();
+        this.budget = configuredBudget();
+        this.stripeMask = Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES)) - 1;
+
+        int count = Integer.numberOfTrailingZeros(arenaSize) - Integer.numberOfTrailingZeros(MIN_SLOT_SIZE) + 1;
+        this.sizeClasses = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            sizeClasses[i] = new SizeClass(i, MIN_SLOT_SIZE << i);
+        }
+    }
+
+    /**
+     * 压缩后写入堆外内存
+     *
+     * @param bytes
+     * @return 句柄
+     */
+    public long allocateFromMemory(byte[] bytes) {
+        try {
+            return this.allocate(Snappy.compress(bytes));
+        } catch (EngineException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("分配内存失败", e);
+            throw new EngineException("分配内存失败");
+        }
     }
 
-    public List<Integer> allocateFromMemory(byte[] bytes) {
+    /**
+     * 不压缩直接写入堆外内存，用于需要按位置读取的数据
+     *
+     * @param bytes
+     * @return 句柄
+     */
+    public long allocate(byte[] bytes) {
         try {
-            bytes = Snappy.compress(bytes);
-            //压缩
-            List<Integer> indexes = Lists.newArrayList();
-            //切割
-            List<byte[]> spilt = this.splitByteArray(bytes);
-
-            for (byte[] b : spilt) {
-                MemorySegment poll = wait.poll();
-                if (poll != null && poll.isFree() && poll.write(b)) {
-                    indexes.add(poll.getIndex());
-                    continue;
-                }
-
-                MemorySegment memory = new MemorySegment(DEFAULT_CAPACITY, counter.incrementAndGet());
-                memory.write(b);
-
-                pool.put(memory.getIndex(), memory);
-                indexes.add(memory.getIndex());
+            int size = bytes.length + MemoryArena.LENGTH_SIZE;
+            if (size > arenaSize) {
+                MemoryArena arena = this.registerArena(HUGE, 0, size, 1);
+                arena.write(arena.allocate(), bytes);
+                usedBytes.add(size);
+                return handle(arena.getId(), 0);
             }
 
-            return indexes;
+            int sizeClass = sizeClassOf(size);
+            long handle = sizeClasses[sizeClass].allocate(bytes);
+            usedBytes.add(MIN_SLOT_SIZE << sizeClass);
+            return handle;
+        } catch (EngineException e) {
+            throw e;
         } catch (Exception e) {
-            throw new EngineException(e.getMessage());
+            log.error("分配内存失败", e);
+            throw new EngineException("分配内存失败");
         }
     }
 
-    public byte[] getAndFree(List<Integer> indices) {
-        byte[] bytes = this.get(indices);
-        this.free(indices);
+    public byte[] getAndFree(long handle) {
+        byte[] bytes = this.get(handle);
+        this.free(handle);
         return bytes;
     }
 
-    public byte[] get(List<Integer> indices) {
+    public byte[] get(long handle) {
+        return this.read(handle, buffer -> {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        });
+    }
+
+    /**
+     * 从槽位直接解压到当前线程复用的缓冲区，再交给读取方处理，中间不产生数组
+     * <p>
+     * 缓冲区在下一次读取时复用，读取方不能在返回后继续持有
+     *
+     * @param handle
+     * @param reader
+     * @param <T>
+     * @return
+     */
+    public <T> T read(long handle, Function<ByteBuffer, T> reader) {
+        if (handle == NULL_HANDLE) {
+            return null;
+        }
+
         try {
-            if (CollUtil.isEmpty(indices)) {
-                return null;
-            }
+            ByteBuffer compressed = this.arena(handle).slice(slot(handle));
+            ByteBuffer buffer = this.readBuffer(Snappy.uncompressedLength(compressed));
+            Snappy.uncompress(compressed, buffer);
+            return reader.apply(buffer);
+        } catch (EngineException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("读取内存失败", e);
+            throw new EngineException("读取内存失败");
+        }
+    }
+
+    /**
+     * 直接读取{@link #allocate(byte[])}写入的内容，读取方拿到的是槽位的只读视图
+     *
+     * @param handle
+     * @param reader
+     * @param <T>
+     * @return
+     */
+    public <T> T view(long handle, Function<ByteBuffer, T> reader) {
+        if (handle == NULL_HANDLE) {
+            return null;
+        }
 
-            Integer first = indices.get(0);
-            byte[] bytes = this.get(first);
+        return reader.apply(this.arena(handle).slice(slot(handle)).asReadOnlyBuffer());
+    }
 
-            Assert.notNull(bytes, "数组为空");
+    public void free(long handle) {
+        if (handle == NULL_HANDLE) {
+            return;
+        }
 
-            if (indices.size() == 1) {
-                return Snappy.uncompress(bytes);
-            }
+        MemoryArena arena = this.arena(handle);
+        usedBytes.add(-arena.getSlotSize());
+        if (arena.getSizeClass() == HUGE) {
+            this.releaseArena(arena);
+            return;
+        }
 
-            for (int i = 1; i < indices.size(); i++) {
-                byte[] other = this.get(indices.get(i));
-                Assert.notNull(other, "数组为空");
+        sizeClasses[arena.getSizeClass()].stripes[arena.getStripe()].free(arena, slot(handle));
+    }
 
-                bytes = this.mergeByteArray(bytes, other);
-            }
+    /**
+     * 句柄占用的字节数，按槽位大小计算
+     *
+     * @param handle
+     * @return
+     */
+    public int sizeOf(long handle) {
+        return handle == NULL_HANDLE ? 0 : this.arena(handle).getSlotSize();
+    }
 
-            return Snappy.uncompress(bytes);
-        } catch (Exception e) {
-            throw new EngineException(e.getMessage());
+    /**
+     * 登记堆内占用字节数的变化，和内存池分配的字节数一起计入全局预算
+     *
+     * @param delta
+     */
+    public void addHeapBytes(long delta) {
+        heapBytes.add(delta);
+    }
+
+    /**
+     * 已使用的字节数，包括堆内登记的字节数
+     *
+     * @return
+     */
+    public long getUsedBytes() {
+        return usedBytes.sum() + heapBytes.sum();
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * 是否超过全局内存预算
+     *
+     * @return 没有配置预算时总是返回false
+     */
+    public boolean isOverBudget() {
+        return budget > 0 && this.getUsedBytes() > budget;
+    }
+
+    private MemoryArena arena(long handle) {
+        int id = (int) (handle >>> 32);
+        AtomicReferenceArray<MemoryArena> chunk = id >>> TABLE_CHUNK_BITS < TABLE_CHUNKS ? arenas.get(id >>> TABLE_CHUNK_BITS) : null;
+        MemoryArena arena = chunk == null ? null : chunk.get(id & ((1 << TABLE_CHUNK_BITS) - 1));
+        if (arena == null) {
+            throw new EngineException("内存句柄无效");
         }
+
+        return arena;
     }
 
-    public void free(Collection<Integer> indices) {
-        if (CollUtil.isEmpty(indices)) {
-            return;
+    private MemoryArena registerArena(int sizeClass, int stripe, int slotSize, int slotCount) {
+        Integer id = freeArenaIds.poll();
+        if (id == null) {
+            id = nextArenaId.getAndIncrement();
+            if (id >>> TABLE_CHUNK_BITS >= TABLE_CHUNKS) {
+                throw new EngineException("内存块数量超过上限");
+            }
         }
 
-        for (Integer index : indices) {
-            this.free(index);
+        AtomicReferenceArray<MemoryArena> chunk = arenas.get(id >>> TABLE_CHUNK_BITS);
+        if (chunk == null) {
+            arenas.compareAndSet(id >>> TABLE_CHUNK_BITS, null, new AtomicReferenceArray<>(1 << TABLE_CHUNK_BITS));
+            chunk = arenas.get(id >>> TABLE_CHUNK_BITS);
         }
+
+        MemoryArena arena = new MemoryArena(id, sizeClass, stripe, slotSize, slotCount);
+        chunk.set(id & ((1 << TABLE_CHUNK_BITS) - 1), arena);
+        return arena;
+    }
+
+    /**
+     * 释放内存块，堆外内存在ByteBuffer回收时释放
+     *
+     * @param arena
+     */
+    private void releaseArena(MemoryArena arena) {
+        int id = arena.getId();
+        arenas.get(id >>> TABLE_CHUNK_BITS).set(id & ((1 << TABLE_CHUNK_BITS) - 1), null);
+        freeArenaIds.offer(id);
     }
 
-    public void free(Integer index) {
-        MemorySegment segment = pool.get(index);
-        if (segment != null) {
-            segment.free();
-            wait.add(segment);
+    /**
+     * 当前线程的解压缓冲区，超过内存块大小的数据临时分配，不保留
+     *
+     * @param length
+     * @return
+     */
+    private ByteBuffer readBuffer(int length) {
+        if (length > arenaSize) {
+            return ByteBuffer.allocateDirect(length);
+        }
+
+        ByteBuffer buffer = readBuffers.get();
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(length - 1) << 1);
+            readBuffers.set(buffer);
         }
+
+        buffer.clear();
+        return buffer;
     }
 
-    public byte[] get(Integer index) {
-        return pool.get(index).read();
+    private static long handle(int arenaId, int slot) {
+        return ((long) arenaId << 32) | (slot & 0xFFFFFFFFL);
+    }
+
+    private static int slot(long handle) {
+        return (int) handle;
     }
 
     /**
-     * 切割byte数组
+     * 能放下指定大小的最小等级
      *
-     * @param array
+     * @param size
      * @return
      */
-    private List<byte[]> splitByteArray(byte[] array) {
-        int amount = array.length / DEFAULT_CAPACITY;
-        List<byte[]> split = Lists.newLinkedList();
-        if (amount == 0) {
-            split.add(array);
-            return split;
-        }
-        //判断余数
-        int remainder = array.length % DEFAULT_CAPACITY;
-        if (remainder != 0) {
-            ++amount;
-        }
-
-        byte[] arr;
-        for (int i = 0; i < amount; i++) {
-            if (i == amount - 1 && remainder != 0) {
-                // 有剩余，按照实际长度创建
-                arr = new byte[remainder];
-                System.arraycopy(array, i * DEFAULT_CAPACITY, arr, 0, remainder);
-            } else {
-                arr = new byte[DEFAULT_CAPACITY];
-                System.arraycopy(array, i * DEFAULT_CAPACITY, arr, 0, DEFAULT_CAPACITY);
-            }
-
-            split.add(arr);
+    private static int sizeClassOf(int size) {
+        if (size <= MIN_SLOT_SIZE) {
+            return 0;
         }
-        return split;
+
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SLOT_SIZE);
     }
 
     /**
-     * 合并byte数组
+     * 内存块大小，向上取2的幂
      *
-     * @param bt1
-     * @param bt2
      * @return
      */
-    private byte[] mergeByteArray(byte[] bt1, byte[] bt2) {
-        byte[] bt3 = new byte[bt1.length + bt2.length];
-        System.arraycopy(bt1, 0, bt3, 0, bt1.length);
-        System.arraycopy(bt2, 0, bt3, bt1.length, bt2.length);
-        return bt3;
+    private static int configuredArenaSize() {
+        String s = ConfigLoad.get(ConfigConstant.Engine.MEMORY_ARENA_SIZE);
+        if (StrUtil.isBlank(s)) {
+            return DEFAULT_ARENA_SIZE;
+        }
+
+        try {
+            long size = Math.min(Math.max(DataSizeUtil.parse(s.trim()), MIN_ARENA_SIZE), MAX_ARENA_SIZE);
+            return Integer.highestOneBit((int) size - 1) << 1;
+        } catch (Exception e) {
+            log.error("内存块大小配置错误:{}，使用默认值", s);
+            return DEFAULT_ARENA_SIZE;
+        }
+    }
+
+    /**
+     * 全局内存预算
+     *
+     * @return 没有配置或者配置错误时返回0，不限制
+     */
+    private static long configuredBudget() {
+        String s = ConfigLoad.get(ConfigConstant.Engine.MEMORY_BUDGET);
+        if (StrUtil.isBlank(s)) {
+            return 0L;
+        }
+
+        try {
+            return Math.max(DataSizeUtil.parse(s.trim()), 0L);
+        } catch (Exception e) {
+            log.error("内存预算配置错误:{}，不限制内存", s);
+            return 0L;
+        }
+    }
+
+    /**
+     * 同一个大小等级的所有条带，线程按编号固定使用一个条带分配，释放时回到内存块所属的条带
+     */
+    private class SizeClass {
+
+        private final Stripe[] stripes;
+
+        SizeClass(int index, int slotSize) {
+            this.stripes = new Stripe[stripeMask + 1];
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new Stripe(index, i, slotSize);
+            }
+        }
+
+        /**
+         * 加锁预留槽位，复制数据不需要持有锁
+         *
+         * @param bytes
+         * @return
+         */
+        long allocate(byte[] bytes) {
+            long handle = stripes[(int) Thread.currentThread().getId() & stripeMask].allocate();
+            arena(handle).write(slot(handle), bytes);
+            return handle;
+        }
     }
 
+    /**
+     * 一个条带的内存块，优先从有空闲槽位的内存块分配，全部空闲的内存块只保留一个
+     */
+    private class Stripe {
+
+        private final int sizeClass;
+
+        private final int index;
+
+        private final int slotSize;
+
+        /**
+         * 有空闲槽位的内存块
+         */
+        private final Deque<MemoryArena> available = new ArrayDeque<>();
+
+        Stripe(int sizeClass, int index, int slotSize) {
+            this.sizeClass = sizeClass;
+            this.index = index;
+            this.slotSize = slotSize;
+        }
+
+        synchronized long allocate() {
+            MemoryArena arena = available.peekFirst();
+            if (arena == null) {
+                arena = registerArena(sizeClass, index, slotSize, arenaSize / slotSize);
+                available.addFirst(arena);
+            }
+
+            int slot = arena.allocate();
+            if (arena.isFull()) {
+                available.pollFirst();
+            }
+
+            return handle(arena.getId(), slot);
+        }
+
+        synchronized void free(MemoryArena arena, int slot) {
+            boolean wasFull = arena.isFull();
+            arena.free(slot);
+            if (wasFull) {
+                available.addLast(arena);
+            }
+
+            if (arena.isEmpty() && available.size() > 1) {
+                available.remove(arena);
+                releaseArena(arena);
+            }
+        }
+    }
 }
@@ -0,0 +1,412 @@
+package com.jimmy.groot.engine.data.memory;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.StrUtil;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.jimmy.groot.engine.data.lsm.LsmIterator;
+import com.jimmy.groot.engine.data.lsm.LsmStore;
+import com.jimmy.groot.engine.data.lsm.WriteBatch;
+import com.jimmy.groot.engine.metadata.Column;
+import com.jimmy.groot.platform.base.Serializer;
+import com.jimmy.groot.platform.other.Assert;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 内存表溢写存储，超过内存预算时冷分区整体写入lsm存储
+ * <p>
+ * 已溢写分区的读取、写入和删除直接在这里进行，不需要加载回内存；有空闲内存时再把访问多的分区整体加载回内存。
+ * 读写期间持有分区的读锁，加载时获取写锁，读写不会和加载交错
+ * <p>
+ * key为分区和唯一键，value为二进制行格式，字段类型和内存中一致。内存表本身不持久化，打开时清空表自己的溢写子目录
+ */
+public class MemorySpillStore {
+
+    private static final int STORE_THRESHOLD = 10000;
+
+    private static final int PART_SIZE = 64;
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String SPILL_DIR_SUFFIX = "-spill";
+
+    private final String dir;
+
+    private final LsmStore lsmStore;
+
+    private final RowSchema schema;
+
+    private final Serializer serializer;
+
+    /**
+     * 已溢写的分区
+     */
+    private final Map<String, SpilledPartition> spilled = Maps.newConcurrentMap();
+
+    private MemorySpillStore(String dir, LsmStore lsmStore, RowSchema schema, Serializer serializer) {
+        this.dir = dir;
+        this.lsmStore = lsmStore;
+        this.schema = schema;
+        this.serializer = serializer;
+    }
+
+    /**
+     * @param dir        溢写目录，在其中创建表自己的子目录，不会删除目录中的其他内容
+     * @param tableName
+     * @param columns
+     * @param serializer
+     * @return
+     */
+    public static MemorySpillStore build(String dir, String tableName, List<Column> columns, Serializer serializer) {
+        Assert.isTrue(StrUtil.isNotBlank(tableName), "表名为空");
+        //只清空表自己的子目录
+        String spillDir = dir + StrUtil.SLASH + tableName + SPILL_DIR_SUFFIX + StrUtil.SLASH;
+        FileUtil.del(spillDir);
+        return new MemorySpillStore(spillDir, LsmStore.build(spillDir, STORE_THRESHOLD, PART_SIZE, 0), new RowSchema(columns), serializer);
+    }
+
+    /**
+     * 销毁lsm存储并删除表的溢写子目录，关闭后不能再读写
+     */
+    public void close() {
+        spilled.clear();
+        lsmStore.destroy();
+        FileUtil.del(dir);
+    }
+
+    public boolean isSpilled(String code) {
+        return spilled.containsKey(code);
+    }
+
+    public boolean isEmpty() {
+        return spilled.isEmpty();
+    }
+
+    public Set<String> codes() {
+        return spilled.keySet();
+    }
+
+    /**
+     * 已溢写的总行数
+     *
+     * @return
+     */
+    public int count() {
+        return spilled.values().stream().mapToInt(spilledPartition -> spilledPartition.getCount().get()).sum();
+    }
+
+    /**
+     * 开始读取已溢写的分区，期间分区不会被加载回内存，和{@link Reader#close()}成对使用
+     *
+     * @param code
+     * @return 分区没有溢写返回null
+     */
+    public Reader open(String code) {
+        SpilledPartition spilledPartition = this.lock(code);
+        if (spilledPartition == null) {
+            return null;
+        }
+
+        spilledPartition.getHits().incrementAndGet();
+        return new Reader(code, spilledPartition);
+    }
+
+    /**
+     * 写入已溢写分区的一行
+     *
+     * @param code
+     * @param uniqueCode
+     * @param data
+     * @return 分区没有溢写返回false
+     */
+    public boolean save(String code, String uniqueCode, Map<String, Object> data) {
+        SpilledPartition spilledPartition = this.lock(code);
+        if (spilledPartition == null) {
+            return false;
+        }
+
+        try {
+            String key = code + StrUtil.COLON + uniqueCode;
+            //同一分区的写入互斥，保证行数准确
+            synchronized (spilledPartition) {
+                boolean exists = lsmStore.get(key) != null;
+                lsmStore.set(key, Base64.encode(BinaryRowCodec.encode(schema, data, serializer)));
+                if (!exists) {
+                    spilledPartition.getCount().incrementAndGet();
+                }
+            }
+
+            spilledPartition.getHits().incrementAndGet();
+            return true;
+        } finally {
+            spilledPartition.getLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * 删除已溢写分区的一行
+     *
+     * @param code
+     * @param uniqueCode
+     * @return 分区没有溢写返回false
+     */
+    public boolean remove(String code, String uniqueCode) {
+        SpilledPartition spilledPartition = this.lock(code);
+        if (spilledPartition == null) {
+            return false;
+        }
+
+        try {
+            String key = code + StrUtil.COLON + uniqueCode;
+            synchronized (spilledPartition) {
+                if (lsmStore.get(key) != null) {
+                    lsmStore.remove(key);
+                    spilledPartition.getCount().decrementAndGet();
+                }
+            }
+            return true;
+        } finally {
+            spilledPartition.getLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * 写入分区的所有数据，调用方需要保证期间分区没有读写，也不会同时加载
+     *
+     * @param memoryPartition
+     */
+    public void spill(MemoryPartition memoryPartition) {
+        String code = memoryPartition.getCode();
+        int count = 0;
+        WriteBatch writeBatch = new WriteBatch();
+        for (MemoryFragment fragment : memoryPartition.getFragments()) {
+            Map<String, Object> data = fragment.getData();
+            if (data == null) {
+                continue;
+            }
+
+            writeBatch.set(code + StrUtil.COLON + fragment.getCode(), Base64.encode(BinaryRowCodec.encode(schema, data, serializer)));
+            count++;
+            if (writeBatch.size() >= BATCH_SIZE) {
+                lsmStore.write(writeBatch);
+                writeBatch.clear();
+            }
+        }
+
+        lsmStore.write(writeBatch);
+        spilled.put(code, new SpilledPartition(memoryPartition.getKey(), count, memoryPartition.bytes()));
+    }
+
+    /**
+     * 访问最多的已溢写分区，有空闲内存时优先加载
+     *
+     * @return 溢写后没有访问过时返回null
+     */
+    public String hottest() {
+        String hottest = null;
+        int max = 0;
+        for (Map.Entry<String, SpilledPartition> entry : spilled.entrySet()) {
+            int hits = entry.getValue().getHits().get();
+            if (hits > max) {
+                max = hits;
+                hottest = entry.getKey();
+            }
+        }
+
+        return hottest;
+    }
+
+    /**
+     * 溢写时分区占用的字节数，估算加载回内存需要的空间
+     *
+     * @param code
+     * @return 没有溢写返回0
+     */
+    public long bytes(String code) {
+        SpilledPartition spilledPartition = spilled.get(code);
+        return spilledPartition == null ? 0L : spilledPartition.getBytes();
+    }
+
+    /**
+     * 把分区整体加载回内存，加载后删除溢写的数据，调用方需要保证期间不会同时溢写
+     * <p>
+     * 分区正在被读写时放弃加载，不等待
+     *
+     * @param code
+     * @param loader 参数为分区的索引数据和所有行，需要在返回前把分区放入内存
+     * @return 没有加载返回false
+     */
+    public boolean load(String code, LoadHandler loader) {
+        SpilledPartition spilledPartition = spilled.get(code);
+        if (spilledPartition == null || !spilledPartition.getLock().writeLock().tryLock()) {
+            return false;
+        }
+
+        try {
+            if (spilled.get(code) != spilledPartition) {
+                return false;
+            }
+
+            String prefix = code + StrUtil.COLON;
+            Map<String, Map<String, Object>> rows = Maps.newLinkedHashMap();
+            try (LsmIterator iterator = lsmStore.prefixScan(prefix)) {
+                while (iterator.hasNext()) {
+                    Map.Entry<String, String> entry = iterator.next();
+                    rows.put(entry.getKey().substring(prefix.length()), this.decode(entry.getValue(), null));
+                }
+            }
+            //先放入内存再删除溢写的数据，等待的读写发现分区已经不是溢写状态后到内存中读写
+            loader.load(spilledPartition.getKey(), rows);
+            spilled.remove(code, spilledPartition);
+            this.discard(code, rows.keySet());
+            return true;
+        } finally {
+            spilledPartition.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * 获取分区的读锁
+     *
+     * @param code
+     * @return 分区没有溢写返回null
+     */
+    private SpilledPartition lock(String code) {
+        SpilledPartition spilledPartition = spilled.get(code);
+        if (spilledPartition == null) {
+            return null;
+        }
+
+        spilledPartition.getLock().readLock().lock();
+        //等待期间被加载回内存
+        if (spilled.get(code) != spilledPartition) {
+            spilledPartition.getLock().readLock().unlock();
+            return null;
+        }
+
+        return spilledPartition;
+    }
+
+    /**
+     * 删除已加载回内存的分区的溢写数据
+     *
+     * @param code
+     * @param uniqueCodes
+     */
+    private void discard(String code, Set<String> uniqueCodes) {
+        WriteBatch writeBatch = new WriteBatch();
+        for (String uniqueCode : uniqueCodes) {
+            writeBatch.remove(code + StrUtil.COLON + uniqueCode);
+            if (writeBatch.size() >= BATCH_SIZE) {
+                lsmStore.write(writeBatch);
+                writeBatch.clear();
+            }
+        }
+
+        lsmStore.write(writeBatch);
+    }
+
+    private Map<String, Object> decode(String value, Set<String> names) {
+        ByteBuffer row = ByteBuffer.wrap(Base64.decode(value));
+        return names == null ? BinaryRowCodec.decode(schema, row, serializer) : BinaryRowCodec.decode(schema, row, names, serializer);
+    }
+
+    /**
+     * 加载分区
+     */
+    @FunctionalInterface
+    public interface LoadHandler {
+
+        /**
+         * @param key  分区的索引数据
+         * @param rows key为唯一键，按唯一键排序
+         */
+        void load(Map<String, Object> key, Map<String, Map<String, Object>> rows);
+    }
+
+    /**
+     * 已溢写分区的读取，持有分区的读锁
+     */
+    public class Reader implements AutoCloseable {
+
+        private final String prefix;
+
+        private final SpilledPartition spilledPartition;
+
+        private final List<LsmIterator> iterators = Lists.newArrayList();
+
+        private Reader(String code, SpilledPartition spilledPartition) {
+            this.prefix = code + StrUtil.COLON;
+            this.spilledPartition = spilledPartition;
+        }
+
+        /**
+         * 读取一行
+         *
+         * @param uniqueCode
+         * @param names      只解码这些字段，为空时解码整行
+         * @return 不存在返回null
+         */
+        public Map<String, Object> get(String uniqueCode, Set<String> names) {
+            String value = lsmStore.get(prefix + uniqueCode);
+            return value == null ? null : decode(value, names);
+        }
+
+        /**
+         * 按唯一键顺序流式读取
+         *
+         * @param uniqueCode 从这个唯一键之后开始，为空时从头开始
+         * @param names      只解码这些字段，为空时解码整行
+         * @return key为唯一键
+         */
+        public Iterator<Map.Entry<String, Map<String, Object>>> scanAfter(String uniqueCode, Set<String> names) {
+            //冒号之后的下一个字符为分号，唯一键之后追加最小的字符跳过唯一键本身
+            String fromKey = uniqueCode == null ? prefix : prefix + uniqueCode + Character.MIN_VALUE;
+            LsmIterator iterator = lsmStore.scan(fromKey, prefix.substring(0, prefix.length() - 1) + ';');
+            iterators.add(iterator);
+            return Iterators.transform(iterator, entry -> Maps.immutableEntry(entry.getKey().substring(prefix.length()), decode(entry.getValue(), names)));
+        }
+
+        @Override
+        public void close() {
+            iterators.forEach(LsmIterator::close);
+            spilledPartition.getLock().readLock().unlock();
+        }
+    }
+
+    @Getter
+    private static class SpilledPartition {
+
+        private final Map<String, Object> key;
+
+        private final AtomicInteger count;
+
+        /**
+         * 溢写时占用的字节数
+         */
+        private final long bytes;
+
+        /**
+         * 溢写后的访问次数
+         */
+        private final AtomicInteger hits = new AtomicInteger();
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private SpilledPartition(Map<String, Object> key, int count, long bytes) {
+            this.key = key;
+            this.count = new AtomicInteger(count);
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.jimmy.groot.engine.data.memory;
+
+import com.google.common.collect.Maps;
+import com.jimmy.groot.engine.metadata.Column;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 二进制行格式的表结构，字段按定义顺序编号，行中按编号定位字段
+ */
+public class RowSchema {
+
+    private final String[] names;
+
+    private final Map<String, Integer> ordinals;
+
+    public RowSchema(List<Column> columns) {
+        this.names = new String[columns.size()];
+        this.ordinals = Maps.newHashMapWithExpectedSize(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            names[i] = columns.get(i).getName();
+            ordinals.put(names[i], i);
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int ordinal) {
+        return names[ordinal];
+    }
+
+    /**
+     * 字段编号
+     *
+     * @param name
+     * @return 不在表结构中返回null
+     */
+    public Integer ordinal(String name) {
+        return ordinals.get(name);
+    }
+}
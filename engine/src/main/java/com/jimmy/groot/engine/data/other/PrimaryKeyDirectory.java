@@ -0,0 +1,200 @@
+package com.jimmy.groot.engine.data.other;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.ArrayUtil;
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.core.util.StrUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.jimmy.groot.engine.core.ConfigLoad;
+import com.jimmy.groot.engine.data.lsm.LsmIterator;
+import com.jimmy.groot.engine.data.lsm.LsmStore;
+import com.jimmy.groot.engine.enums.CompactionStrategyEnum;
+import com.jimmy.groot.engine.exception.EngineException;
+import com.jimmy.groot.engine.metadata.Row;
+import com.jimmy.groot.platform.constant.ConfigConstant;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 主键目录，记录唯一键所在的分区，按唯一键哈希分片到多个独立的lsm存储，不同分片的写入互不影响
+ * <p>
+ * 分片数量在第一次创建时确定，之后以已有的分片目录数量为准，修改配置不影响已有的表。
+ * 旧版本单个存储的数据在打开时迁移到分片中
+ */
+@Slf4j
+public class PrimaryKeyDirectory {
+
+    private static final int DEFAULT_SHARDS = 8;
+
+    /**
+     * 旧版本存储中唯一键的后缀
+     */
+    private static final String LEGACY_KEY_SUFFIX = ":row:data";
+
+    private final LsmStore[] shards;
+
+    private PrimaryKeyDirectory(LsmStore[] shards) {
+        this.shards = shards;
+    }
+
+    public static PrimaryKeyDirectory build(String dir, int storeThreshold, long partSize, int expectCount, CompactionStrategyEnum compactionStrategy, long ttl) {
+        int shardCount = existingShards(dir);
+        if (shardCount == 0) {
+            shardCount = configuredShards();
+        }
+
+        LsmStore[] shards = new LsmStore[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = LsmStore.build(dir + i + StrUtil.SLASH, storeThreshold, partSize, expectCount, compactionStrategy, ttl);
+        }
+
+        PrimaryKeyDirectory directory = new PrimaryKeyDirectory(shards);
+        directory.migrateLegacy(dir, storeThreshold, partSize, expectCount, compactionStrategy, ttl);
+        return directory;
+    }
+
+    /**
+     * 唯一键所在的分区
+     *
+     * @param uniqueKey
+     * @return 不存在返回null
+     */
+    public String get(String uniqueKey) {
+        return this.shard(uniqueKey).get(uniqueKey);
+    }
+
+    public void put(String uniqueKey, String partitionKey) {
+        this.shard(uniqueKey).set(uniqueKey, partitionKey);
+    }
+
+    public void remove(String uniqueKey) {
+        this.shard(uniqueKey).remove(uniqueKey);
+    }
+
+    public long total() {
+        long total = 0;
+        for (LsmStore shard : shards) {
+            total += shard.total();
+        }
+        return total;
+    }
+
+    /**
+     * 按唯一键顺序遍历所有分片，key为唯一键，value为分区
+     *
+     * @return
+     */
+    public DirectoryIterator scan() {
+        return this.scan(null);
+    }
+
+    /**
+     * 从指定唯一键之后开始按唯一键顺序遍历，用于游标分页
+     *
+     * @param afterKey 为空时从头开始
+     * @return
+     */
+    public DirectoryIterator scan(String afterKey) {
+        //紧跟在afterKey之后的最小key
+        String fromKey = afterKey == null ? null : afterKey + Character.MIN_VALUE;
+
+        List<LsmIterator> iterators = Lists.newArrayListWithCapacity(shards.length);
+        for (LsmStore shard : shards) {
+            iterators.add(shard.scan(fromKey, null));
+        }
+        return new DirectoryIterator(iterators);
+    }
+
+    private LsmStore shard(String uniqueKey) {
+        int hash = uniqueKey.hashCode();
+        return shards[Math.floorMod(hash ^ (hash >>> 16), shards.length)];
+    }
+
+    /**
+     * 旧版本所有唯一键都在目录下的单个存储中，值为JSON格式的行信息，迁移完成后删除
+     *
+     * @param dir
+     * @param storeThreshold
+     * @param partSize
+     * @param expectCount
+     * @param compactionStrategy
+     * @param ttl
+     */
+    private void migrateLegacy(String dir, int storeThreshold, long partSize, int expectCount, CompactionStrategyEnum compactionStrategy, long ttl) {
+        File[] files = FileUtil.newFile(dir).listFiles(File::isFile);
+        if (ArrayUtil.isEmpty(files)) {
+            return;
+        }
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        LsmStore legacy = LsmStore.build(dir, storeThreshold, partSize, expectCount, compactionStrategy, ttl);
+        try (LsmIterator iterator = legacy.scan(null, null)) {
+            while (iterator.hasNext()) {
+                Map.Entry<String, String> entry = iterator.next();
+                if (entry.getValue() == null || !entry.getKey().endsWith(LEGACY_KEY_SUFFIX)) {
+                    continue;
+                }
+
+                Row row = objectMapper.readValue(entry.getValue(), Row.class);
+                this.put(StrUtil.removeSuffix(entry.getKey(), LEGACY_KEY_SUFFIX), row.getPartitionDataKey());
+            }
+        } catch (Exception e) {
+            log.error("迁移主键目录失败", e);
+            throw new EngineException("迁移主键目录失败");
+        }
+
+        legacy.destroy();
+        log.info("主键目录迁移完成:{}", dir);
+    }
+
+    private static int existingShards(String dir) {
+        File[] shardDirs = FileUtil.newFile(dir).listFiles(file -> file.isDirectory() && NumberUtil.isInteger(file.getName()));
+        return shardDirs == null ? 0 : shardDirs.length;
+    }
+
+    private static int configuredShards() {
+        String s = ConfigLoad.get(ConfigConstant.Engine.PRIMARY_KEY_SHARDS);
+        if (!NumberUtil.isInteger(StrUtil.trim(s))) {
+            return DEFAULT_SHARDS;
+        }
+
+        return Math.max(Integer.parseInt(s.trim()), 1);
+    }
+
+    /**
+     * 多个分片的有序归并，没有遍历完需要关闭
+     */
+    public static class DirectoryIterator implements Iterator<Map.Entry<String, String>>, Closeable {
+
+        private final List<LsmIterator> iterators;
+
+        private final Iterator<Map.Entry<String, String>> merged;
+
+        private DirectoryIterator(List<LsmIterator> iterators) {
+            this.iterators = iterators;
+            this.merged = Iterators.mergeSorted(iterators, Map.Entry.comparingByKey());
+        }
+
+        @Override
+        public boolean hasNext() {
+            return merged.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            return merged.next();
+        }
+
+        @Override
+        public void close() {
+            iterators.forEach(LsmIterator::close);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.jimmy.groot.engine.data.other;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+import com.jimmy.groot.engine.exception.SqlException;
+import lombok.Getter;
+
+/**
+ * 游标分页位置，记录上一页最后一行的分区和唯一键，下一页从这一行之后开始，不需要跳过前面的行
+ * <p>
+ * 唯一键是md5，不包含冒号，编码时唯一键在前用冒号和分区分隔后再做Base64，对调用方不透明
+ */
+@Getter
+public class QueryCursor {
+
+    private String partitionKey;
+
+    private String uniqueKey;
+
+    public QueryCursor() {
+
+    }
+
+    public QueryCursor(String partitionKey, String uniqueKey) {
+        this.partitionKey = partitionKey;
+        this.uniqueKey = uniqueKey;
+    }
+
+    /**
+     * 解析游标
+     *
+     * @param cursor
+     * @return 为空返回null
+     */
+    public static QueryCursor parse(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+
+        String decoded = Base64.decodeStr(cursor);
+        int separatorIndex = decoded.indexOf(StrUtil.COLON);
+        if (separatorIndex < 0) {
+            throw new SqlException("游标格式错误");
+        }
+
+        return new QueryCursor(decoded.substring(separatorIndex + 1), decoded.substring(0, separatorIndex));
+    }
+
+    /**
+     * 记录最后返回的一行
+     *
+     * @param partitionKey
+     * @param uniqueKey
+     */
+    public void moveTo(String partitionKey, String uniqueKey) {
+        this.partitionKey = partitionKey;
+        this.uniqueKey = uniqueKey;
+    }
+
+    /**
+     * 是否还没有记录任何一行
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return uniqueKey == null;
+    }
+
+    /**
+     * 按分区顺序遍历时，分区是否在游标所在分区之前，之前的分区已经返回过
+     *
+     * @param partitionCode
+     * @return
+     */
+    public boolean isPassed(String partitionCode) {
+        return partitionCode.compareTo(partitionKey) < 0;
+    }
+
+    /**
+     * 按分区顺序遍历时，指定分区中需要跳过的唯一键上界
+     *
+     * @param partitionCode
+     * @return 不是游标所在的分区返回null
+     */
+    public String uniqueKeyIn(String partitionCode) {
+        return partitionKey.equals(partitionCode) ? uniqueKey : null;
+    }
+
+    public String encode() {
+        return Base64.encodeUrlSafe(uniqueKey + StrUtil.COLON + StrUtil.nullToEmpty(partitionKey));
+    }
+}
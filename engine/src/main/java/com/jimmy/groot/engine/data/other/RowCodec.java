@@ -0,0 +1,95 @@
+package com.jimmy.groot.engine.data.other;
+
+import java.util.List;
+
+/**
+ * 行存储编码，把一组字段值按字段顺序编码成一个字符串，不保存字段名
+ * <p>
+ * 格式：（长度头|内容）*，长度头为一个字符，0表示null，否则为长度+1；长度超过单字符上限时长度头为{@link #LONG_LENGTH}，
+ * 后跟两个各15位的字符表示长度。长度头都小于代理字符区间，UTF-8编码时不会被替换
+ * <p>
+ * 解码时不需要的字段按长度直接跳过，不创建字符串
+ */
+public final class RowCodec {
+
+    private static final char NULL_VALUE = 0;
+
+    private static final char LONG_LENGTH = 0xD7FF;
+
+    private static final int MAX_SHORT_LENGTH = LONG_LENGTH - 2;
+
+    private static final int LOW_BITS = 15;
+
+    private static final int LOW_MASK = (1 << LOW_BITS) - 1;
+
+    private RowCodec() {
+
+    }
+
+    /**
+     * 编码
+     *
+     * @param values 按字段顺序
+     * @return
+     */
+    public static String encode(List<String> values) {
+        int capacity = values.size();
+        for (String value : values) {
+            capacity += value == null ? 0 : value.length();
+        }
+
+        StringBuilder row = new StringBuilder(capacity);
+        for (String value : values) {
+            if (value == null) {
+                row.append(NULL_VALUE);
+                continue;
+            }
+
+            int length = value.length();
+            if (length <= MAX_SHORT_LENGTH) {
+                row.append((char) (length + 1));
+            } else {
+                row.append(LONG_LENGTH);
+                row.append((char) (length >>> LOW_BITS));
+                row.append((char) (length & LOW_MASK));
+            }
+            row.append(value);
+        }
+
+        return row.toString();
+    }
+
+    /**
+     * 解码需要的字段
+     *
+     * @param row
+     * @param needed 按字段顺序，是否需要解码，字段数量以此为准
+     * @return 不需要的字段和编码中不存在的字段为null
+     */
+    public static String[] decode(String row, boolean[] needed) {
+        String[] values = new String[needed.length];
+
+        int position = 0;
+        for (int i = 0; i < needed.length && position < row.length(); i++) {
+            char header = row.charAt(position++);
+            if (header == NULL_VALUE) {
+                continue;
+            }
+
+            int length;
+            if (header == LONG_LENGTH) {
+                length = (row.charAt(position) << LOW_BITS) | row.charAt(position + 1);
+                position += 2;
+            } else {
+                length = header - 1;
+            }
+
+            if (needed[i]) {
+                values[i] = row.substring(position, position + length);
+            }
+            position += length;
+        }
+
+        return values;
+    }
+}
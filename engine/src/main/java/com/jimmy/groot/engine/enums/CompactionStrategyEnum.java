@@ -0,0 +1,6 @@
+package com.jimmy.groot.engine.enums;
+
+public enum CompactionStrategyEnum {
+
+    LEVELED, SIZE_TIERED, FIFO
+}
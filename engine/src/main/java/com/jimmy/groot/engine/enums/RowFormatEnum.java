@@ -0,0 +1,22 @@
+package com.jimmy.groot.engine.enums;
+
+/**
+ * 内存表行数据格式
+ */
+public enum RowFormatEnum {
+
+    /**
+     * 整行按配置的序列化方式编码后压缩，读取时需要反序列化整行
+     */
+    SERIALIZED,
+
+    /**
+     * 按表结构编码的二进制格式，不压缩，可以直接从内存中只读取需要的字段
+     */
+    BINARY,
+
+    /**
+     * 分区内按字段列式存储在堆内，过滤条件按块批量计算，只有选中的行才组装成行数据
+     */
+    COLUMNAR
+}
@@ -0,0 +1,22 @@
+package com.jimmy.groot.engine.enums;
+
+/**
+ * lsm表数据存储布局
+ */
+public enum StorageLayoutEnum {
+
+    /**
+     * 每个字段一个key
+     */
+    COLUMN,
+
+    /**
+     * 整行一个key
+     */
+    ROW,
+
+    /**
+     * 指定的字段组各一个key，其余字段合并成一个key
+     */
+    COLUMN_GROUP
+}
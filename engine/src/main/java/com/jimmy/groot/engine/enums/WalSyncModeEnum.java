@@ -0,0 +1,6 @@
+package com.jimmy.groot.engine.enums;
+
+public enum WalSyncModeEnum {
+
+    SYNC, INTERVAL, NONE
+}
@@ -0,0 +1,175 @@
+package com.jimmy.groot.engine.data;
+
+import com.jimmy.groot.engine.enums.RowFormatEnum;
+import com.jimmy.groot.engine.metadata.Column;
+import com.jimmy.groot.platform.serializer.SerializerSupport;
+import com.jimmy.groot.sql.core.Condition;
+import com.jimmy.groot.sql.element.ConditionElement;
+import com.jimmy.groot.sql.element.QueryElement;
+import com.jimmy.groot.sql.enums.ColumnTypeEnum;
+import com.jimmy.groot.sql.enums.ConditionEnum;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.jimmy.groot.engine.data.TestTables.column;
+import static com.jimmy.groot.engine.data.TestTables.element;
+import static com.jimmy.groot.engine.data.TestTables.partitionCode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * 列式存储按块批量过滤的结果和按行用表达式判断的结果一致
+ * <p>
+ * 数据中包含null值、删除后重新写入的行和不在表结构中的字段，结果按整行比较
+ */
+public class ColumnarFilterTest {
+
+    private static final int ROWS = 3000;
+
+    private static MemoryData binary;
+
+    private static MemoryData columnar;
+
+    @BeforeClass
+    public static void load() {
+        binary = build(RowFormatEnum.BINARY);
+        columnar = build(RowFormatEnum.COLUMNAR);
+    }
+
+    @Test
+    public void greaterThan() {
+        assertSameResult(and(new Condition(ConditionEnum.GT, "age", 90)));
+    }
+
+    @Test
+    public void notEqualWithLessEqual() {
+        assertSameResult(and(new Condition(ConditionEnum.LE, "score", 12.5), new Condition(ConditionEnum.NE, "age", 3)));
+    }
+
+    @Test
+    public void notEqualString() {
+        assertSameResult(and(new Condition(ConditionEnum.NE, "name", "n1"), new Condition(ConditionEnum.GT, "score", 99.0)));
+    }
+
+    @Test
+    public void or() {
+        assertSameResult(Arrays.asList(
+                element(new Condition(ConditionEnum.EQ, "name", "n7")),
+                element(new Condition(ConditionEnum.LT, "age", 2))));
+    }
+
+    @Test
+    public void elementWithoutConditions() {
+        //只指定分区的条件组匹配分区中的所有行
+        ConditionElement partitionOnly = new ConditionElement();
+        partitionOnly.getPartitionCodes().add(partitionCode("d1"));
+        ConditionElement greaterThan = element(new Condition(ConditionEnum.GT, "age", 90));
+        greaterThan.getPartitionCodes().add(partitionCode("d1"));
+        greaterThan.getPartitionCodes().add(partitionCode("d2"));
+
+        assertSameResult(Arrays.asList(partitionOnly, greaterThan));
+    }
+
+    @Test
+    public void isNull() {
+        assertSameResult(and(new Condition(ConditionEnum.NULL, "age", null)));
+    }
+
+    @Test
+    public void notNull() {
+        assertSameResult(and(new Condition(ConditionEnum.NOT_NULL, "score", null), new Condition(ConditionEnum.EQ, "name", "n1")));
+    }
+
+    @Test
+    public void range() {
+        assertSameResult(and(new Condition(ConditionEnum.GE, "age", 20), new Condition(ConditionEnum.LT, "age", 25)));
+        assertSameResult(and(new Condition(ConditionEnum.GT, "score", 10.0), new Condition(ConditionEnum.LE, "score", 20.5)));
+    }
+
+    @Test
+    public void sparseField() {
+        assertSameResult(and(new Condition(ConditionEnum.EQ, "extra", "x170")));
+    }
+
+    @Test
+    public void withoutCondition() {
+        QueryElement queryElement = new QueryElement();
+        queryElement.setSelectAll(true);
+        queryElement.setWithoutCondition(true);
+
+        List<String> expected = rows(binary.query(queryElement));
+        assertEquals(expected, rows(columnar.query(queryElement)));
+    }
+
+    private static void assertSameResult(List<ConditionElement> conditionElements) {
+        QueryElement queryElement = new QueryElement();
+        queryElement.setSelectAll(true);
+        queryElement.getConditionElements().addAll(conditionElements);
+
+        List<String> expected = rows(binary.query(queryElement));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, rows(columnar.query(queryElement)));
+    }
+
+    private static List<ConditionElement> and(Condition... conditions) {
+        return Collections.singletonList(element(conditions));
+    }
+
+    private static List<String> rows(Collection<Map<String, Object>> result) {
+        List<String> rows = new ArrayList<>(result.size());
+        for (Map<String, Object> row : result) {
+            rows.add(new TreeMap<>(row).toString());
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static MemoryData build(RowFormatEnum rowFormat) {
+        MemoryData memoryData = MemoryData.build(SerializerSupport.getInstance().get("JSON"), columns(), rowFormat);
+        for (int i = 0; i < ROWS; i++) {
+            memoryData.save(doc(i, 0));
+        }
+        for (int i = 0; i < ROWS; i += 3) {
+            memoryData.remove(doc(i, 0));
+        }
+        for (int i = 0; i < ROWS; i += 7) {
+            memoryData.save(doc(i, 5));
+        }
+        return memoryData;
+    }
+
+    private static Map<String, Object> doc(int i, int version) {
+        Map<String, Object> doc = TestTables.doc(i, 5);
+        if (i % 11 != 0) {
+            doc.put("age", (i * 7 + version) % 100);
+        }
+        if (i % 13 != 0) {
+            doc.put("score", ((i * 31 + version) % 1000) / 10.0);
+        }
+        doc.put("name", "n" + ((i + version) % 50));
+        if (i % 17 == 0) {
+            doc.put("extra", "x" + i);
+        }
+        //不在表结构中的字段
+        if (i % 19 == 0) {
+            doc.put("note", "note-" + i + "-" + version);
+        }
+        return doc;
+    }
+
+    private static List<Column> columns() {
+        return TestTables.columns(
+                column("age", ColumnTypeEnum.INT),
+                column("score", ColumnTypeEnum.DOUBLE),
+                column("name", ColumnTypeEnum.VARCHAR),
+                column("extra", ColumnTypeEnum.VARCHAR));
+    }
+}
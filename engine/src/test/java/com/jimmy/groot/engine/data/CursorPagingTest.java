@@ -0,0 +1,187 @@
+package com.jimmy.groot.engine.data;
+
+import cn.hutool.crypto.SecureUtil;
+import com.jimmy.groot.engine.base.Data;
+import com.jimmy.groot.engine.metadata.Column;
+import com.jimmy.groot.platform.serializer.SerializerSupport;
+import com.jimmy.groot.sql.core.Condition;
+import com.jimmy.groot.sql.element.ConditionElement;
+import com.jimmy.groot.sql.element.QueryElement;
+import com.jimmy.groot.sql.enums.ColumnTypeEnum;
+import com.jimmy.groot.sql.enums.ConditionEnum;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import static com.jimmy.groot.engine.data.TestTables.column;
+import static com.jimmy.groot.engine.data.TestTables.element;
+import static com.jimmy.groot.engine.data.TestTables.partitionCode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 按游标连续翻页直到没有下一页，每行恰好返回一次，顺序和一次查询全部的结果一致
+ * <p>
+ * 多个条件组之间为或，包含只指定唯一键的条件组，lsm表的内存表阈值较小，数据分布在内存表和ssTable中
+ */
+public class CursorPagingTest {
+
+    private static final int ROWS = 1200;
+
+    private static final int PAGE_SIZE = 7;
+
+    private static final int STORE_THRESHOLD = 300;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static LsmData lsmData;
+
+    private static MemoryData memoryData;
+
+    @BeforeClass
+    public static void load() throws IOException {
+        lsmData = LsmData.build(columns(), folder.newFolder().getPath(), "t", STORE_THRESHOLD, 64, ROWS);
+        memoryData = MemoryData.build(SerializerSupport.getInstance().get("JSON"), columns());
+        for (Data data : Arrays.<Data>asList(lsmData, memoryData)) {
+            for (int i = 0; i < ROWS; i++) {
+                data.save(doc(i));
+            }
+            for (int i = 0; i < ROWS; i += 4) {
+                data.remove(doc(i));
+            }
+        }
+    }
+
+    @Test
+    public void orWithUniqueKey() {
+        List<ConditionElement> conditionElements = Arrays.asList(
+                element(new Condition(ConditionEnum.EQ, "grade", "g3")),
+                element(new Condition(ConditionEnum.EQ, "name", "n7")),
+                unique(501));
+        Predicate<Integer> expected = i -> i * 7 % 10 == 3 || i % 30 == 7 || i == 501;
+
+        assertPaging(lsmData, conditionElements, expected);
+        assertPaging(memoryData, conditionElements, expected);
+    }
+
+    @Test
+    public void orInPartitions() {
+        //分区只用于裁剪，条件中包含分区字段
+        List<ConditionElement> conditionElements = Arrays.asList(
+                inPartition(1, new Condition(ConditionEnum.NE, "grade", "g0")),
+                inPartition(3, new Condition(ConditionEnum.NE, "grade", "g1")),
+                inPartition(2, new Condition(ConditionEnum.EQ, "name", "n2")),
+                inPartition(13 % 5, new Condition(ConditionEnum.EQ, "id", "id13")));
+        Predicate<Integer> expected = i -> (i % 5 == 1 && i * 7 % 10 != 0)
+                || (i % 5 == 3 && i * 7 % 10 != 1)
+                || (i % 5 == 2 && i % 30 == 2)
+                || i == 13;
+
+        assertPaging(lsmData, conditionElements, expected);
+        assertPaging(memoryData, conditionElements, expected);
+    }
+
+    @Test
+    public void onlyUniqueKeys() {
+        //已删除和不存在的唯一键不返回
+        List<ConditionElement> conditionElements = new ArrayList<>();
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 1; i < ROWS + 100; i += 37) {
+            conditionElements.add(unique(i));
+            ids.add(i);
+        }
+        Predicate<Integer> expected = ids::contains;
+
+        assertPaging(lsmData, conditionElements, expected);
+        assertPaging(memoryData, conditionElements, expected);
+    }
+
+    @Test
+    public void withoutCondition() {
+        assertPaging(lsmData, new ArrayList<>(), i -> true);
+        assertPaging(memoryData, new ArrayList<>(), i -> true);
+    }
+
+    private static void assertPaging(Data data, List<ConditionElement> conditionElements, Predicate<Integer> expected) {
+        QueryElement all = query(conditionElements);
+        all.setSelectAll(true);
+        List<String> ordered = ids(data.query(all));
+
+        List<String> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            QueryElement page = query(conditionElements);
+            page.setEnd(PAGE_SIZE);
+            page.setCursor(cursor);
+            Collection<Map<String, Object>> result = data.query(page);
+            assertTrue(result.size() <= PAGE_SIZE);
+
+            paged.addAll(ids(result));
+            cursor = page.getNextCursor();
+            assertTrue("翻页没有结束", paged.size() <= ROWS);
+        } while (cursor != null);
+
+        Set<String> matched = new TreeSet<>();
+        for (int i = 0; i < ROWS; i++) {
+            if (i % 4 != 0 && expected.test(i)) {
+                matched.add("id" + i);
+            }
+        }
+        assertTrue(matched.size() > PAGE_SIZE);
+        assertEquals(matched, new TreeSet<>(ordered));
+        assertEquals(ordered, paged);
+    }
+
+    private static QueryElement query(List<ConditionElement> conditionElements) {
+        QueryElement queryElement = new QueryElement();
+        queryElement.getConditionElements().addAll(conditionElements);
+        queryElement.setWithoutCondition(conditionElements.isEmpty());
+        return queryElement;
+    }
+
+    private static List<String> ids(Collection<Map<String, Object>> result) {
+        List<String> ids = new ArrayList<>(result.size());
+        for (Map<String, Object> row : result) {
+            assertNotNull(row.get("id"));
+            ids.add(row.get("id").toString());
+        }
+        return ids;
+    }
+
+    private static ConditionElement unique(int i) {
+        ConditionElement conditionElement = element(new Condition(ConditionEnum.EQ, "id", "id" + i));
+        conditionElement.getUniqueCodes().add(SecureUtil.md5("id=id" + i + "&"));
+        return conditionElement;
+    }
+
+    private static ConditionElement inPartition(int day, Condition condition) {
+        ConditionElement conditionElement = element(new Condition(ConditionEnum.EQ, "day", "d" + day), condition);
+        conditionElement.getPartitionCodes().add(partitionCode("d" + day));
+        return conditionElement;
+    }
+
+    private static Map<String, Object> doc(int i) {
+        Map<String, Object> doc = TestTables.doc(i, 5);
+        doc.put("grade", "g" + (i * 7 % 10));
+        doc.put("name", "n" + (i % 30));
+        return doc;
+    }
+
+    private static List<Column> columns() {
+        return TestTables.columns(column("grade", ColumnTypeEnum.VARCHAR), column("name", ColumnTypeEnum.VARCHAR));
+    }
+}
@@ -0,0 +1,185 @@
+package com.jimmy.groot.engine.data;
+
+import com.jimmy.groot.engine.enums.RowFormatEnum;
+import com.jimmy.groot.engine.metadata.Column;
+import com.jimmy.groot.platform.serializer.SerializerSupport;
+import com.jimmy.groot.sql.core.Condition;
+import com.jimmy.groot.sql.element.QueryElement;
+import com.jimmy.groot.sql.enums.ColumnTypeEnum;
+import com.jimmy.groot.sql.enums.ConditionEnum;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.jimmy.groot.engine.data.TestTables.column;
+import static com.jimmy.groot.engine.data.TestTables.element;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 超过内存预算后冷分区溢写，已溢写的行仍然可以读取、修改和删除，删除所有行后占用的字节数回到0
+ * <p>
+ * 写入线程并发修改和删除，期间溢写和加载由写入触发
+ */
+public class MemoryDataSpillTest {
+
+    private static final int ROWS = 4000;
+
+    private static final int PARTITIONS = 40;
+
+    private static final long BUDGET = 64 * 1024;
+
+    private static final int THREADS = 4;
+
+    private final List<MemoryData> tables = new ArrayList<>();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void close() {
+        tables.forEach(MemoryData::close);
+    }
+
+    @Test
+    public void serialized() throws Exception {
+        this.assertSpill(RowFormatEnum.SERIALIZED);
+    }
+
+    @Test
+    public void binary() throws Exception {
+        this.assertSpill(RowFormatEnum.BINARY);
+    }
+
+    @Test
+    public void columnar() throws Exception {
+        this.assertSpill(RowFormatEnum.COLUMNAR);
+    }
+
+    @Test
+    public void closeDeletesSpillDir() throws Exception {
+        File dir = folder.newFolder();
+        MemoryData memoryData = MemoryData.build(SerializerSupport.getInstance().get("JSON"), columns(), RowFormatEnum.BINARY, dir.getPath(), "t", BUDGET);
+        for (int i = 0; i < ROWS; i++) {
+            memoryData.save(doc(i, 0));
+        }
+        assertTrue(new File(dir, "t-spill").exists());
+
+        memoryData.close();
+        assertFalse(new File(dir, "t-spill").exists());
+        assertEquals(0, memoryData.getUsedBytes());
+    }
+
+    private void assertSpill(RowFormatEnum rowFormat) throws Exception {
+        MemoryData memoryData = MemoryData.build(SerializerSupport.getInstance().get("JSON"), columns(), rowFormat, folder.newFolder().getPath(), "t", BUDGET);
+        tables.add(memoryData);
+        for (int i = 0; i < ROWS; i++) {
+            memoryData.save(doc(i, 0));
+        }
+        //超过预算的分区已溢写
+        assertTrue(memoryData.getUsedBytes() < BUDGET * 2);
+        assertEquals(ROWS, all(memoryData).size());
+
+        //每个线程修改自己的行，删除其中的一部分
+        this.concurrently(t -> {
+            for (int i = t; i < ROWS; i += THREADS) {
+                if (i % 5 == 0) {
+                    memoryData.remove(doc(i, 0));
+                } else {
+                    memoryData.save(doc(i, 1));
+                }
+            }
+        });
+
+        Map<Object, Map<String, Object>> byId = new HashMap<>();
+        for (Map<String, Object> row : all(memoryData)) {
+            assertNull(byId.put(row.get("id"), row));
+        }
+        assertEquals(ROWS - ROWS / 5, byId.size());
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, Object> row = byId.get("id" + i);
+            if (i % 5 == 0) {
+                assertNull(row);
+            } else {
+                assertEquals(doc(i, 1), row);
+            }
+        }
+        //按唯一键读取，包括已溢写的分区
+        for (int i = 1; i < ROWS; i += 37) {
+            Collection<Map<String, Object>> rows = byId(memoryData, i);
+            assertEquals(i % 5 == 0 ? 0 : 1, rows.size());
+        }
+
+        this.concurrently(t -> {
+            for (int i = t; i < ROWS; i += THREADS) {
+                memoryData.remove(doc(i, 1));
+            }
+        });
+        assertTrue(all(memoryData).isEmpty());
+        assertEquals(0, memoryData.getUsedBytes());
+    }
+
+    private void concurrently(Task task) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executorService.submit(() -> {
+                    task.run(thread);
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private static Collection<Map<String, Object>> all(MemoryData memoryData) {
+        QueryElement queryElement = new QueryElement();
+        queryElement.setSelectAll(true);
+        queryElement.setWithoutCondition(true);
+        return memoryData.query(queryElement);
+    }
+
+    private static Collection<Map<String, Object>> byId(MemoryData memoryData, int i) {
+        QueryElement queryElement = new QueryElement();
+        queryElement.setSelectAll(true);
+        queryElement.getConditionElements().add(element(new Condition(ConditionEnum.EQ, "id", "id" + i)));
+        return memoryData.query(queryElement);
+    }
+
+    private static Map<String, Object> doc(int i, int version) {
+        Map<String, Object> doc = TestTables.doc(i, PARTITIONS);
+        doc.put("age", (i + version) % 100);
+        doc.put("payload", "payload-" + i + "-" + version + "-xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx");
+        return doc;
+    }
+
+    private static List<Column> columns() {
+        return TestTables.columns(column("age", ColumnTypeEnum.INT), column("payload", ColumnTypeEnum.VARCHAR));
+    }
+
+    @FunctionalInterface
+    private interface Task {
+
+        void run(int thread) throws Exception;
+    }
+}
@@ -0,0 +1,74 @@
+package com.jimmy.groot.engine.data;
+
+import cn.hutool.crypto.SecureUtil;
+import com.jimmy.groot.engine.metadata.Column;
+import com.jimmy.groot.sql.core.Condition;
+import com.jimmy.groot.sql.element.ConditionElement;
+import com.jimmy.groot.sql.enums.ColumnTypeEnum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 测试用的表结构和数据，id为唯一键，day为分区字段，其余字段由各测试指定
+ */
+final class TestTables {
+
+    private TestTables() {
+
+    }
+
+    /**
+     * 表结构，id和day之后依次为指定的字段
+     *
+     * @param others
+     * @return
+     */
+    static List<Column> columns(Column... others) {
+        List<Column> columns = new ArrayList<>();
+        columns.add(column("id", ColumnTypeEnum.VARCHAR, true, false));
+        columns.add(column("day", ColumnTypeEnum.VARCHAR, false, true));
+        columns.addAll(Arrays.asList(others));
+        return columns;
+    }
+
+    static Column column(String name, ColumnTypeEnum columnType) {
+        return column(name, columnType, false, false);
+    }
+
+    /**
+     * 只包含id和day的一行，day按行号取模分布在指定数量的分区中
+     *
+     * @param i
+     * @param partitions
+     * @return
+     */
+    static Map<String, Object> doc(int i, int partitions) {
+        Map<String, Object> doc = new HashMap<>();
+        doc.put("id", "id" + i);
+        doc.put("day", "d" + (i % partitions));
+        return doc;
+    }
+
+    static ConditionElement element(Condition... conditions) {
+        ConditionElement conditionElement = new ConditionElement();
+        conditionElement.getConditions().addAll(Arrays.asList(conditions));
+        return conditionElement;
+    }
+
+    static String partitionCode(String day) {
+        return SecureUtil.md5("day=" + day + "&");
+    }
+
+    private static Column column(String name, ColumnTypeEnum columnType, boolean unique, boolean partition) {
+        Column column = new Column();
+        column.setName(name);
+        column.setColumnType(columnType);
+        column.setIsUniqueKey(unique);
+        column.setIsPartitionKey(partition);
+        return column;
+    }
+}
@@ -0,0 +1,98 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.jimmy.groot.engine.enums.TableDataTypeEnum;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class BlockTest {
+
+    @Test
+    public void roundTripAcrossRestartPoints() {
+        List<TableData> entries = entries(BlockBuilder.RESTART_INTERVAL * 5 + 3);
+        Block block = build(entries);
+
+        for (TableData expected : entries) {
+            assertEntry(expected, block.get(expected.getKey()));
+        }
+
+        Iterator<TableData> iterator = block.iterator();
+        for (TableData expected : entries) {
+            assertEntry(expected, iterator.next());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void missingKeys() {
+        Block block = build(entries(40));
+
+        assertNull(block.get(""));
+        assertNull(block.get("key-00000-"));
+        assertNull(block.get("key-00017x"));
+        assertNull(block.get("zzz"));
+    }
+
+    @Test
+    public void emptyBlock() {
+        Block block = build(new ArrayList<>());
+
+        assertNull(block.get("key"));
+        assertFalse(block.iterator().hasNext());
+    }
+
+    @Test
+    public void readFromOffsetBuffer() {
+        List<TableData> entries = entries(20);
+        byte[] bytes = finish(entries);
+        //数据块在文件中的位置不是0
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 7);
+        buffer.position(7);
+        buffer.put(bytes);
+        buffer.position(7);
+
+        Block block = new Block(buffer);
+        assertEquals(bytes.length, block.size());
+        assertEntry(entries.get(19), block.get(entries.get(19).getKey()));
+    }
+
+    static List<TableData> entries(int count) {
+        List<TableData> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String key = String.format("key-%05d", i);
+            if (i % 7 == 3) {
+                entries.add(new TableData(key, null, TableDataTypeEnum.REMOVE));
+            } else if (i % 11 == 5) {
+                entries.add(new TableData(key, "", TableDataTypeEnum.SET));
+            } else {
+                entries.add(new TableData(key, "值-" + i, TableDataTypeEnum.SET));
+            }
+        }
+        return entries;
+    }
+
+    static void assertEntry(TableData expected, TableData actual) {
+        assertNotNull(expected.getKey(), actual);
+        assertEquals(expected.getKey(), actual.getKey());
+        assertEquals(expected.getValue(), actual.getValue());
+        assertEquals(expected.getTableDataType(), actual.getTableDataType());
+    }
+
+    private static Block build(List<TableData> entries) {
+        return new Block(ByteBuffer.wrap(finish(entries)));
+    }
+
+    private static byte[] finish(List<TableData> entries) {
+        BlockBuilder blockBuilder = new BlockBuilder();
+        entries.forEach(blockBuilder::add);
+        return blockBuilder.finish();
+    }
+}
@@ -0,0 +1,136 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import cn.hutool.core.io.FileUtil;
+import com.jimmy.groot.engine.enums.CompactionStrategyEnum;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多线程点查基准，验证ssTable按位置读取时吞吐随线程数增加
+ * <p>
+ * 先写入指定数量的ssTable，FIFO策略不合并，查询需要逐个文件查找；再按1、2、4...直到最大线程数随机读取已存在的key，输出每秒查询次数
+ * <p>
+ * 参数：ssTable数量（默认8），最大线程数（默认CPU核数），每个ssTable的行数（默认20000），每轮秒数（默认3）
+ */
+@Slf4j
+public class LsmReadBenchmark {
+
+    private static final String TABLE = ".table";
+
+    private static final long FLUSH_TIMEOUT_MILLIS = 60000;
+
+    public static void main(String[] args) throws Exception {
+        int tables = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int rowsPerTable = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        File dir = new File(System.getProperty("java.io.tmpdir"), "lsm-read-benchmark-" + System.nanoTime());
+        //过期时间远大于运行时间，不会删除文件
+        LsmStore lsmStore = LsmStore.build(dir.getPath() + File.separator, rowsPerTable, 64, 0, CompactionStrategyEnum.FIFO, TimeUnit.DAYS.toMillis(1));
+        try {
+            int total = load(lsmStore, dir, tables, rowsPerTable);
+            log.info("写入完成，ssTable数量:{}，行数:{}", tables, total);
+
+            for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+                long ops = run(lsmStore, total, threads, seconds);
+                log.info("线程数:{}，每秒查询:{}", threads, ops / seconds);
+                if (threads == maxThreads) {
+                    break;
+                }
+            }
+        } finally {
+            lsmStore.destroy();
+            FileUtil.del(dir);
+        }
+    }
+
+    /**
+     * 写入数据，每写满一个内存表切换一次，等待全部刷盘成ssTable
+     *
+     * @param lsmStore
+     * @param dir
+     * @param tables
+     * @param rowsPerTable
+     * @return 写入的行数
+     * @throws InterruptedException
+     */
+    private static int load(LsmStore lsmStore, File dir, int tables, int rowsPerTable) throws InterruptedException {
+        //超过阈值时切换内存表，每个内存表多写一行
+        int total = tables * (rowsPerTable + 1);
+        for (int i = 0; i < total; i++) {
+            lsmStore.set(key(i), value(i));
+        }
+
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MILLIS;
+        while (tableCount(dir) < tables) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("等待刷盘超时");
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        return total;
+    }
+
+    /**
+     * 多个线程随机读取一段时间
+     *
+     * @param lsmStore
+     * @param total
+     * @param threads
+     * @param seconds
+     * @return 查询次数
+     * @throws Exception
+     */
+    private static long run(LsmStore lsmStore, int total, int threads, int seconds) throws Exception {
+        AtomicLong ops = new AtomicLong();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                futures.add(executorService.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long count = 0;
+                    while (System.currentTimeMillis() < deadline) {
+                        int i = random.nextInt(total);
+                        if (!value(i).equals(lsmStore.get(key(i)))) {
+                            throw new IllegalStateException("读取结果错误:" + key(i));
+                        }
+                        count++;
+                    }
+                    ops.addAndGet(count);
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        return ops.get();
+    }
+
+    private static int tableCount(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(TABLE));
+        return files == null ? 0 : files.length;
+    }
+
+    private static String key(int i) {
+        return String.format("key%010d", i);
+    }
+
+    private static String value(int i) {
+        return "value-" + i + "-" + Integer.toHexString(i * 31);
+    }
+}
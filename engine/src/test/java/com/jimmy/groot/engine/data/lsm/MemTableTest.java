@@ -0,0 +1,102 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.jimmy.groot.engine.enums.TableDataTypeEnum;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 同一个key的写入以序列号大的为准，和写入的先后顺序无关
+ */
+public class MemTableTest {
+
+    private static final int WRITES = 2000;
+
+    private static final int WRITERS = 8;
+
+    private MemTable memTable;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void open() throws IOException {
+        memTable = new MemTable(folder.newFile("wal"), new LsmStatistics());
+    }
+
+    @After
+    public void close() throws IOException {
+        memTable.close();
+    }
+
+    @Test
+    public void olderSequenceWithSameValueIsIgnored() {
+        memTable.put(data("k", "v", 1));
+        memTable.put(data("k", "v", 7));
+        //值相同但序列号更小，不能覆盖序列号7
+        memTable.put(data("k", "v", 5));
+        memTable.put(data("k", "other", 6));
+
+        assertEquals(7, memTable.get("k").getSequence());
+        assertEquals("v", memTable.get("k").getValue());
+        assertEquals(1, memTable.size());
+    }
+
+    @Test
+    public void concurrentWritersKeepHighestSequence() throws Exception {
+        List<Long> sequences = new ArrayList<>();
+        for (long i = 1; i <= WRITES; i++) {
+            sequences.add(i);
+        }
+        Collections.shuffle(sequences);
+
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                int writer = w;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    //每个线程负责交错的一组序列号，写入相同的值
+                    for (int i = writer; i < sequences.size(); i += WRITERS) {
+                        memTable.put(data("k", "v", sequences.get(i)));
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(WRITES, memTable.get("k").getSequence());
+        assertEquals(1, memTable.size());
+    }
+
+    private static TableData data(String key, String value, long sequence) {
+        TableData tableData = new TableData(key, value, TableDataTypeEnum.SET);
+        tableData.setSequence(sequence);
+        return tableData;
+    }
+}
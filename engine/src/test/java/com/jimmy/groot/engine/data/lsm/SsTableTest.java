@@ -0,0 +1,306 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 各版本ssTable的读取，当前版本由写入生成，旧版本按当时的格式直接构造文件
+ */
+public class SsTableTest {
+
+    private static final int PART_SIZE = 8;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final List<SsTable> opened = new ArrayList<>();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void close() throws IOException {
+        for (SsTable ssTable : opened) {
+            ssTable.close();
+        }
+    }
+
+    @Test
+    public void currentVersionRoundTrip() throws IOException {
+        List<TableData> entries = BlockTest.entries(500);
+        String path = this.path();
+        SsTable written = this.write(path, entries, PART_SIZE);
+
+        assertTrue(written.hasBloomFilter());
+        this.assertTable(written, entries);
+        //重新打开只依赖文件内容
+        SsTable restored = this.restore(path);
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            assertEquals(TableMetaData.CURRENT_VERSION, TableMetaData.readFromFile(file).getVersion());
+        }
+        assertEquals(entries.get(0).getKey(), restored.getSmallestKey());
+        assertEquals(entries.get(entries.size() - 1).getKey(), restored.getLargestKey());
+        assertTrue(restored.hasBloomFilter());
+        this.assertTable(restored, entries);
+    }
+
+    @Test
+    public void twoLevelIndexRoundTrip() throws IOException {
+        //分区数超过默认的索引分区大小，写成两级索引
+        List<TableData> entries = BlockTest.entries(LsmConfig.getIndexPartitionSize() * 2 + 10);
+        String path = this.path();
+        this.write(path, entries, 2);
+
+        this.assertTable(this.restore(path), entries);
+    }
+
+    @Test
+    public void legacyJsonVersion() throws IOException {
+        List<TableData> entries = BlockTest.entries(100);
+        String path = this.path();
+        this.writeLegacy(path, entries);
+
+        SsTable ssTable = this.restore(path);
+        assertFalse(ssTable.hasBloomFilter());
+        assertNull(ssTable.getSmallestKey());
+        this.assertTable(ssTable, entries);
+    }
+
+    @Test
+    public void legacyPartWeighsDecodedEntries() throws IOException {
+        TreeMap<String, TableData> part = new TreeMap<>();
+        for (TableData entry : BlockTest.entries(PART_SIZE)) {
+            part.put(entry.getKey(), entry);
+        }
+        //缓存中是解码后的对象，占用不能按JSON的字节数计算
+        int jsonLen = objectMapper.writeValueAsString(part).getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(SsTable.legacyPartWeight(part) > jsonLen);
+        assertEquals(0, SsTable.legacyPartWeight(new TreeMap<>()));
+    }
+
+    @Test
+    public void blockVersion() throws IOException {
+        List<TableData> entries = BlockTest.entries(100);
+        String path = this.path();
+        this.writeBlocks(path, entries, TableMetaData.BLOCK_VERSION);
+
+        SsTable ssTable = this.restore(path);
+        assertFalse(ssTable.hasBloomFilter());
+        this.assertTable(ssTable, entries);
+    }
+
+    @Test
+    public void bloomVersion() throws IOException {
+        List<TableData> entries = BlockTest.entries(100);
+        String path = this.path();
+        this.writeBlocks(path, entries, TableMetaData.BLOOM_VERSION);
+
+        SsTable ssTable = this.restore(path);
+        assertTrue(ssTable.hasBloomFilter());
+        assertTrue(ssTable.mightContain(entries.get(50).getKey()));
+        this.assertTable(ssTable, entries);
+    }
+
+    @Test
+    public void footerVersions() throws IOException {
+        for (long version = TableMetaData.BLOCK_VERSION; version <= TableMetaData.CURRENT_VERSION; version++) {
+            TableMetaData tableMetaData = new TableMetaData();
+            tableMetaData.setVersion(version);
+            tableMetaData.setTotal(11);
+            tableMetaData.setPartSize(12);
+            tableMetaData.setDataStart(13);
+            tableMetaData.setDataLen(14);
+            tableMetaData.setIndexStart(15);
+            tableMetaData.setIndexLen(16);
+            tableMetaData.setBloomStart(17);
+            tableMetaData.setBloomLen(18);
+
+            String path = this.path();
+            try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+                file.write(new byte[100]);
+                tableMetaData.writeToFile(file);
+
+                TableMetaData read = TableMetaData.readFromFile(file);
+                assertEquals(version, read.getVersion());
+                assertEquals(11, read.getTotal());
+                assertEquals(12, read.getPartSize());
+                assertEquals(13, read.getDataStart());
+                assertEquals(14, read.getDataLen());
+                assertEquals(15, read.getIndexStart());
+                assertEquals(16, read.getIndexLen());
+                assertEquals(version >= TableMetaData.BLOOM_VERSION ? 17 : 0, read.getBloomStart());
+                assertEquals(version >= TableMetaData.BLOOM_VERSION ? 18 : 0, read.getBloomLen());
+                assertEquals(version >= TableMetaData.FENCE_VERSION, read.hasFencePointers());
+            }
+        }
+    }
+
+    @Test
+    public void legacyFooter() throws IOException {
+        String path = this.path();
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.write(new byte[100]);
+            writeLegacyFooter(file, 21, 22, 23, 24, 25, 26);
+
+            TableMetaData read = TableMetaData.readFromFile(file);
+            assertTrue(read.isLegacy());
+            assertEquals(21, read.getTotal());
+            assertEquals(22, read.getPartSize());
+            assertEquals(23, read.getDataStart());
+            assertEquals(24, read.getDataLen());
+            assertEquals(25, read.getIndexStart());
+            assertEquals(26, read.getIndexLen());
+            assertFalse(read.hasBloomFilter());
+        }
+    }
+
+    /**
+     * 点查、缺失的key、全量遍历和从中间开始遍历
+     *
+     * @param ssTable
+     * @param entries
+     */
+    private void assertTable(SsTable ssTable, List<TableData> entries) {
+        assertEquals(entries.size(), ssTable.count());
+        for (TableData expected : entries) {
+            BlockTest.assertEntry(expected, ssTable.query(expected.getKey()));
+        }
+
+        assertNull(ssTable.query("a"));
+        assertNull(ssTable.query("key-00001x"));
+        assertNull(ssTable.query("zzz"));
+
+        assertIterator(ssTable.iterator(), entries, 0);
+        int from = entries.size() / 3;
+        assertIterator(ssTable.iterator(entries.get(from).getKey()), entries, from);
+        //起始key不存在时从下一个key开始
+        assertIterator(ssTable.iterator(entries.get(from).getKey() + "x"), entries, from + 1);
+    }
+
+    private static void assertIterator(Iterator<TableData> iterator, List<TableData> entries, int from) {
+        for (int i = from; i < entries.size(); i++) {
+            BlockTest.assertEntry(entries.get(i), iterator.next());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    private String path() {
+        return new File(folder.getRoot(), System.nanoTime() + "-0.table").getPath();
+    }
+
+    private SsTable write(String path, List<TableData> entries, int partSize) {
+        SsTable ssTable = SsTable.build(path, System.currentTimeMillis(), 0, (long) partSize, entries.size(), objectMapper);
+        opened.add(ssTable);
+        ssTable.write(entries.iterator(), entries.size(), Long.MAX_VALUE);
+        return ssTable;
+    }
+
+    private SsTable restore(String path) {
+        SsTable ssTable = SsTable.restore(path, System.currentTimeMillis(), 0, objectMapper);
+        opened.add(ssTable);
+        return ssTable;
+    }
+
+    /**
+     * 旧版本JSON格式：分区为key到数据的JSON，稀疏索引为分区第一个key到位置的JSON，文件尾依次为7个long，最后是版本号0
+     *
+     * @param path
+     * @param entries
+     * @throws IOException
+     */
+    private void writeLegacy(String path, List<TableData> entries) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            TreeMap<String, SsTable.Position> index = new TreeMap<>();
+            for (int from = 0; from < entries.size(); from += PART_SIZE) {
+                TreeMap<String, TableData> part = new TreeMap<>();
+                for (TableData entry : entries.subList(from, Math.min(from + PART_SIZE, entries.size()))) {
+                    part.put(entry.getKey(), entry);
+                }
+
+                byte[] bytes = objectMapper.writeValueAsString(part).getBytes(StandardCharsets.UTF_8);
+                index.put(part.firstKey(), new SsTable.Position(file.getFilePointer(), bytes.length));
+                file.write(bytes);
+            }
+
+            long dataLen = file.getFilePointer();
+            byte[] indexBytes = objectMapper.writeValueAsString(index).getBytes(StandardCharsets.UTF_8);
+            file.write(indexBytes);
+            writeLegacyFooter(file, entries.size(), PART_SIZE, 0, dataLen, dataLen, indexBytes.length);
+        }
+    }
+
+    private static void writeLegacyFooter(RandomAccessFile file, long total, long partSize, long dataStart, long dataLen, long indexStart, long indexLen) throws IOException {
+        file.writeLong(total);
+        file.writeLong(partSize);
+        file.writeLong(dataStart);
+        file.writeLong(dataLen);
+        file.writeLong(indexStart);
+        file.writeLong(indexLen);
+        file.writeLong(TableMetaData.LEGACY_VERSION);
+    }
+
+    /**
+     * 没有分区边界的二进制块格式，稀疏索引为：数量|（第一个key|起始位置|长度）*，没有索引类型
+     *
+     * @param path
+     * @param entries
+     * @param version 1不带布隆过滤器，2带布隆过滤器
+     * @throws IOException
+     */
+    private void writeBlocks(String path, List<TableData> entries, long version) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            Coding.writeVarInt(index, (entries.size() + PART_SIZE - 1) / PART_SIZE);
+            for (int from = 0; from < entries.size(); from += PART_SIZE) {
+                BlockBuilder blockBuilder = new BlockBuilder();
+                entries.subList(from, Math.min(from + PART_SIZE, entries.size())).forEach(blockBuilder::add);
+                byte[] bytes = blockBuilder.finish();
+
+                Coding.writeString(index, blockBuilder.getFirstKey());
+                Coding.writeVarLong(index, file.getFilePointer());
+                Coding.writeVarLong(index, bytes.length);
+                file.write(bytes);
+            }
+
+            TableMetaData tableMetaData = new TableMetaData();
+            tableMetaData.setVersion(version);
+            tableMetaData.setTotal(entries.size());
+            tableMetaData.setPartSize(PART_SIZE);
+            tableMetaData.setDataLen(file.getFilePointer());
+            tableMetaData.setIndexStart(file.getFilePointer());
+            tableMetaData.setIndexLen(index.size());
+            file.write(index.toByteArray());
+
+            if (version >= TableMetaData.BLOOM_VERSION) {
+                BloomFilter<CharSequence> bloom = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), entries.size(), 0.01);
+                entries.forEach(entry -> bloom.put(entry.getKey()));
+                ByteArrayOutputStream bloomBytes = new ByteArrayOutputStream();
+                bloom.writeTo(bloomBytes);
+
+                tableMetaData.setBloomStart(file.getFilePointer());
+                tableMetaData.setBloomLen(bloomBytes.size());
+                file.write(bloomBytes.toByteArray());
+            }
+            tableMetaData.writeToFile(file);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import com.jimmy.groot.engine.enums.TableDataTypeEnum;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WalRecordTest {
+
+    @Test
+    public void roundTrip() {
+        List<ByteBuffer> records = records(5);
+        ByteBuffer wal = wal(records);
+
+        List<TableData> decoded = new ArrayList<>();
+        wal.position(WalRecord.HEADER_SIZE);
+        int end = WalRecord.decode(wal, decoded::add);
+
+        assertEquals(wal.limit(), end);
+        assertEquals(15, decoded.size());
+        for (int i = 0; i < decoded.size(); i++) {
+            TableData tableData = decoded.get(i);
+            assertEquals(i + 1, tableData.getSequence());
+            assertEquals("key-" + i, tableData.getKey());
+            if (i % 3 == 2) {
+                assertEquals(TableDataTypeEnum.REMOVE, tableData.getTableDataType());
+                assertNull(tableData.getValue());
+            } else {
+                assertEquals(TableDataTypeEnum.SET, tableData.getTableDataType());
+                assertEquals("值-" + i, tableData.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void header() {
+        assertTrue(WalRecord.isBinary(wal(records(1))));
+        assertFalse(WalRecord.isBinary(ByteBuffer.wrap(new byte[]{0, 0, 0, 10})));
+        assertFalse(WalRecord.isBinary(ByteBuffer.allocate(2)));
+    }
+
+    @Test
+    public void tornTailAtEveryCut() {
+        List<ByteBuffer> records = records(3);
+        ByteBuffer wal = wal(records);
+        int lastStart = wal.limit() - records.get(2).remaining();
+
+        for (int cut = lastStart + 1; cut < wal.limit(); cut++) {
+            ByteBuffer torn = wal.duplicate();
+            torn.limit(cut);
+
+            Decoded decoded = this.decode(torn);
+            assertEquals("cut at " + cut, lastStart, decoded.end);
+            assertEquals("cut at " + cut, 6, decoded.entries.size());
+        }
+    }
+
+    @Test
+    public void checksumMismatchStops() {
+        List<ByteBuffer> records = records(3);
+        ByteBuffer wal = wal(records);
+        int secondStart = WalRecord.HEADER_SIZE + records.get(0).remaining();
+        //改动第二条记录内容的最后一个字节
+        int target = secondStart + records.get(1).remaining() - 1;
+        wal.put(target, (byte) (wal.get(target) ^ 0x5A));
+
+        Decoded decoded = this.decode(wal);
+        assertEquals(secondStart, decoded.end);
+        assertEquals(3, decoded.entries.size());
+    }
+
+    @Test
+    public void decodingStopsAtZeroFilledGap() {
+        List<ByteBuffer> records = records(4);
+        //第二条记录没有写入，位置上全为0，之后的记录不恢复
+        ByteBuffer wal = ByteBuffer.allocate(wal(records).limit());
+        wal.put(WalRecord.header());
+        int gap = wal.position() + records.get(0).remaining();
+        for (int i = 0; i < records.size(); i++) {
+            ByteBuffer record = records.get(i).duplicate();
+            if (i == 1) {
+                wal.position(wal.position() + record.remaining());
+            } else {
+                wal.put(record);
+            }
+        }
+        wal.flip();
+
+        Decoded decoded = this.decode(wal);
+        assertEquals(gap, decoded.end);
+        assertEquals(3, decoded.entries.size());
+    }
+
+    @Test
+    public void zeroTailIsDiscarded() {
+        ByteBuffer wal = wal(records(2));
+        int end = wal.limit();
+        ByteBuffer padded = ByteBuffer.allocate(end + 100);
+        padded.put(wal);
+        padded.flip();
+        padded.limit(end + 100);
+
+        Decoded decoded = this.decode(padded);
+        assertEquals(end, decoded.end);
+        assertEquals(6, decoded.entries.size());
+    }
+
+    /**
+     * 每条记录3个key，第三个为删除
+     *
+     * @param count
+     * @return
+     */
+    private static List<ByteBuffer> records(int count) {
+        List<ByteBuffer> records = new ArrayList<>(count);
+        for (int r = 0; r < count; r++) {
+            List<TableData> entries = new ArrayList<>(3);
+            for (int i = r * 3; i < r * 3 + 3; i++) {
+                entries.add(i % 3 == 2 ? new TableData("key-" + i, null, TableDataTypeEnum.REMOVE) : new TableData("key-" + i, "值-" + i, TableDataTypeEnum.SET));
+            }
+            records.add(WalRecord.encode(r * 3 + 1, entries));
+        }
+        return records;
+    }
+
+    private static ByteBuffer wal(List<ByteBuffer> records) {
+        int size = WalRecord.HEADER_SIZE + records.stream().mapToInt(ByteBuffer::remaining).sum();
+        ByteBuffer wal = ByteBuffer.allocate(size);
+        wal.put(WalRecord.header());
+        records.forEach(record -> wal.put(record.duplicate()));
+        wal.flip();
+        return wal;
+    }
+
+    private Decoded decode(ByteBuffer wal) {
+        ByteBuffer buffer = wal.duplicate();
+        buffer.position(WalRecord.HEADER_SIZE);
+        Decoded decoded = new Decoded();
+        decoded.end = WalRecord.decode(buffer, decoded.entries::add);
+        return decoded;
+    }
+
+    private static class Decoded {
+
+        private final List<TableData> entries = new ArrayList<>();
+
+        private int end;
+    }
+}
@@ -0,0 +1,155 @@
+package com.jimmy.groot.engine.data.lsm;
+
+import cn.hutool.core.io.FileUtil;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 批量写入和WAL恢复，内存表阈值足够大，数据只在内存表和WAL中
+ */
+public class WriteBatchTest {
+
+    private static final int STORE_THRESHOLD = 100000;
+
+    private static final String WAL = "wal";
+
+    private final List<LsmStore> stores = new ArrayList<>();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void destroy() {
+        stores.forEach(LsmStore::destroy);
+    }
+
+    @Test
+    public void laterEntriesWin() throws IOException {
+        LsmStore lsmStore = this.open(folder.newFolder());
+        lsmStore.set("b", "old");
+
+        WriteBatch writeBatch = new WriteBatch()
+                .set("a", "1")
+                .set("a", "2")
+                .remove("b")
+                .set("c", "3")
+                .remove("c");
+        assertEquals(5, writeBatch.size());
+        lsmStore.write(writeBatch);
+
+        assertEquals("2", lsmStore.get("a"));
+        assertNull(lsmStore.get("b"));
+        assertNull(lsmStore.get("c"));
+    }
+
+    @Test
+    public void batchIsCopiedOnWrite() throws IOException {
+        LsmStore lsmStore = this.open(folder.newFolder());
+        WriteBatch writeBatch = new WriteBatch().set("a", "1");
+        lsmStore.write(writeBatch);
+
+        writeBatch.clear();
+        assertTrue(writeBatch.isEmpty());
+        writeBatch.set("a", "changed");
+        assertEquals("1", lsmStore.get("a"));
+        //空的批量不写入
+        lsmStore.write(new WriteBatch());
+        assertEquals("1", lsmStore.get("a"));
+    }
+
+    @Test
+    public void restoredFromWal() throws IOException {
+        File dir = folder.newFolder();
+        LsmStore lsmStore = this.open(dir);
+        for (int i = 0; i < 100; i++) {
+            lsmStore.write(batch(i));
+        }
+
+        LsmStore restored = this.open(this.copyWal(dir, -1));
+        for (int i = 0; i < 100; i++) {
+            assertBatch(restored, i, true);
+        }
+    }
+
+    @Test
+    public void tornBatchIsDiscarded() throws IOException {
+        File dir = folder.newFolder();
+        LsmStore lsmStore = this.open(dir);
+        File wal = new File(dir, WAL);
+        long[] ends = new long[10];
+        for (int i = 0; i < ends.length; i++) {
+            lsmStore.write(batch(i));
+            ends[i] = wal.length();
+        }
+        //最后一批只写入了一半
+        long cut = (ends[8] + ends[9]) / 2;
+        File copy = this.copyWal(dir, cut);
+
+        LsmStore restored = this.open(copy);
+        for (int i = 0; i < 9; i++) {
+            assertBatch(restored, i, true);
+        }
+        assertBatch(restored, 9, false);
+        //不完整的记录被截断，之后的写入接在有效数据之后
+        assertEquals(ends[8], new File(copy, WAL).length());
+
+        restored.write(batch(9));
+        LsmStore reopened = this.open(this.copyWal(copy, -1));
+        for (int i = 0; i < 10; i++) {
+            assertBatch(reopened, i, true);
+        }
+    }
+
+    private static WriteBatch batch(int i) {
+        return new WriteBatch()
+                .set("k" + i + ":a", "值" + i)
+                .set("k" + i + ":b", null)
+                .set("k" + i + ":c", "c" + i)
+                .remove("k" + i + ":c");
+    }
+
+    private static void assertBatch(LsmStore lsmStore, int i, boolean present) {
+        assertEquals(present ? "值" + i : null, lsmStore.get("k" + i + ":a"));
+        assertNull(lsmStore.get("k" + i + ":b"));
+        assertNull(lsmStore.get("k" + i + ":c"));
+    }
+
+    private LsmStore open(File dir) {
+        LsmStore lsmStore = LsmStore.build(dir.getPath() + File.separator, STORE_THRESHOLD, 64, 0);
+        stores.add(lsmStore);
+        return lsmStore;
+    }
+
+    /**
+     * 复制WAL到新目录，模拟崩溃后重新打开
+     *
+     * @param dir
+     * @param length 复制的字节数，小于0时复制全部
+     * @return
+     * @throws IOException
+     */
+    private File copyWal(File dir, long length) throws IOException {
+        File target = folder.newFolder();
+        File wal = FileUtil.copy(new File(dir, WAL), new File(target, WAL), true);
+        if (length >= 0) {
+            try (RandomAccessFile file = new RandomAccessFile(wal, "rw")) {
+                file.setLength(length);
+            }
+        }
+        assertFalse(new File(target, WAL + ".1").exists());
+        return target;
+    }
+}
@@ -0,0 +1,148 @@
+package com.jimmy.groot.engine.data.memory;
+
+import com.jimmy.groot.engine.metadata.Column;
+import com.jimmy.groot.platform.base.Serializer;
+import com.jimmy.groot.platform.serializer.SerializerSupport;
+import com.jimmy.groot.sql.enums.ColumnTypeEnum;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 定长槽位、变长字段、null位图、不在表结构中的溢出字段以及序列化保存的其他类型
+ */
+public class BinaryRowCodecTest {
+
+    private static final String[] NAMES = {"s", "i", "l", "sh", "b", "f", "d", "bo", "dt", "dec", "by", "bi", "n", "empty"};
+
+    private final RowSchema schema = new RowSchema(columns());
+
+    @Test
+    public void roundTripWithJson() {
+        this.assertRoundTrip(SerializerSupport.getInstance().get("JSON"));
+    }
+
+    @Test
+    public void roundTripWithKryo() {
+        this.assertRoundTrip(SerializerSupport.getInstance().get("KRYO"));
+    }
+
+    @Test
+    public void partialDecode() {
+        Serializer serializer = SerializerSupport.getInstance().get("JSON");
+        byte[] row = BinaryRowCodec.encode(schema, data(), serializer);
+
+        Map<String, Object> decoded = BinaryRowCodec.decode(schema, ByteBuffer.wrap(row), Arrays.asList("d", "n", "extra", "missing"), serializer);
+        assertEquals(Math.PI, decoded.get("d"));
+        assertEquals("x", decoded.get("extra"));
+        assertNull(decoded.get("n"));
+        assertFalse(decoded.containsKey("missing"));
+        assertFalse(decoded.containsKey("s"));
+        assertFalse(decoded.containsKey("extra2"));
+    }
+
+    @Test
+    public void nullsOnly() {
+        Serializer serializer = SerializerSupport.getInstance().get("JSON");
+        Map<String, Object> data = new HashMap<>();
+        data.put("s", "only");
+
+        Map<String, Object> decoded = BinaryRowCodec.decode(schema, ByteBuffer.wrap(BinaryRowCodec.encode(schema, data, serializer)), serializer);
+        assertEquals("only", decoded.get("s"));
+        for (String name : NAMES) {
+            if (!"s".equals(name)) {
+                assertNull(name, decoded.get(name));
+            }
+        }
+    }
+
+    @Test
+    public void readFromDirectBufferAtOffset() {
+        Serializer serializer = SerializerSupport.getInstance().get("KRYO");
+        byte[] row = BinaryRowCodec.encode(schema, data(), serializer);
+        //行数据在堆外内存槽位中的位置不是0
+        ByteBuffer direct = ByteBuffer.allocateDirect(row.length + 10);
+        direct.position(10);
+        direct.put(row);
+        direct.position(10);
+
+        assertDecoded(data(), BinaryRowCodec.decode(schema, direct.slice(), serializer));
+        assertEquals(new BigDecimal("12.3400"), BinaryRowCodec.read(direct.slice(), schema.ordinal("dec"), serializer));
+    }
+
+    private void assertRoundTrip(Serializer serializer) {
+        Map<String, Object> data = data();
+        byte[] row = BinaryRowCodec.encode(schema, data, serializer);
+
+        assertDecoded(data, BinaryRowCodec.decode(schema, ByteBuffer.wrap(row), serializer));
+    }
+
+    private static void assertDecoded(Map<String, Object> expected, Map<String, Object> decoded) {
+        for (Map.Entry<String, Object> entry : expected.entrySet()) {
+            Object value = decoded.get(entry.getKey());
+            if (entry.getValue() instanceof byte[]) {
+                assertArrayEquals((byte[]) entry.getValue(), (byte[]) value);
+            } else if (entry.getValue() == null) {
+                assertNull(entry.getKey(), value);
+            } else {
+                assertEquals(entry.getKey(), entry.getValue().toString(), value.toString());
+            }
+        }
+
+        //表结构中的基础类型保留原类型
+        for (String name : Arrays.asList("s", "i", "l", "sh", "b", "f", "d", "bo", "dt", "dec")) {
+            assertEquals(name, expected.get(name).getClass(), decoded.get(name).getClass());
+        }
+        assertTrue(decoded.containsKey("extra2"));
+    }
+
+    private static Map<String, Object> data() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("s", "héllo 世界");
+        data.put("i", -5);
+        data.put("l", 1L << 40);
+        data.put("sh", (short) 7);
+        data.put("b", (byte) -3);
+        data.put("f", 1.5f);
+        data.put("d", Math.PI);
+        data.put("bo", true);
+        data.put("dt", new Date(123456789L));
+        data.put("dec", new BigDecimal("12.3400"));
+        data.put("by", new byte[]{1, 2, 3});
+        //其他类型序列化保存
+        data.put("bi", new BigInteger("123456789012345678901234567890"));
+        data.put("n", null);
+        data.put("empty", "");
+        //不在表结构中的字段
+        data.put("extra", "x");
+        data.put("extra2", 42);
+        return data;
+    }
+
+    private static List<Column> columns() {
+        List<Column> columns = new ArrayList<>();
+        for (String name : NAMES) {
+            Column column = new Column();
+            column.setName(name);
+            column.setColumnType(ColumnTypeEnum.VARCHAR);
+            column.setIsUniqueKey("s".equals(name));
+            column.setIsPartitionKey(false);
+            columns.add(column);
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,155 @@
+package com.jimmy.groot.engine.data.memory;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryPoolTest {
+
+    private final MemoryPool memoryPool = MemoryPool.getInstance();
+
+    @Test
+    public void handlesSurviveReuse() {
+        Random random = new Random(1);
+        int count = 20000;
+        long[] handles = new long[count];
+        byte[][] values = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            values[i] = bytes(random, random.nextInt(3000));
+            handles[i] = memoryPool.allocateFromMemory(values[i]);
+        }
+
+        //释放一半后重新分配，槽位被复用，其他句柄的内容不受影响
+        for (int i = 0; i < count; i += 2) {
+            memoryPool.free(handles[i]);
+        }
+        for (int i = 0; i < count; i += 2) {
+            values[i] = bytes(random, random.nextInt(500));
+            handles[i] = memoryPool.allocateFromMemory(values[i]);
+        }
+
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals(values[i], memoryPool.get(handles[i]));
+        }
+        for (int i = 0; i < count; i++) {
+            memoryPool.free(handles[i]);
+        }
+    }
+
+    @Test
+    public void hugeAllocation() {
+        //超过单个区域大小的数据单独占用一个区域
+        byte[] huge = bytes(new Random(2), 9 << 20);
+        long used = memoryPool.getUsedBytes();
+        long handle = memoryPool.allocate(huge);
+
+        assertTrue(memoryPool.sizeOf(handle) >= huge.length);
+        assertEquals(used + memoryPool.sizeOf(handle), memoryPool.getUsedBytes());
+        assertArrayEquals(huge, memoryPool.view(handle, MemoryPoolTest::toBytes));
+        memoryPool.free(handle);
+        assertEquals(used, memoryPool.getUsedBytes());
+    }
+
+    @Test
+    public void uncompressedView() {
+        byte[] value = bytes(new Random(3), 100);
+        long handle = memoryPool.allocate(value);
+
+        ByteBuffer view = memoryPool.view(handle, buffer -> buffer);
+        assertTrue(view.isReadOnly());
+        assertEquals(value.length, view.remaining());
+        assertArrayEquals(value, toBytes(view));
+        memoryPool.free(handle);
+    }
+
+    @Test
+    public void getAndFree() {
+        byte[] value = bytes(new Random(4), 1000);
+        long used = memoryPool.getUsedBytes();
+        long handle = memoryPool.allocateFromMemory(value);
+
+        assertTrue(memoryPool.getUsedBytes() > used);
+        assertArrayEquals(value, memoryPool.getAndFree(handle));
+        assertEquals(used, memoryPool.getUsedBytes());
+    }
+
+    @Test
+    public void nullHandle() {
+        assertNull(memoryPool.get(MemoryPool.NULL_HANDLE));
+        assertNull(memoryPool.view(MemoryPool.NULL_HANDLE, buffer -> buffer));
+        assertEquals(0, memoryPool.sizeOf(MemoryPool.NULL_HANDLE));
+        memoryPool.free(MemoryPool.NULL_HANDLE);
+    }
+
+    @Test
+    public void heapBytesCountTowardsUsed() {
+        long used = memoryPool.getUsedBytes();
+        memoryPool.addHeapBytes(1234);
+        assertEquals(used + 1234, memoryPool.getUsedBytes());
+        memoryPool.addHeapBytes(-1234);
+        assertEquals(used, memoryPool.getUsedBytes());
+    }
+
+    @Test
+    public void concurrentAllocation() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int seed = t;
+                futures.add(executorService.submit(() -> {
+                    Random random = new Random(seed);
+                    List<Long> handles = new ArrayList<>();
+                    List<byte[]> values = new ArrayList<>();
+                    int bad = 0;
+                    for (int i = 0; i < 5000; i++) {
+                        byte[] value = bytes(random, random.nextInt(1000));
+                        long handle = memoryPool.allocateFromMemory(value);
+                        if (i % 3 == 0) {
+                            memoryPool.free(handle);
+                        } else {
+                            handles.add(handle);
+                            values.add(value);
+                        }
+                    }
+                    for (int i = 0; i < handles.size(); i++) {
+                        if (!Arrays.equals(values.get(i), memoryPool.getAndFree(handles.get(i)))) {
+                            bad++;
+                        }
+                    }
+                    return bad;
+                }));
+            }
+
+            for (Future<Integer> future : futures) {
+                assertEquals(0, future.get().intValue());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
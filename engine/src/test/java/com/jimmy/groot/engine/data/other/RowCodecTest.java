@@ -0,0 +1,72 @@
+package com.jimmy.groot.engine.data.other;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RowCodecTest {
+
+    @Test
+    public void roundTrip() {
+        List<String> values = Arrays.asList("a", null, "", "中文", "\u0000퟿", null);
+        String row = RowCodec.encode(values);
+
+        assertArrayEquals(values.toArray(), RowCodec.decode(row, needed(values.size(), true)));
+    }
+
+    @Test
+    public void longValue() {
+        //超过单字符长度上限的字段使用长长度头
+        char[] chars = new char[0xD7FF * 3 + 17];
+        Arrays.fill(chars, 'x');
+        String longValue = new String(chars);
+        List<String> values = Arrays.asList("a", longValue, "b");
+
+        String[] decoded = RowCodec.decode(RowCodec.encode(values), needed(values.size(), true));
+        assertEquals("a", decoded[0]);
+        assertEquals(longValue, decoded[1]);
+        assertEquals("b", decoded[2]);
+    }
+
+    @Test
+    public void lengthBoundary() {
+        for (int length = 0xD7FF - 4; length <= 0xD7FF + 2; length++) {
+            char[] chars = new char[length];
+            Arrays.fill(chars, 'y');
+            List<String> values = Arrays.asList(new String(chars), "z");
+
+            assertArrayEquals("length " + length, values.toArray(), RowCodec.decode(RowCodec.encode(values), needed(values.size(), true)));
+        }
+    }
+
+    @Test
+    public void onlyNeededFields() {
+        List<String> values = Arrays.asList("a", "b", null, "d");
+        boolean[] needed = {false, true, true, false};
+
+        assertArrayEquals(new String[]{null, "b", null, null}, RowCodec.decode(RowCodec.encode(values), needed));
+    }
+
+    @Test
+    public void fieldsAddedAfterEncoding() {
+        //编码之后新增的字段解码为null
+        String row = RowCodec.encode(Arrays.asList("a", "b"));
+        String[] decoded = RowCodec.decode(row, needed(4, true));
+
+        assertEquals("a", decoded[0]);
+        assertEquals("b", decoded[1]);
+        assertNull(decoded[2]);
+        assertNull(decoded[3]);
+    }
+
+    private static boolean[] needed(int size, boolean value) {
+        boolean[] needed = new boolean[size];
+        Arrays.fill(needed, value);
+        return needed;
+    }
+}
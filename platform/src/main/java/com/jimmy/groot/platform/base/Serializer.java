@@ -1,8 +1,28 @@
 package com.jimmy.groot.platform.base;
 
+import java.nio.ByteBuffer;
+
 public interface Serializer {
 
     byte[] serialize(Object o);
 
     <T> T deserialize(byte[] bytes, Class<T> clazz);
+
+    /**
+     * 从position到limit之间的内容反序列化，不需要先复制成数组，默认复制后按数组处理
+     *
+     * @param buffer
+     * @param clazz
+     * @param <T>
+     * @return
+     */
+    default <T> T deserialize(ByteBuffer buffer, Class<T> clazz) {
+        if (buffer == null) {
+            return null;
+        }
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return this.deserialize(bytes, clazz);
+    }
 }
@@ -15,6 +15,39 @@ public interface ConfigConstant {
         String PREFERRED_NETWORKS = "preferred_networks";
     }
 
+    interface Engine {
+
+        String BLOCK_CACHE_SIZE = "block_cache_size";
+
+        String SSTABLE_READ_MODE = "sstable_read_mode";
+
+        String SSTABLE_INDEX_PARTITION_SIZE = "sstable_index_partition_size";
+
+        String COMPACTION_THREADS = "compaction_threads";
+
+        String COMPACTION_L0_TRIGGER = "compaction_l0_trigger";
+
+        String COMPACTION_LEVEL_BASE_SIZE = "compaction_level_base_size";
+
+        String COMPACTION_LEVEL_MULTIPLIER = "compaction_level_multiplier";
+
+        String COMPACTION_TARGET_FILE_SIZE = "compaction_target_file_size";
+
+        String FLUSH_THREADS = "flush_threads";
+
+        String MAX_IMMUTABLE_MEMTABLES = "max_immutable_memtables";
+
+        String WAL_SYNC_MODE = "wal_sync_mode";
+
+        String WAL_SYNC_INTERVAL = "wal_sync_interval";
+
+        String PRIMARY_KEY_SHARDS = "primary_key_shards";
+
+        String MEMORY_ARENA_SIZE = "memory_arena_size";
+
+        String MEMORY_BUDGET = "memory_budget";
+    }
+
     interface Center {
 
         String BOOT_PORT = "boot_port";
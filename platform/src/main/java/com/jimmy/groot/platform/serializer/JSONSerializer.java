@@ -2,10 +2,12 @@ package com.jimmy.groot.platform.serializer;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 import com.jimmy.groot.platform.base.Serializer;
 import com.jimmy.groot.platform.exception.SerializerException;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class JSONSerializer implements Serializer {
 
@@ -36,4 +38,21 @@ public class JSONSerializer implements Serializer {
             throw new SerializerException("反序列化失败", e);
         }
     }
+
+    @Override
+    public <T> T deserialize(ByteBuffer buffer, Class<T> clazz) {
+        if (buffer == null) {
+            return null;
+        }
+
+        try {
+            if (buffer.hasArray()) {
+                return objectMapper.readValue(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), clazz);
+            }
+
+            return objectMapper.readValue(new ByteBufferBackedInputStream(buffer), clazz);
+        } catch (IOException e) {
+            throw new SerializerException("反序列化失败", e);
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package com.jimmy.groot.platform.serializer;
 
 import com.esotericsoftware.kryo.kryo5.Kryo;
+import com.esotericsoftware.kryo.kryo5.io.ByteBufferInput;
 import com.esotericsoftware.kryo.kryo5.io.Input;
 import com.esotericsoftware.kryo.kryo5.io.Output;
 import com.esotericsoftware.kryo.kryo5.objenesis.strategy.StdInstantiatorStrategy;
@@ -12,6 +13,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.util.HashMap;
 
@@ -59,4 +61,20 @@ public class KryoSerializer implements Serializer {
             throw new SerializerException("反序列化失败", e);
         }
     }
+
+    @Override
+    public <T> T deserialize(ByteBuffer buffer, Class<T> clazz) {
+        if (buffer == null) {
+            return null;
+        }
+
+        try (Input input = new ByteBufferInput(buffer.slice())) {
+            Kryo kryo = kryoThreadLocal.get();
+            T obj = kryo.readObject(input, clazz);
+            kryoThreadLocal.remove();
+            return obj;
+        } catch (Exception e) {
+            throw new SerializerException("反序列化失败", e);
+        }
+    }
 }
@@ -29,4 +29,14 @@ public class QueryElement implements Serializable {
     private List<ConditionElement> conditionElements = new ArrayList<>();
 
     private List<AggregateFunction> aggregateFunctions = new ArrayList<>();
+
+    /**
+     * 上一页返回的游标，不为空时从游标之后继续查询，start不再生效，每页数量为end-start
+     */
+    private String cursor;
+
+    /**
+     * 查询后设置的下一页游标，没有下一页时为空
+     */
+    private String nextCursor;
 }